@@ -1,15 +1,11 @@
 package com.calderagames.mpfw;
 
 import static org.lwjgl.glfw.GLFW.*;
-import static org.lwjgl.opengl.GL11.GL_BLEND;
 import static org.lwjgl.opengl.GL11.GL_FALSE;
 import static org.lwjgl.opengl.GL11.GL_ONE_MINUS_SRC_ALPHA;
 import static org.lwjgl.opengl.GL11.GL_SRC_ALPHA;
 import static org.lwjgl.opengl.GL11.GL_TRUE;
-import static org.lwjgl.opengl.GL11.glBlendFunc;
 import static org.lwjgl.opengl.GL11.glClearColor;
-import static org.lwjgl.opengl.GL11.glEnable;
-import static org.lwjgl.opengl.GL11.glViewport;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -28,6 +24,7 @@ import org.lwjgl.glfw.GLFWWindowSizeCallback;
 import org.lwjgl.opengl.GL;
 
 import com.calderagames.mpfw.WindowEvent.WindowEventType;
+import com.calderagames.mpfw.graphics.GLState;
 import com.calderagames.mpfw.inputs.Input;
 import com.calderagames.mpfw.math.Dimension;
 
@@ -241,9 +238,11 @@ public class Window {
 		glfwSetFramebufferSizeCallback(windowHandle, framebufferSizeCallback);
 
 		//Set up opengGL
-		glViewport(0, 0, hints.fullscreen ? monitorWidth : width, hints.fullscreen ? monitorHeight : height);
-		glEnable(GL_BLEND);
-		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+		//The context is new, nothing is known about its state
+		GLState.invalidate();
+		GLState.viewport(0, 0, hints.fullscreen ? monitorWidth : width, hints.fullscreen ? monitorHeight : height);
+		GLState.setBlending(true);
+		GLState.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 		glClearColor(0f, 0f, 0f, 1f);
 	}
 
@@ -254,10 +253,40 @@ public class Window {
 		glfwSetTime(0);
 		
 		//Swap the buffers
-		glfwSwapBuffers(windowHandle);
+		swapBuffers();
+		//Update inputs
+		Input.update();
+	}
+	
+	/**
+	 * Update the window and poll the events without swapping the buffers, for when the
+	 * buffers are swapped by a render thread (see {@link com.calderagames.mpfw.graphics.RenderThread}).
+	 * Must be called from the main thread.
+	 */
+	public void pollEvents() {
+		//Calculate delta time
+		delta = (float) glfwGetTime();
+		glfwSetTime(0);
+		
 		//Update inputs
 		Input.update();
 	}
+	
+	/**Swap the buffers, must be called from the thread the context is current on*/
+	public void swapBuffers() {
+		glfwSwapBuffers(windowHandle);
+	}
+	
+	/**Make the openGL context of the window current on the calling thread*/
+	public void makeContextCurrent() {
+		glfwMakeContextCurrent(windowHandle);
+		GL.createCapabilities();
+	}
+	
+	/**Detach the openGL context from the calling thread so another thread can make it current*/
+	public void releaseContext() {
+		glfwMakeContextCurrent(0);
+	}
 
 	/**
 	 * Returns if close was requested by the user for this window
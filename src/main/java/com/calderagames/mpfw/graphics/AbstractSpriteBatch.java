@@ -0,0 +1,148 @@
+package com.calderagames.mpfw.graphics;
+
+/**
+ * Common drawing API of the sprite batches, computes the corners and texture coordinates
+ * of the quads and hands them to {@link #quad(int, float, float, float, float, float, float, float, float,
+ * float, float, float, float, float, float, float, float)}.
+ */
+public abstract class AbstractSpriteBatch {
+
+	/**Color to be pass in the buffer*/
+	protected Color color;
+	/**Packed color in native order, see {@link SpriteVertex#packColor(int)}*/
+	protected int colorBits;
+
+	/**x/y coordinates, reusable*/
+	private float x1, y1, x2, y2, x3, y3, x4, y4;
+	private float u1, v1, u2, v2, u3, v3, u4, v4;
+
+	protected AbstractSpriteBatch() {
+		//Default white color
+		color = new Color(1f, 1f, 1f, 1f);
+		colorBits = SpriteVertex.packColor(color.toIntBits());
+	}
+
+	public void draw(Sprite sprite) {
+		float[] vert = sprite.getVertices();
+		float[] region = sprite.getTexRegion().getRegion();
+		setColor(sprite.getColor());
+
+		x1 = vert[0];
+		y1 = vert[1];
+		x2 = vert[2];
+		y2 = vert[3];
+		x3 = vert[4];
+		y3 = vert[5];
+		x4 = vert[6];
+		y4 = vert[7];
+
+		u1 = region[0];
+		v1 = region[1];
+		u2 = region[2];
+		v2 = region[3];
+		u3 = region[4];
+		v3 = region[5];
+		u4 = region[6];
+		v4 = region[7];
+
+		if(sprite.isFlipX()) {
+			u1 = u1 + u2;
+			u2 = u1 - u2;
+			u1 = u1 - u2;
+
+			u3 = u3 + u4;
+			u4 = u3 - u4;
+			u3 = u3 - u4;
+		}
+
+		if(sprite.isFlipY()) {
+			v1 = v1 + v4;
+			v4 = v1 - v4;
+			v1 = v1 - v4;
+
+			v2 = v2 + v3;
+			v3 = v2 - v3;
+			v2 = v2 - v3;
+		}
+
+		quad(sprite.getTexRegion().getTexture().getId(), x1, y1, x2, y2, x3, y3, x4, y4, u1, v1, u2, v2, u3, v3, u4, v4);
+	}
+
+	public void draw(TextureRegion texRegion, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4) {
+		float[] region = texRegion.getRegion();
+
+		quad(texRegion.getTexture().getId(), x1, y1, x2, y2, x3, y3, x4, y4,
+		     region[0], region[1], region[2], region[3], region[4], region[5], region[6], region[7]);
+	}
+
+	public void draw(TextureRegion texRegion, float x, float y, float width, float height, float scaleX, float scaleY, float angle, boolean flipX,
+	     			boolean flipY) {
+ 		width = (flipX ? -1 : 1) * width * scaleX;
+ 		height = (flipY ? -1 : 1) * height * scaleY;
+
+ 		if(angle != 0) {
+ 			final float cos = (float) Math.cos(Math.toRadians(angle));
+			final float sin = (float) Math.sin(Math.toRadians(angle));
+
+			x1 = (cos * (-width / 2) - sin * (-height / 2)) + width / 2 + x;
+			y1 = (sin * (-width / 2) + cos * (-height / 2)) + height / 2 + y;
+
+			x2 = (cos * (width / 2) - sin * (-height / 2)) + width / 2 + x;
+			y2 = (sin * (width / 2) + cos * (-height / 2)) + height / 2 + y;
+
+			x3 = (cos * (width / 2) - sin * (height / 2)) + width / 2 + x;
+			y3 = (sin * (width / 2) + cos * (height / 2)) + height / 2 + y;
+
+			x4 = (cos * (-width / 2) - sin * (height / 2)) + width / 2 + x;
+			y4 = (sin * (-width / 2) + cos * (height / 2)) + height / 2 + y;
+ 		}
+ 		else {
+ 			x1 = x;
+ 			y1 = y;
+
+ 			x2 = x + width;
+ 			y2 = y;
+
+ 			x3 = x + width;
+ 			y3 = y + height;
+
+ 			x4 = x;
+ 			y4 = y + height;
+ 		}
+
+ 		draw(texRegion,
+ 		     x1 + (flipX ? -width : 0), y1 + (flipY ? -height : 0),
+ 		     x2 + (flipX ? -width : 0), y2 + (flipY ? -height : 0),
+ 		     x3 + (flipX ? -width : 0), y3 + (flipY ? -height : 0),
+ 		     x4 + (flipX ? -width : 0), y4 + (flipY ? -height : 0));
+ 	}
+
+	/**
+	 * Draws a quad with the current color.
+	 * The corners are in order top left, top right, bottom right and bottom left.
+	 * @param texId the id of the texture
+	 */
+	protected abstract void quad(int texId, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4,
+	                             float u1, float v1, float u2, float v2, float u3, float v3, float u4, float v4);
+
+	/**
+	 * Sets the color with the given values.
+	 * @param r the red value between 0 and 1
+	 * @param g the green value between 0 and 1
+	 * @param b the blue value between 0 and 1
+	 * @param a the alpha value between 0 and 1
+	 */
+	public void setColor(float r, float g, float b, float a) {
+		color.setColor(r, g, b, a);
+		colorBits = SpriteVertex.packColor(color.toIntBits());
+	}
+
+	/**
+	 * Sets the color from another Color.
+	 * @param color the color to copy from
+	 */
+	public void setColor(Color color) {
+		this.color.setColor(color);
+		colorBits = SpriteVertex.packColor(this.color.toIntBits());
+	}
+}
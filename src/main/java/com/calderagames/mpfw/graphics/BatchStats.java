@@ -0,0 +1,140 @@
+package com.calderagames.mpfw.graphics;
+
+/**
+ * Statistics of a {@link SpriteBatch} since the last {@link #reset()}, usually reset once per frame.
+ * A flush is one draw call, the reason of each flush is counted to see what breaks the batches.
+ * The sprites rejected by the culling and the flushes that had to wait on the GPU are counted too.
+ */
+public class BatchStats {
+
+	/**Reasons for a batch to be flushed*/
+	public enum FlushReason {
+		/**Texture switch (every texture slot was taken)*/
+		TEXTURE,
+		/**The batch was full*/
+		FULL,
+		/**Shader program change*/
+		SHADER,
+		/**Render target change*/
+		RENDER_TARGET,
+		/**Blend function change*/
+		BLEND,
+		/**Switch from the opaque to the translucent pass of a depth sorted batch*/
+		DEPTH_PASS,
+		/**End of the batch*/
+		END
+	}
+
+	private int drawCalls;
+	private int sprites;
+	private int vertices;
+	private long bytesUploaded;
+	/**Maximum number of sprites drawn by one draw call*/
+	private int maxSpritesPerFlush;
+	/**Number of flushes for each reason, indexed by ordinal*/
+	private final int[] flushes = new int[FlushReason.values().length];
+	/**Number of sprites rejected by the culling*/
+	private int culled;
+	/**Number of flushes that had to wait on the GPU, see {@link VertexStream#getStallCount()}*/
+	private int stalls;
+
+	BatchStats() {}
+
+	/**
+	 * Counts a flush.
+	 * @param reason the reason of the flush
+	 * @param sprites the number of sprites drawn
+	 * @param vertexSize the size in bytes of a vertex
+	 */
+	void flush(FlushReason reason, int sprites, int vertexSize) {
+		drawCalls++;
+		this.sprites += sprites;
+		vertices += 4 * sprites;
+		bytesUploaded += 4L * sprites * vertexSize;
+		flushes[reason.ordinal()]++;
+
+		if(sprites > maxSpritesPerFlush)
+			maxSpritesPerFlush = sprites;
+	}
+
+	/**Counts a sprite rejected by the culling*/
+	void cull() {
+		culled++;
+	}
+
+	/**Counts the waits on the GPU of a vertex stream*/
+	void stall(int stalls) {
+		this.stalls += stalls;
+	}
+
+	/**Sets every statistic back to 0*/
+	public void reset() {
+		drawCalls = 0;
+		sprites = 0;
+		vertices = 0;
+		bytesUploaded = 0;
+		maxSpritesPerFlush = 0;
+		culled = 0;
+		stalls = 0;
+
+		for(int i = 0; i < flushes.length; i++)
+			flushes[i] = 0;
+	}
+
+	/**Returns the number of draw calls*/
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	/**Returns the number of sprites drawn*/
+	public int getSprites() {
+		return sprites;
+	}
+
+	/**Returns the number of vertices drawn*/
+	public int getVertices() {
+		return vertices;
+	}
+
+	/**Returns the number of vertex bytes uploaded to the GPU*/
+	public long getBytesUploaded() {
+		return bytesUploaded;
+	}
+
+	/**Returns the maximum number of sprites drawn by one draw call*/
+	public int getMaxSpritesPerFlush() {
+		return maxSpritesPerFlush;
+	}
+
+	/**Returns the number of flushes with the given reason*/
+	public int getFlushes(FlushReason reason) {
+		return flushes[reason.ordinal()];
+	}
+
+	/**Returns the number of sprites rejected by the culling, see {@link SpriteBatch#setCullRect(float, float, float, float)}*/
+	public int getCulled() {
+		return culled;
+	}
+
+	/**Returns the number of flushes that had to wait on the GPU before writing their vertices*/
+	public int getStalls() {
+		return stalls;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("draw calls: ").append(drawCalls).append(", sprites: ").append(sprites)
+		  .append(", vertices: ").append(vertices).append(", bytes: ").append(bytesUploaded)
+		  .append(", max sprites/flush: ").append(maxSpritesPerFlush).append(", culled: ").append(culled)
+		  .append(", stalls: ").append(stalls).append(", flushes [");
+
+		for(FlushReason reason: FlushReason.values()) {
+			if(reason.ordinal() > 0)
+				sb.append(", ");
+			sb.append(reason).append(": ").append(flushes[reason.ordinal()]);
+		}
+
+		return sb.append("]").toString();
+	}
+}
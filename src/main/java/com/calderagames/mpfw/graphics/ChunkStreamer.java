@@ -0,0 +1,424 @@
+package com.calderagames.mpfw.graphics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.MPFW;
+
+/**
+ * Streams the chunks of a large {@link TileMapRenderer} from a memory-mapped world file. The chunks
+ * around the view are read (and their texture decoded) on background threads, then handed to the
+ * openGL thread within a time budget per frame. Once over the memory budget, the least recently
+ * visible chunks out of the load area are evicted.
+ * <p>World file layout (big endian, see {@link #writeWorld(File, int, int, int, int[], String[], int[])}):</p>
+ * <ul>
+ * <li>int magic {@link #MAGIC}, int width, int height (in tiles), int chunkSize</li>
+ * <li>int texture count, then each texture path (modified UTF-8)</li>
+ * <li>for each chunk, row by row: short texture index (-1 for none), then chunkSize * chunkSize short tile ids</li>
+ * </ul>
+ * <p>A texture index out of the texture paths is taken as none.</p>
+ * <p>The texture of a chunk is a PNG loaded with it, for the layers drawn on top of the tiles (decals, lights...),
+ * see {@link #getTexture(int, int)}. It is shared by the chunks referencing it and disposed with the last one.</p>
+ * <p><b>Note:</b> every method must be called on the openGL thread.</p>
+ */
+public class ChunkStreamer implements Disposable {
+
+	/**Magic number of a world file ("MPCH")*/
+	public static final int MAGIC = 0x4D504348;
+
+	/**A chunk read by a worker, waiting for the upload*/
+	private static class LoadedChunk {
+		int key;
+		int[] tiles;
+		int textureIndex;
+		/**Boolean flag that states if this chunk was in charge of decoding its texture*/
+		boolean decoded;
+		/**Decoded texture, null if none, already resident or not decodable*/
+		ByteBuffer pixels;
+		int width, height;
+	}
+
+	/**A resident texture*/
+	private static class TextureEntry {
+		Texture texture;
+		int references;
+	}
+
+	private TileMapRenderer renderer;
+
+	/**Memory mapping of the world file*/
+	private MappedByteBuffer mapping;
+	/**Offset of the first chunk record and size of a record in bytes*/
+	private int recordsOffset, recordBytes;
+	private int chunkSize, chunksX, chunksY;
+	private String[] texturePaths;
+	private int textureFilter;
+
+	private ExecutorService workers;
+	/**Chunks read by the workers, polled by the openGL thread*/
+	private ConcurrentLinkedQueue<LoadedChunk> ready;
+	/**Keys of the chunks submitted and not uploaded yet*/
+	private HashSet<Integer> pending;
+	/**Resident chunks in access order (least recently visible first), the value is the estimated size in bytes*/
+	private LinkedHashMap<Integer, Long> resident;
+	/**Texture index of the resident chunks*/
+	private Map<Integer, Integer> chunkTextures;
+	/**Resident textures by index*/
+	private Map<Integer, TextureEntry> textures;
+	/**Textures being decoded, so a texture is only decoded once*/
+	private HashSet<Integer> decoding;
+
+	/**Estimated size in bytes of the resident chunks and textures*/
+	private long memory;
+	private long memoryBudget;
+	/**Upload time budget per frame in nanoseconds*/
+	private long uploadBudget = 2000000;
+	/**Number of chunks loaded around the visible ones*/
+	private int margin = 1;
+
+	/**
+	 * Constructs a chunk streamer, the size of the renderer must match the world file.
+	 * @param worldFile the world file
+	 * @param renderer the renderer the chunks are loaded into
+	 * @param workerThreads the number of background threads
+	 * @param memoryBudget the memory budget in bytes of the resident chunks and textures
+	 * @param textureFilter texture filter of the chunk textures, see {@link MPFW#MPFW_NEAREST}
+	 * @throws IOException if the file can't be mapped, is larger than 2 GB or isn't a world file
+	 */
+	public ChunkStreamer(File worldFile, TileMapRenderer renderer, int workerThreads, long memoryBudget, int textureFilter) throws IOException {
+		this.renderer = renderer;
+		this.memoryBudget = memoryBudget;
+		this.textureFilter = textureFilter;
+
+		try(RandomAccessFile file = new RandomAccessFile(worldFile, "r")) {
+			//The records are read with int indices
+			if(file.length() > Integer.MAX_VALUE)
+				throw new IOException("The world file is larger than 2 GB: " + worldFile);
+
+			mapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		}
+
+		if(mapping.getInt(0) != MAGIC)
+			throw new IOException("Not a world file: " + worldFile);
+
+		final int width = mapping.getInt(4);
+		final int height = mapping.getInt(8);
+		chunkSize = mapping.getInt(12);
+
+		if(width != renderer.getWidth() || height != renderer.getHeight() || chunkSize != renderer.getChunkSize())
+			throw new IllegalArgumentException("The renderer doesn't match the size of the world.");
+
+		chunksX = renderer.getChunksX();
+		chunksY = renderer.getChunksY();
+
+		//Read the texture paths
+		mapping.position(16);
+		texturePaths = new String[mapping.getInt()];
+		for(int i = 0; i < texturePaths.length; i++) {
+			final byte[] utf = new byte[mapping.getShort() & 0xFFFF];
+			mapping.get(utf);
+			texturePaths[i] = new String(utf, "UTF-8");
+		}
+
+		recordsOffset = mapping.position();
+		recordBytes = 2 + 2 * chunkSize * chunkSize;
+
+		if(recordsOffset + (long) chunksX * chunksY * recordBytes > mapping.capacity())
+			throw new IOException("The world file is truncated: " + worldFile);
+
+		workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), r -> {
+			Thread thread = new Thread(r, "chunk streamer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		ready = new ConcurrentLinkedQueue<>();
+		pending = new HashSet<>();
+		resident = new LinkedHashMap<>(64, 0.75f, true);
+		chunkTextures = new HashMap<>();
+		textures = new HashMap<>();
+		decoding = new HashSet<>();
+	}
+
+	/**
+	 * Requests the chunks around the view, uploads the chunks read within the time budget
+	 * and evicts the least recently visible ones if over the memory budget. To be called once per frame.
+	 * @param viewX the x-coordinate of the view
+	 * @param viewY the y-coordinate of the view
+	 * @param viewWidth the width of the view
+	 * @param viewHeight the height of the view
+	 */
+	public void update(float viewX, float viewY, float viewWidth, float viewHeight) {
+		final float chunkWidth = chunkSize * renderer.getTileWidth();
+		final float chunkHeight = chunkSize * renderer.getTileHeight();
+
+		final int minX = Math.max(0, (int) Math.floor(viewX / chunkWidth) - margin);
+		final int minY = Math.max(0, (int) Math.floor(viewY / chunkHeight) - margin);
+		final int maxX = Math.min(chunksX - 1, (int) Math.floor((viewX + viewWidth) / chunkWidth) + margin);
+		final int maxY = Math.min(chunksY - 1, (int) Math.floor((viewY + viewHeight) / chunkHeight) + margin);
+
+		//Request the missing chunks, touch the resident ones
+		for(int cy = minY; cy <= maxY; cy++) {
+			for(int cx = minX; cx <= maxX; cx++) {
+				final int key = cy * chunksX + cx;
+
+				if(resident.get(key) == null && pending.add(key)) {
+					final int textureIndex = textureIndex(key);
+					final boolean decode = textureIndex >= 0 && !textures.containsKey(textureIndex) && decoding.add(textureIndex);
+					workers.execute(() -> read(key, decode));
+				}
+			}
+		}
+
+		upload();
+		evict(minX, minY, maxX, maxY);
+	}
+
+	/**Returns the index of a chunk record in the mapping, the size of the file was checked against the last one*/
+	private int recordOffset(int key) {
+		return (int) (recordsOffset + (long) key * recordBytes);
+	}
+
+	/**Returns the texture index of a chunk record, -1 if none or out of the texture paths*/
+	private int textureIndex(int key) {
+		final int index = mapping.getShort(recordOffset(key));
+		return index < texturePaths.length ? Math.max(index, -1) : -1;
+	}
+
+	/**Reads a chunk record and decodes its texture if needed, runs on a worker*/
+	private void read(int key, boolean decode) {
+		LoadedChunk chunk = new LoadedChunk();
+		chunk.key = key;
+		chunk.tiles = new int[chunkSize * chunkSize];
+
+		//Absolute reads, the mapping is shared by the workers
+		final int offset = recordOffset(key);
+		chunk.textureIndex = textureIndex(key);
+		for(int i = 0; i < chunk.tiles.length; i++)
+			chunk.tiles[i] = mapping.getShort(offset + 2 + 2 * i);
+
+		if(decode) {
+			chunk.decoded = true;
+			
+			try(InputStream in = new FileInputStream(texturePaths[chunk.textureIndex])) {
+				final int[] size = new int[2];
+				chunk.pixels = Texture.decodePNG(in, size);
+				chunk.width = size[0];
+				chunk.height = size[1];
+			} catch(IOException | RuntimeException e) {
+				//The chunk must reach the openGL thread anyway, else it stays pending and its texture decoding
+				e.printStackTrace();
+				chunk.pixels = null;
+			}
+		}
+
+		ready.add(chunk);
+	}
+
+	/**Hands the chunks read to openGL until the time budget is spent*/
+	private void upload() {
+		final long start = System.nanoTime();
+		ArrayList<LoadedChunk> waiting = null;
+		LoadedChunk chunk;
+
+		while(System.nanoTime() - start < uploadBudget && (chunk = ready.poll()) != null) {
+			pending.remove(chunk.key);
+
+			//Tiles plus the worst case VBO (4 vertices per tile)
+			long bytes = 4L * chunk.tiles.length + 4L * SpriteVertex.SIZE * chunk.tiles.length;
+
+			if(chunk.textureIndex >= 0) {
+				TextureEntry entry = textures.get(chunk.textureIndex);
+
+				if(chunk.decoded) {
+					decoding.remove(chunk.textureIndex);
+					
+					if(entry == null && chunk.pixels != null) {
+						entry = new TextureEntry();
+						entry.texture = new Texture(chunk.pixels, chunk.width, chunk.height, textureFilter);
+						textures.put(chunk.textureIndex, entry);
+						memory += 4L * chunk.width * chunk.height;
+					}
+				}
+				else if(entry == null) {
+					final int key = chunk.key;
+					pending.add(key);
+					
+					//The texture is decoding for another chunk, or was evicted meanwhile and must be decoded again
+					if(decoding.contains(chunk.textureIndex)) {
+						if(waiting == null)
+							waiting = new ArrayList<>();
+						waiting.add(chunk);
+					}
+					else {
+						decoding.add(chunk.textureIndex);
+						workers.execute(() -> read(key, true));
+					}
+					continue;
+				}
+				
+				//The texture couldn't be decoded, the chunk is loaded without it
+				if(entry != null) {
+					entry.references++;
+					chunkTextures.put(chunk.key, chunk.textureIndex);
+				}
+			}
+
+			renderer.setChunkTiles(chunk.key % chunksX, chunk.key / chunksX, chunk.tiles);
+			resident.put(chunk.key, bytes);
+			memory += bytes;
+		}
+		
+		if(waiting != null)
+			ready.addAll(waiting);
+	}
+
+	/**Evicts the least recently visible chunks out of the given range until under the memory budget*/
+	private void evict(int minX, int minY, int maxX, int maxY) {
+		Iterator<Map.Entry<Integer, Long>> it = resident.entrySet().iterator();
+
+		while(memory > memoryBudget && it.hasNext()) {
+			Map.Entry<Integer, Long> entry = it.next();
+			final int cx = entry.getKey() % chunksX;
+			final int cy = entry.getKey() / chunksX;
+
+			if(cx >= minX && cx <= maxX && cy >= minY && cy <= maxY)
+				continue;
+
+			renderer.clearChunk(cx, cy);
+			memory -= entry.getValue();
+			releaseTexture(entry.getKey());
+			it.remove();
+		}
+	}
+
+	private void releaseTexture(int key) {
+		final Integer index = chunkTextures.remove(key);
+
+		if(index == null)
+			return;
+
+		TextureEntry entry = textures.get(index);
+
+		if(--entry.references == 0) {
+			memory -= 4L * entry.texture.getWidth() * entry.texture.getHeight();
+			entry.texture.dispose();
+			textures.remove(index);
+		}
+	}
+
+	/**
+	 * Returns the texture of a chunk.
+	 * @return the texture, null if the chunk has none or isn't resident
+	 */
+	public Texture getTexture(int chunkX, int chunkY) {
+		final Integer index = chunkTextures.get(chunkY * chunksX + chunkX);
+		return index == null ? null : textures.get(index).texture;
+	}
+
+	/**Returns if a chunk is resident*/
+	public boolean isResident(int chunkX, int chunkY) {
+		return resident.containsKey(chunkY * chunksX + chunkX);
+	}
+
+	/**Returns the number of resident chunks*/
+	public int getResidentCount() {
+		return resident.size();
+	}
+
+	/**Returns the estimated size in bytes of the resident chunks and textures*/
+	public long getMemory() {
+		return memory;
+	}
+
+	/**Sets the time spent uploading chunks per frame in milliseconds*/
+	public void setUploadBudget(float ms) {
+		uploadBudget = (long) (ms * 1000000);
+	}
+
+	/**Sets the number of chunks loaded around the visible ones, default 1*/
+	public void setMargin(int margin) {
+		this.margin = Math.max(0, margin);
+	}
+
+	/**
+	 * Writes a world file.
+	 * @param file the file to write
+	 * @param width the width of the map in tiles
+	 * @param height the height of the map in tiles
+	 * @param chunkSize the size of a chunk in tiles
+	 * @param tiles the tile ids, row by row, between -1 and 32767
+	 * @param texturePaths the paths of the chunk textures
+	 * @param chunkTextures the texture index of each chunk (row by row), -1 for none, can be null
+	 * @throws IOException if the file can't be written
+	 * @throws IllegalArgumentException if a texture index is out of the texture paths
+	 */
+	public static void writeWorld(File file, int width, int height, int chunkSize, int[] tiles, String[] texturePaths, 
+	                              int[] chunkTextures) throws IOException {
+		final int chunksX = (width + chunkSize - 1) / chunkSize;
+		final int chunksY = (height + chunkSize - 1) / chunkSize;
+
+		if(chunkTextures != null) {
+			for(int i = 0; i < chunksX * chunksY; i++) {
+				if(chunkTextures[i] < -1 || chunkTextures[i] >= texturePaths.length)
+					throw new IllegalArgumentException("Invalid texture index " + chunkTextures[i] + " of chunk " + i + ".");
+			}
+		}
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(chunkSize);
+
+			out.writeInt(texturePaths.length);
+			for(String path: texturePaths)
+				out.writeUTF(path);
+
+			for(int cy = 0; cy < chunksY; cy++) {
+				for(int cx = 0; cx < chunksX; cx++) {
+					out.writeShort(chunkTextures != null ? chunkTextures[cy * chunksX + cx] : -1);
+
+					for(int y = cy * chunkSize; y < (cy + 1) * chunkSize; y++) {
+						for(int x = cx * chunkSize; x < (cx + 1) * chunkSize; x++)
+							out.writeShort(x < width && y < height ? tiles[y * width + x] : TileMapRenderer.EMPTY);
+					}
+				}
+			}
+		}
+	}
+
+	/**Stops the workers and disposes the resident textures, the renderer is left as is*/
+	public void dispose() {
+		workers.shutdownNow();
+
+		for(TextureEntry entry: textures.values())
+			entry.texture.dispose();
+
+		textures.clear();
+		chunkTextures.clear();
+		resident.clear();
+		ready.clear();
+		pending.clear();
+		memory = 0;
+	}
+}
@@ -84,4 +84,34 @@ public class Color {
 		b = color.b;
 		a = color.a;
 	}
+
+	/**
+	 * Packs the color in an int, one byte per component, see {@link #toIntBits(float, float, float, float)}.
+	 * @return the packed color
+	 */
+	public int toIntBits() {
+		return toIntBits(r, g, b, a);
+	}
+
+	/**
+	 * Packs a color in an int, one byte per component. The alpha is stored in the highest byte
+	 * and the red in the lowest (ABGR), which gives RGBA in memory on little endian platforms.
+	 * @param r the red value between 0 and 1
+	 * @param g the green value between 0 and 1
+	 * @param b the blue value between 0 and 1
+	 * @param a the alpha value between 0 and 1
+	 * @return the packed color
+	 */
+	public static int toIntBits(float r, float g, float b, float a) {
+		return (toByte(a) << 24) | (toByte(b) << 16) | (toByte(g) << 8) | toByte(r);
+	}
+
+	/**Converts a component between 0 and 1 to a byte value between 0 and 255*/
+	private static int toByte(float value) {
+		if(value <= 0f)
+			return 0;
+		if(value >= 1f)
+			return 255;
+		return (int) (value * 255 + 0.5f);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+package com.calderagames.mpfw.graphics;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import com.calderagames.mpfw.math.Matrix4f;
+
+/**
+ * Records a frame of sprite draws and state changes without any GL call so it can be recorded on
+ * one thread and played on the thread owning the context, see {@link RenderThread}.
+ * <p>The commands are played in recording order on a {@link SpriteBatch}, the projection, clears and
+ * custom tasks end and begin the batch again so everything recorded before is drawn first.</p>
+ */
+public class CommandList extends AbstractSpriteBatch {
+
+	/**Opcodes*/
+	private static final int QUAD = 0;
+	private static final int SHADER = 1;
+	private static final int BLEND = 2;
+	private static final int TARGET = 3;
+	private static final int PROJECTION = 4;
+	private static final int CLEAR = 5;
+	private static final int TASK = 6;
+
+	/**Opcodes followed by their arguments, the floats are stored as raw int bits*/
+	private int[] data;
+	/**Index counter of data*/
+	private int index;
+	/**Shaders, render targets and tasks referenced by the commands*/
+	private ArrayList<Object> refs;
+
+	/**Number of sprites recorded*/
+	private int sprites;
+
+	/**Clear color of the context, restored after a recorded clear*/
+	private final FloatBuffer lastClearColor = BufferUtils.createFloatBuffer(4);
+
+	public CommandList() {
+		this(1024);
+	}
+
+	/**
+	 * Constructs a command list.
+	 * @param capacity the initial number of sprites, the list grows if needed
+	 */
+	public CommandList(int capacity) {
+		data = new int[19 * Math.max(capacity, 1)];
+		refs = new ArrayList<>();
+	}
+
+	/**Records a quad with the current color*/
+	@Override
+	protected void quad(int texId, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4,
+	                    float u1, float v1, float u2, float v2, float u3, float v3, float u4, float v4) {
+		ensure(19);
+
+		data[index++] = QUAD;
+		data[index++] = texId;
+		data[index++] = colorBits;
+		put(x1, y1);
+		put(x2, y2);
+		put(x3, y3);
+		put(x4, y4);
+		put(u1, v1);
+		put(u2, v2);
+		put(u3, v3);
+		put(u4, v4);
+
+		sprites++;
+	}
+
+	/**Records a shader change, see {@link SpriteBatch#setShader(ShaderProgram)}*/
+	public void setShader(ShaderProgram shader) {
+		ensure(2);
+		data[index++] = SHADER;
+		data[index++] = ref(shader);
+	}
+
+	/**Records a blend function change, see {@link SpriteBatch#setBlendFunction(int, int)}*/
+	public void setBlendFunction(int src, int dst) {
+		setBlendFunction(src, dst, src, dst);
+	}
+
+	/**Records a blend function change, see {@link SpriteBatch#setBlendFunction(int, int, int, int)}*/
+	public void setBlendFunction(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+		ensure(5);
+		data[index++] = BLEND;
+		data[index++] = srcRGB;
+		data[index++] = dstRGB;
+		data[index++] = srcAlpha;
+		data[index++] = dstAlpha;
+	}
+
+	/**Records a render target change, see {@link SpriteBatch#setRenderTarget(RenderTarget)}*/
+	public void setRenderTarget(RenderTarget target) {
+		ensure(2);
+		data[index++] = TARGET;
+		data[index++] = ref(target);
+	}
+
+	/**
+	 * Records a projection change, the matrix is copied so it can be modified right after.
+	 * @param projection the projection matrix
+	 */
+	public void setProjection(Matrix4f projection) {
+		if(projection == null)
+			throw new IllegalArgumentException("The projection cannot be null.");
+
+		ensure(17);
+		data[index++] = PROJECTION;
+
+		for(int col = 0; col < 4; col++) {
+			for(int row = 0; row < 4; row++)
+				data[index++] = Float.floatToRawIntBits(projection.m[col][row]);
+		}
+	}
+
+	/**Records a clear of the color buffer of the current render target with the given color*/
+	public void clear(float r, float g, float b, float a) {
+		ensure(5);
+		data[index++] = CLEAR;
+		put(r, g);
+		put(b, a);
+	}
+
+	/**
+	 * Records a task run on the thread playing the list, e.g. to draw with another renderer.
+	 * The batch is ended before the task and begun again after.
+	 * @param task the task
+	 */
+	public void run(Runnable task) {
+		if(task == null)
+			throw new IllegalArgumentException("The task cannot be null.");
+
+		ensure(2);
+		data[index++] = TASK;
+		data[index++] = ref(task);
+	}
+
+	/**
+	 * Plays the commands on a batch, between begin and end. Must be called on the thread owning the context.
+	 * @param batch the batch to play on, not drawing
+	 * @param projection the matrix the batch projects with, receives the recorded projections
+	 */
+	void play(SpriteBatch batch, Matrix4f projection) {
+		final int lastColorBits = batch.colorBits;
+
+		batch.begin();
+
+		int i = 0;
+		while(i < index) {
+			switch(data[i++]) {
+				case QUAD:
+					batch.colorBits = data[i + 1];
+					batch.quad(data[i],
+					           f(i + 2), f(i + 3), f(i + 4), f(i + 5), f(i + 6), f(i + 7), f(i + 8), f(i + 9),
+					           f(i + 10), f(i + 11), f(i + 12), f(i + 13), f(i + 14), f(i + 15), f(i + 16), f(i + 17));
+					i += 18;
+					break;
+				case SHADER:
+					batch.setShader((ShaderProgram) refs.get(data[i++]));
+					break;
+				case BLEND:
+					batch.setBlendFunction(data[i], data[i + 1], data[i + 2], data[i + 3]);
+					i += 4;
+					break;
+				case TARGET:
+					batch.setRenderTarget((RenderTarget) refs.get(data[i++]));
+					break;
+				case PROJECTION:
+					batch.end();
+					for(int col = 0; col < 4; col++) {
+						for(int row = 0; row < 4; row++)
+							projection.m[col][row] = f(i++);
+					}
+					batch.begin();
+					break;
+				case CLEAR:
+					batch.end();
+					//begin binds the render target again
+					batch.begin();
+					GL11.glGetFloatv(GL11.GL_COLOR_CLEAR_VALUE, lastClearColor);
+					GL11.glClearColor(f(i), f(i + 1), f(i + 2), f(i + 3));
+					GL11.glClear(GL11.GL_COLOR_BUFFER_BIT);
+					GL11.glClearColor(lastClearColor.get(0), lastClearColor.get(1), lastClearColor.get(2), lastClearColor.get(3));
+					i += 4;
+					break;
+				case TASK:
+					batch.end();
+					((Runnable) refs.get(data[i++])).run();
+					batch.begin();
+					break;
+			}
+		}
+
+		batch.end();
+		batch.colorBits = lastColorBits;
+	}
+
+	/**Removes every command, the references are released*/
+	public void clear() {
+		index = 0;
+		sprites = 0;
+		refs.clear();
+	}
+
+	/**Returns the number of sprites recorded*/
+	public int getSpriteCount() {
+		return sprites;
+	}
+
+	/**Returns if nothing was recorded*/
+	public boolean isEmpty() {
+		return index == 0;
+	}
+
+	private void ensure(int ints) {
+		if(index + ints > data.length)
+			data = Arrays.copyOf(data, Math.max(data.length * 2, index + ints));
+	}
+
+	private void put(float a, float b) {
+		data[index++] = Float.floatToRawIntBits(a);
+		data[index++] = Float.floatToRawIntBits(b);
+	}
+
+	private float f(int i) {
+		return Float.intBitsToFloat(data[i]);
+	}
+
+	private int ref(Object obj) {
+		refs.add(obj);
+		return refs.size() - 1;
+	}
+}
@@ -0,0 +1,248 @@
+package com.calderagames.mpfw.graphics;
+
+import java.util.function.Consumer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+
+import com.calderagames.mpfw.Disposable;
+
+/**
+ * Keeps the screen in a persistent {@link RenderTarget} and only draws again the rectangles invalidated since the
+ * last frame, for mostly idle screens (editors, menus). Each dirty rectangle is cleared and the scene drawn into it
+ * with the scissor test and the culling of the batch, the target is then blitted to the window.
+ * <p>The rectangles are in pixels with the origin at the top left corner, the projection of the batch must
+ * map the screen the same way, e.g. setOrtho(0, width, height, 0, 1, -1). Overlapping rectangles are merged.</p>
+ * Usage, each frame:
+ * <pre>
+ * renderer.invalidate(cursor); //before and after the cursor moves
+ * if(renderer.update(batch, b -&gt; drawScene(b))) {
+ *     renderer.present(window.getWidth(), window.getHeight());
+ *     window.swapBuffers();
+ * }
+ * </pre>
+ * When nothing changed the buffers don't need to be swapped, the window keeps showing the last frame.
+ */
+public class DirtyRegionRenderer implements Disposable {
+
+	/**Maximum number of rectangles drawn separately, beyond it the closest ones are merged*/
+	public static final int MAX_RECTS = 16;
+
+	private RenderTarget target;
+
+	/**Dirty rectangles, x, y, width and height in pixels of the target*/
+	private final int[] rects = new int[4 * MAX_RECTS];
+	private int rectCount;
+
+	/**Cull rectangle of the batch, restored after an update*/
+	private final float[] lastCullRect = new float[4];
+
+	/**Clear color of the dirty rectangles*/
+	private final Color clearColor = new Color(0f, 0f, 0f, 1f);
+
+	/**Number of pixels drawn again since the last reset*/
+	private long redrawnPixels;
+
+	/**
+	 * Constructs a dirty region renderer, the whole screen is dirty.
+	 * @param width the width of the screen in pixels
+	 * @param height the height of the screen in pixels
+	 */
+	public DirtyRegionRenderer(int width, int height) {
+		resize(width, height);
+	}
+
+	/**Changes the size of the screen, the target is created again and the whole screen is dirty*/
+	public void resize(int width, int height) {
+		if(width <= 0 || height <= 0)
+			throw new IllegalArgumentException("The screen size must be positive.");
+
+		if(target != null)
+			target.dispose();
+
+		target = new RenderTarget(width, height);
+		target.setClearColor(clearColor.r, clearColor.g, clearColor.b);
+		invalidateAll();
+	}
+
+	/**Sets the color the dirty rectangles are cleared with, the whole screen is dirty*/
+	public void setClearColor(float r, float g, float b) {
+		clearColor.r = r;
+		clearColor.g = g;
+		clearColor.b = b;
+		target.setClearColor(r, g, b);
+		invalidateAll();
+	}
+
+	/**Marks the whole screen dirty*/
+	public void invalidateAll() {
+		rectCount = 0;
+		addRect(0, 0, target.getWidth(), target.getHeight());
+	}
+
+	/**Marks the bounding box of a sprite dirty, to be called before and after the sprite changes*/
+	public void invalidate(Sprite sprite) {
+		final float[] v = sprite.getVertices();
+
+		final float minX = Math.min(Math.min(v[0], v[2]), Math.min(v[4], v[6]));
+		final float minY = Math.min(Math.min(v[1], v[3]), Math.min(v[5], v[7]));
+		final float maxX = Math.max(Math.max(v[0], v[2]), Math.max(v[4], v[6]));
+		final float maxY = Math.max(Math.max(v[1], v[3]), Math.max(v[5], v[7]));
+
+		invalidate(minX, minY, maxX - minX, maxY - minY);
+	}
+
+	/**
+	 * Marks a rectangle dirty, it is grown to whole pixels plus one so the filtered edges are drawn again.
+	 * @param x the x-coordinate of the top left corner
+	 * @param y the y-coordinate of the top left corner
+	 */
+	public void invalidate(float x, float y, float width, float height) {
+		addRect(Math.max((int) Math.floor(x) - 1, 0), Math.max((int) Math.floor(y) - 1, 0),
+		        Math.min((int) Math.ceil(x + width) + 1, target.getWidth()), Math.min((int) Math.ceil(y + height) + 1, target.getHeight()));
+	}
+
+	/**Adds a dirty rectangle given by its corners, merged with the overlapping ones*/
+	private void addRect(int x1, int y1, int x2, int y2) {
+		if(x2 <= x1 || y2 <= y1)
+			return;
+
+		//Absorb the overlapping rectangles, the union may overlap others
+		for(int i = 0; i < rectCount; i++) {
+			final int r = 4 * i;
+
+			if(x1 <= rects[r] + rects[r + 2] && rects[r] <= x2 && y1 <= rects[r + 1] + rects[r + 3] && rects[r + 1] <= y2) {
+				x1 = Math.min(x1, rects[r]);
+				y1 = Math.min(y1, rects[r + 1]);
+				x2 = Math.max(x2, rects[r] + rects[r + 2]);
+				y2 = Math.max(y2, rects[r + 1] + rects[r + 3]);
+
+				removeRect(i);
+				i = -1;
+			}
+		}
+
+		if(rectCount == MAX_RECTS) {
+			//Merge into the rectangle growing the least
+			int best = 0;
+			long bestGrowth = Long.MAX_VALUE;
+
+			for(int i = 0; i < rectCount; i++) {
+				final int r = 4 * i;
+				final long union = (long) (Math.max(x2, rects[r] + rects[r + 2]) - Math.min(x1, rects[r])) *
+				                   (Math.max(y2, rects[r + 1] + rects[r + 3]) - Math.min(y1, rects[r + 1]));
+				final long growth = union - (long) rects[r + 2] * rects[r + 3];
+
+				if(growth < bestGrowth) {
+					bestGrowth = growth;
+					best = i;
+				}
+			}
+
+			final int r = 4 * best;
+			final int bx = rects[r], by = rects[r + 1];
+			final int bx2 = bx + rects[r + 2], by2 = by + rects[r + 3];
+			removeRect(best);
+			addRect(Math.min(x1, bx), Math.min(y1, by), Math.max(x2, bx2), Math.max(y2, by2));
+			return;
+		}
+
+		final int r = 4 * rectCount++;
+		rects[r] = x1;
+		rects[r + 1] = y1;
+		rects[r + 2] = x2 - x1;
+		rects[r + 3] = y2 - y1;
+	}
+
+	private void removeRect(int i) {
+		rectCount--;
+		System.arraycopy(rects, 4 * (i + 1), rects, 4 * i, 4 * (rectCount - i));
+	}
+
+	/**
+	 * Draws the scene again into the dirty rectangles of the target. Must be called outside begin and end,
+	 * the render target and the culling of the batch are restored afterwards.
+	 * @param batch the batch to draw with
+	 * @param scene draws the whole scene with the batch, between begin and end, the sprites outside the rectangle are culled
+	 * @return true if something was drawn, the target must then be presented
+	 */
+	public boolean update(SpriteBatch batch, Consumer<SpriteBatch> scene) {
+		if(rectCount == 0)
+			return false;
+
+		final RenderTarget lastTarget = batch.getRenderTarget();
+		final boolean lastCulling = batch.isCulling();
+		batch.getCullRect(lastCullRect);
+		batch.setRenderTarget(target);
+
+		GLState.setScissorTest(true);
+
+		for(int i = 0; i < rectCount; i++) {
+			final int r = 4 * i;
+			final int x = rects[r], y = rects[r + 1], width = rects[r + 2], height = rects[r + 3];
+
+			//The scissor box origin is the bottom left corner
+			GLState.scissor(x, target.getHeight() - y - height, width, height);
+			batch.setCullRect(x, y, width, height);
+
+			batch.begin();
+			target.clear();
+			scene.accept(batch);
+			batch.end();
+
+			redrawnPixels += (long) width * height;
+		}
+
+		GLState.setScissorTest(false);
+
+		if(lastCulling)
+			batch.setCullRect(lastCullRect[0], lastCullRect[1], lastCullRect[2], lastCullRect[3]);
+		else
+			batch.disableCulling();
+		batch.setRenderTarget(lastTarget);
+
+		rectCount = 0;
+
+		return true;
+	}
+
+	/**
+	 * Copies the target to the window with glBlitFramebuffer, the back buffer content being undefined after a swap
+	 * the whole target is copied.
+	 * @param windowWidth the width of the window in pixels
+	 * @param windowHeight the height of the window in pixels
+	 */
+	public void present(int windowWidth, int windowHeight) {
+		GLState.bindFramebuffer(GL30.GL_READ_FRAMEBUFFER, target.getFrameBufferID());
+		GLState.bindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, 0);
+
+		GL30.glBlitFramebuffer(0, 0, target.getWidth(), target.getHeight(), 0, 0, windowWidth, windowHeight,
+		                       GL11.GL_COLOR_BUFFER_BIT, GL11.GL_NEAREST);
+
+		GLState.bindFramebuffer(GL30.GL_READ_FRAMEBUFFER, 0);
+	}
+
+	/**Returns the number of dirty rectangles*/
+	public int getRectCount() {
+		return rectCount;
+	}
+
+	/**Returns the number of pixels drawn again since the last reset*/
+	public long getRedrawnPixels() {
+		return redrawnPixels;
+	}
+
+	/**Sets the redrawn pixels counter back to 0*/
+	public void resetCounters() {
+		redrawnPixels = 0;
+	}
+
+	/**Returns the render target holding the screen*/
+	public RenderTarget getRenderTarget() {
+		return target;
+	}
+
+	public void dispose() {
+		target.dispose();
+	}
+}
@@ -0,0 +1,189 @@
+package com.calderagames.mpfw.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Records sprite draw commands as compact primitive records, each one made of a 64-bit sort key,
+ * a texture id and the 4 vertices of the sprite (see {@link SpriteVertex}, without the texture slot).
+ * The records can then be ordered by key with a stable radix sort.
+ */
+final class DrawQueue {
+
+	/**Number of ints per record (4 vertices of position, texture coordinates and color)*/
+	static final int RECORD_INTS = 4 * 4;
+
+	/**Flag of the records drawn in the opaque pass of a depth sorted batch*/
+	static final byte OPAQUE = 1;
+
+	/**Sort key of each record*/
+	private long[] keys;
+	/**Texture id of each record*/
+	private int[] texIds;
+	/**Flags of each record*/
+	private byte[] flags;
+	/**Vertices of each record, {@link #RECORD_INTS} per record*/
+	private int[] data;
+	/**Number of records*/
+	private int count;
+
+	/**Record indices ordered by key, valid after {@link #sort()}*/
+	private int[] order;
+	/**Sort buffers*/
+	private int[] tmpOrder;
+	private long[] sortKeys, tmpKeys;
+	/**Histogram of one radix pass*/
+	private final int[] histogram = new int[256];
+
+	/**
+	 * Constructs a draw queue.
+	 * @param capacity the initial number of records, the queue grows if needed
+	 */
+	DrawQueue(int capacity) {
+		capacity = Math.max(capacity, 16);
+		keys = new long[capacity];
+		texIds = new int[capacity];
+		flags = new byte[capacity];
+		data = new int[capacity * RECORD_INTS];
+	}
+
+	/**
+	 * Adds a record, the caller writes its vertices in {@link #getData()} starting from the returned offset.
+	 * @param key the sort key
+	 * @param texId the id of the texture
+	 * @return the offset of the record in the data array
+	 */
+	int add(long key, int texId) {
+		return add(key, texId, (byte) 0);
+	}
+
+	/**
+	 * See {@link #add(long, int)}.
+	 * @param flags the flags of the record, e.g. {@link #OPAQUE}
+	 */
+	int add(long key, int texId, byte flags) {
+		if(count == keys.length)
+			grow();
+
+		keys[count] = key;
+		texIds[count] = texId;
+		this.flags[count] = flags;
+
+		return count++ * RECORD_INTS;
+	}
+
+	/**
+	 * Adds every record of another queue with its flags, in their submission order.
+	 * @param other the queue to copy the records from
+	 * @param stateKey the state part of the key of the copied records, their texture id is kept
+	 */
+	void addAll(DrawQueue other, long stateKey) {
+		for(int i = 0; i < other.count; i++) {
+			final int offset = add(stateKey | (other.texIds[i] & 0xFFFFFF), other.texIds[i], other.flags[i]);
+			System.arraycopy(other.data, i * RECORD_INTS, data, offset, RECORD_INTS);
+		}
+	}
+
+	private void grow() {
+		final int capacity = keys.length * 2;
+		keys = Arrays.copyOf(keys, capacity);
+		texIds = Arrays.copyOf(texIds, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		data = Arrays.copyOf(data, capacity * RECORD_INTS);
+	}
+
+	/**
+	 * Orders the records by key with a least significant digit radix sort, 8 bits per pass.
+	 * The sort is stable so records with the same key keep their submission order,
+	 * passes on bytes shared by every key are skipped.
+	 */
+	void sort() {
+		sort(keys);
+	}
+
+	/**
+	 * Orders the records by other keys than the ones they were added with, see {@link #sort()}.
+	 * @param keys the key of each record, indexed by record
+	 */
+	void sort(long[] keys) {
+		if(order == null || order.length < count) {
+			order = new int[this.keys.length];
+			tmpOrder = new int[this.keys.length];
+			sortKeys = new long[this.keys.length];
+			tmpKeys = new long[this.keys.length];
+		}
+
+		long diff = 0;
+		for(int i = 0; i < count; i++) {
+			order[i] = i;
+			sortKeys[i] = keys[i];
+			diff |= keys[i] ^ keys[0];
+		}
+
+		for(int shift = 0; shift < 64; shift += 8) {
+			//Every key has the same byte, nothing to sort
+			if(((diff >>> shift) & 0xFF) == 0)
+				continue;
+
+			Arrays.fill(histogram, 0);
+
+			for(int i = 0; i < count; i++)
+				histogram[(int) ((sortKeys[i] >>> shift) & 0xFF)]++;
+
+			int sum = 0;
+			for(int b = 0; b < 256; b++) {
+				final int c = histogram[b];
+				histogram[b] = sum;
+				sum += c;
+			}
+
+			for(int i = 0; i < count; i++) {
+				final int dst = histogram[(int) ((sortKeys[i] >>> shift) & 0xFF)]++;
+				tmpKeys[dst] = sortKeys[i];
+				tmpOrder[dst] = order[i];
+			}
+
+			long[] swapKeys = sortKeys;
+			sortKeys = tmpKeys;
+			tmpKeys = swapKeys;
+
+			int[] swapOrder = order;
+			order = tmpOrder;
+			tmpOrder = swapOrder;
+		}
+	}
+
+	/**Removes every record*/
+	void clear() {
+		count = 0;
+	}
+
+	/**Returns the number of records*/
+	int size() {
+		return count;
+	}
+
+	/**Returns the record indices ordered by key, see {@link #sort()}*/
+	int[] getOrder() {
+		return order;
+	}
+
+	/**Returns the sort key of a record*/
+	long getKey(int record) {
+		return keys[record];
+	}
+
+	/**Returns the flags of a record*/
+	byte getFlags(int record) {
+		return flags[record];
+	}
+
+	/**Returns the texture id of a record*/
+	int getTexId(int record) {
+		return texIds[record];
+	}
+
+	/**Returns the vertices of every record, {@link #RECORD_INTS} per record*/
+	int[] getData() {
+		return data;
+	}
+}
@@ -0,0 +1,78 @@
+package com.calderagames.mpfw.graphics;
+
+/**
+ * Records sprite draws on any thread so the vertices of many sprites can be built in parallel,
+ * one recorder per thread. A recorder is created by {@link SpriteBatch#createRecorder()}, its draws are
+ * merged in the batch at {@link SpriteBatch#end()}, the recorders being merged in creation order
+ * and the draws of each recorder in submission order, the output is then the same as drawing serially.
+ * <p>In a depth sorted batch the draws are translucent unless the recorder is set opaque, see {@link #setOpaque(boolean)}.</p>
+ * <p><b>Note:</b> a recorder isn't thread safe, it must be used by one thread at a time and
+ * the recording must be done (e.g. the worker joined) before {@link SpriteBatch#end()} is called.
+ * No GL call is made by a recorder.</p>
+ */
+public class DrawRecorder extends AbstractSpriteBatch {
+
+	/**Recorded draws, the key is the texture id*/
+	private final DrawQueue queue;
+
+	/**Boolean flag that states if the next draws are opaque or alpha tested*/
+	private boolean opaque;
+
+	/**
+	 * Constructs a draw recorder.
+	 * @param capacity the initial number of sprites, the recorder grows if needed
+	 */
+	DrawRecorder(int capacity) {
+		queue = new DrawQueue(capacity);
+	}
+
+	/**Records a quad with the current color*/
+	@Override
+	protected void quad(int texId, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4,
+	                    float u1, float v1, float u2, float v2, float u3, float v3, float u4, float v4) {
+		final int offset = queue.add(texId, texId, opaque ? DrawQueue.OPAQUE : 0);
+		final int[] data = queue.getData();
+
+		record(data, offset, x1, y1, u1, v1);
+		record(data, offset + 4, x2, y2, u2, v2);
+		record(data, offset + 8, x3, y3, u3, v3);
+		record(data, offset + 12, x4, y4, u4, v4);
+	}
+
+	/**Writes one vertex of a record with the current color*/
+	private void record(int[] data, int offset, float x, float y, float u, float v) {
+		data[offset] = Float.floatToRawIntBits(x);
+		data[offset + 1] = Float.floatToRawIntBits(y);
+		data[offset + 2] = SpriteVertex.packUV(u, v);
+		data[offset + 3] = colorBits;
+	}
+
+	/**
+	 * Sets if the next draws are opaque (or alpha tested) and drawn in the first pass of a depth sorted batch,
+	 * translucent by default. See {@link SpriteBatch#setOpaque(boolean)}.
+	 * @param opaque true for opaque, false for translucent
+	 */
+	public void setOpaque(boolean opaque) {
+		this.opaque = opaque;
+	}
+
+	/**Returns if the next draws are opaque, see {@link #setOpaque(boolean)}*/
+	public boolean isOpaque() {
+		return opaque;
+	}
+
+	/**Removes every recorded draw*/
+	public void clear() {
+		queue.clear();
+	}
+
+	/**Returns the number of recorded draws*/
+	public int size() {
+		return queue.size();
+	}
+
+	/**Returns the recorded draws, in submission order*/
+	DrawQueue getQueue() {
+		return queue;
+	}
+}
@@ -0,0 +1,400 @@
+package com.calderagames.mpfw.graphics;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Caches the openGL bindings of the current context so the redundant binds are skipped, the graphics classes
+ * bind through it and no longer unbind after use.
+ * <p>Tracked: shader program, texture 2D of each unit, vertex array, GL_ARRAY_BUFFER and GL_PIXEL_UNPACK_BUFFER,
+ * draw and read framebuffers, viewport, scissor, blend state and depth state. The element buffer binding is part of the vertex array
+ * state and isn't tracked.</p>
+ * <p><b>Note:</b> the cache is shared by the whole application and assumes a single context used by a single thread.
+ * Code binding objects with raw openGL calls must call {@link #invalidate()} afterwards.</p>
+ */
+public final class GLState {
+
+	private GLState() {}
+
+	/**Value of a binding not known by the cache, never equal to a valid one*/
+	private static final int UNKNOWN = -1;
+
+	/**Number of texture units tracked, see {@link com.calderagames.mpfw.MPFW#MPFW_TEXTURE0}*/
+	public static final int TEXTURE_UNITS = 32;
+
+	private static int program;
+	private static int activeUnit;
+	private static final int[] textures = new int[TEXTURE_UNITS];
+	private static int vertexArray;
+	private static int arrayBuffer;
+	private static int pixelUnpackBuffer;
+	private static int drawFramebuffer;
+	private static int readFramebuffer;
+	private static int viewportX, viewportY, viewportWidth, viewportHeight;
+	private static int scissorX, scissorY, scissorWidth, scissorHeight;
+	private static int blendSrcRGB, blendDstRGB, blendSrcAlpha, blendDstAlpha;
+	/**0 disabled, 1 enabled, UNKNOWN*/
+	private static int blending;
+	private static int scissorTest;
+	private static int depthTest;
+	private static int depthWrite;
+	private static int depthFunc;
+
+	/**Number of openGL calls made and skipped*/
+	private static long calls;
+	private static long skipped;
+
+	static {
+		invalidate();
+	}
+
+	/**Forgets every binding, the next bind of each kind is always made*/
+	public static void invalidate() {
+		program = UNKNOWN;
+		activeUnit = UNKNOWN;
+		for(int i = 0; i < TEXTURE_UNITS; i++)
+			textures[i] = UNKNOWN;
+		vertexArray = UNKNOWN;
+		arrayBuffer = UNKNOWN;
+		pixelUnpackBuffer = UNKNOWN;
+		drawFramebuffer = UNKNOWN;
+		readFramebuffer = UNKNOWN;
+		viewportX = viewportY = viewportWidth = viewportHeight = UNKNOWN;
+		scissorX = scissorY = scissorWidth = scissorHeight = UNKNOWN;
+		scissorTest = UNKNOWN;
+		blendSrcRGB = blendDstRGB = blendSrcAlpha = blendDstAlpha = UNKNOWN;
+		blending = UNKNOWN;
+		depthTest = UNKNOWN;
+		depthWrite = UNKNOWN;
+		depthFunc = UNKNOWN;
+	}
+
+	/**Uses a shader program (glUseProgram)*/
+	public static void useProgram(int id) {
+		if(program == id) {
+			skipped++;
+			return;
+		}
+
+		GL20.glUseProgram(id);
+		program = id;
+		calls++;
+	}
+
+	/**Makes a texture unit active (glActiveTexture)
+	 * @param unit the index of the unit, 0 for GL_TEXTURE0
+	 */
+	public static void activeTexture(int unit) {
+		if(activeUnit == unit) {
+			skipped++;
+			return;
+		}
+
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+		activeUnit = unit;
+		calls++;
+	}
+
+	/**
+	 * Binds a texture 2D to a texture unit, the unit is made active only if the texture isn't bound yet.
+	 * @param unit the index of the unit, 0 for GL_TEXTURE0
+	 * @param id the id of the texture
+	 */
+	public static void bindTexture(int unit, int id) {
+		if(textures[unit] == id) {
+			skipped++;
+			return;
+		}
+
+		activeTexture(unit);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, id);
+		textures[unit] = id;
+		calls++;
+	}
+
+	/**Binds a texture 2D to the active unit, e.g. to set its parameters*/
+	public static void bindTexture(int id) {
+		if(activeUnit == UNKNOWN)
+			activeTexture(0);
+
+		bindTexture(activeUnit, id);
+	}
+
+	/**Binds a vertex array (glBindVertexArray)*/
+	public static void bindVertexArray(int id) {
+		if(vertexArray == id) {
+			skipped++;
+			return;
+		}
+
+		GL30.glBindVertexArray(id);
+		vertexArray = id;
+		calls++;
+	}
+
+	/**
+	 * Binds a buffer (glBindBuffer), only GL_ARRAY_BUFFER and GL_PIXEL_UNPACK_BUFFER are tracked.
+	 * @param target the buffer target
+	 * @param id the id of the buffer
+	 */
+	public static void bindBuffer(int target, int id) {
+		if(target == GL15.GL_ARRAY_BUFFER) {
+			if(arrayBuffer == id) {
+				skipped++;
+				return;
+			}
+			arrayBuffer = id;
+		}
+		else if(target == GL21.GL_PIXEL_UNPACK_BUFFER) {
+			if(pixelUnpackBuffer == id) {
+				skipped++;
+				return;
+			}
+			pixelUnpackBuffer = id;
+		}
+
+		GL15.glBindBuffer(target, id);
+		calls++;
+	}
+
+	/**
+	 * Binds a framebuffer (glBindFramebuffer).
+	 * @param target GL_FRAMEBUFFER for both draw and read, GL_DRAW_FRAMEBUFFER or GL_READ_FRAMEBUFFER
+	 * @param id the id of the framebuffer, 0 for the default one
+	 */
+	public static void bindFramebuffer(int target, int id) {
+		final boolean draw = target != GL30.GL_READ_FRAMEBUFFER;
+		final boolean read = target != GL30.GL_DRAW_FRAMEBUFFER;
+
+		if((!draw || drawFramebuffer == id) && (!read || readFramebuffer == id)) {
+			skipped++;
+			return;
+		}
+
+		GL30.glBindFramebuffer(target, id);
+		if(draw)
+			drawFramebuffer = id;
+		if(read)
+			readFramebuffer = id;
+		calls++;
+	}
+
+	/**Sets the viewport (glViewport)*/
+	public static void viewport(int x, int y, int width, int height) {
+		if(viewportX == x && viewportY == y && viewportWidth == width && viewportHeight == height) {
+			skipped++;
+			return;
+		}
+
+		GL11.glViewport(x, y, width, height);
+		viewportX = x;
+		viewportY = y;
+		viewportWidth = width;
+		viewportHeight = height;
+		calls++;
+	}
+
+	/**Enables or disables the scissor test (GL_SCISSOR_TEST)*/
+	public static void setScissorTest(boolean enabled) {
+		if(scissorTest == (enabled ? 1 : 0)) {
+			skipped++;
+			return;
+		}
+
+		if(enabled)
+			GL11.glEnable(GL11.GL_SCISSOR_TEST);
+		else
+			GL11.glDisable(GL11.GL_SCISSOR_TEST);
+
+		scissorTest = enabled ? 1 : 0;
+		calls++;
+	}
+
+	/**Sets the scissor box in window coordinates, origin at the bottom left (glScissor)*/
+	public static void scissor(int x, int y, int width, int height) {
+		if(scissorX == x && scissorY == y && scissorWidth == width && scissorHeight == height) {
+			skipped++;
+			return;
+		}
+
+		GL11.glScissor(x, y, width, height);
+		scissorX = x;
+		scissorY = y;
+		scissorWidth = width;
+		scissorHeight = height;
+		calls++;
+	}
+
+	/**Enables or disables the blending (GL_BLEND)*/
+	public static void setBlending(boolean enabled) {
+		if(blending == (enabled ? 1 : 0)) {
+			skipped++;
+			return;
+		}
+
+		if(enabled)
+			GL11.glEnable(GL11.GL_BLEND);
+		else
+			GL11.glDisable(GL11.GL_BLEND);
+
+		blending = enabled ? 1 : 0;
+		calls++;
+	}
+
+	/**Sets the blend function for the color and alpha (glBlendFunc)*/
+	public static void blendFunc(int src, int dst) {
+		blendFuncSeparate(src, dst, src, dst);
+	}
+
+	/**Sets the blend function with separate factors for the alpha (glBlendFuncSeparate)*/
+	public static void blendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+		if(blendSrcRGB == srcRGB && blendDstRGB == dstRGB && blendSrcAlpha == srcAlpha && blendDstAlpha == dstAlpha) {
+			skipped++;
+			return;
+		}
+
+		if(srcRGB == srcAlpha && dstRGB == dstAlpha)
+			GL11.glBlendFunc(srcRGB, dstRGB);
+		else
+			GL14.glBlendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+
+		blendSrcRGB = srcRGB;
+		blendDstRGB = dstRGB;
+		blendSrcAlpha = srcAlpha;
+		blendDstAlpha = dstAlpha;
+		calls++;
+	}
+
+	/**Enables or disables the depth test (GL_DEPTH_TEST)*/
+	public static void setDepthTest(boolean enabled) {
+		if(depthTest == (enabled ? 1 : 0)) {
+			skipped++;
+			return;
+		}
+
+		if(enabled)
+			GL11.glEnable(GL11.GL_DEPTH_TEST);
+		else
+			GL11.glDisable(GL11.GL_DEPTH_TEST);
+
+		depthTest = enabled ? 1 : 0;
+		calls++;
+	}
+
+	/**Enables or disables the writes to the depth buffer (glDepthMask)*/
+	public static void depthMask(boolean write) {
+		if(depthWrite == (write ? 1 : 0)) {
+			skipped++;
+			return;
+		}
+
+		GL11.glDepthMask(write);
+		depthWrite = write ? 1 : 0;
+		calls++;
+	}
+
+	/**Sets the depth comparison function (glDepthFunc)*/
+	public static void depthFunc(int func) {
+		if(depthFunc == func) {
+			skipped++;
+			return;
+		}
+
+		GL11.glDepthFunc(func);
+		depthFunc = func;
+		calls++;
+	}
+
+	/**Deletes a shader program and forgets it if it was in use*/
+	public static void deleteProgram(int id) {
+		GL20.glDeleteProgram(id);
+
+		if(program == id)
+			program = 0;
+	}
+
+	/**Deletes a texture and forgets it on the units it was bound to*/
+	public static void deleteTexture(int id) {
+		GL11.glDeleteTextures(id);
+
+		for(int i = 0; i < TEXTURE_UNITS; i++) {
+			if(textures[i] == id)
+				textures[i] = 0;
+		}
+	}
+
+	/**Deletes a vertex array and forgets it if it was bound*/
+	public static void deleteVertexArray(int id) {
+		GL30.glDeleteVertexArrays(id);
+
+		if(vertexArray == id)
+			vertexArray = 0;
+	}
+
+	/**Deletes a buffer and forgets it if it was bound*/
+	public static void deleteBuffer(int id) {
+		GL15.glDeleteBuffers(id);
+
+		if(arrayBuffer == id)
+			arrayBuffer = 0;
+		if(pixelUnpackBuffer == id)
+			pixelUnpackBuffer = 0;
+	}
+
+	/**Deletes a framebuffer and forgets it if it was bound*/
+	public static void deleteFramebuffer(int id) {
+		GL30.glDeleteFramebuffers(id);
+
+		if(drawFramebuffer == id)
+			drawFramebuffer = 0;
+		if(readFramebuffer == id)
+			readFramebuffer = 0;
+	}
+
+	/**
+	 * Returns the viewport, -1 values if unknown.
+	 * @param out receives the x, y, width and height
+	 */
+	public static void getViewport(int[] out) {
+		out[0] = viewportX;
+		out[1] = viewportY;
+		out[2] = viewportWidth;
+		out[3] = viewportHeight;
+	}
+
+	/**Returns if the blending is enabled, queried from openGL if unknown*/
+	public static boolean isBlending() {
+		if(blending == UNKNOWN) {
+			blending = GL11.glIsEnabled(GL11.GL_BLEND) ? 1 : 0;
+			calls++;
+		}
+
+		return blending == 1;
+	}
+
+	/**Returns the id of the framebuffer bound for drawing, -1 if unknown*/
+	public static int getDrawFramebuffer() {
+		return drawFramebuffer;
+	}
+
+	/**Returns the number of openGL calls made through the cache*/
+	public static long getCalls() {
+		return calls;
+	}
+
+	/**Returns the number of redundant calls skipped*/
+	public static long getSkipped() {
+		return skipped;
+	}
+
+	/**Sets the counters back to 0*/
+	public static void resetCounters() {
+		calls = 0;
+		skipped = 0;
+	}
+}
@@ -0,0 +1,345 @@
+package com.calderagames.mpfw.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBInstancedArrays;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.math.Matrix4f;
+
+/**
+ * Draws sprites with instancing: one record per sprite (position, size, origin, scale, rotation,
+ * region and packed color, 48 bytes) is uploaded and the vertex shader builds the quad, the rotation
+ * and corners are never computed on the CPU.
+ * <p>Accepts the same {@link Sprite} and {@link TextureRegion} as {@link SpriteBatch} and gives the same result.
+ * A flush happens when the batch is full or when the texture changes. The instances are written straight
+ * into the mapped region of the {@link VertexStream}.</p>
+ * <p>Quads given by their corners are drawn as the rectangle spanned by the first two edges,
+ * other shapes need a {@link SpriteBatch}.</p>
+ * <p><b>Note:</b> requires openGL 3.3 or the ARB_instanced_arrays extension.</p>
+ */
+public class InstancedSpriteBatch extends AbstractSpriteBatch implements Disposable {
+
+	/**Size in bytes of an instance*/
+	private static final int INSTANCE_SIZE = 48;
+	/**Degrees to radians factor*/
+	private static final float DEG_TO_RAD = (float) (Math.PI / 180);
+
+	/**Vertex shader building the quad from the instance attributes*/
+	private static final String VERTEX_SHADER =
+			"#version 150 core\n" +
+			"in vec2 in_corner;\n" +
+			"in vec2 in_position;\n" +
+			"in vec2 in_size;\n" +
+			"in vec2 in_origin;\n" +
+			"in vec2 in_scale;\n" +
+			"in float in_rotation;\n" +
+			"in vec4 in_region;\n" +
+			"in vec4 in_color;\n" +
+			"out vec2 v_texCoord;\n" +
+			"out vec4 v_color;\n" +
+			"uniform mat4 projection;\n" +
+			"uniform mat4 modelView;\n" +
+			"void main() {\n" +
+			"vec2 local = (in_corner * in_size - in_origin) * in_scale;\n" +
+			"float c = cos(in_rotation);\n" +
+			"float s = sin(in_rotation);\n" +
+			"vec2 world = vec2(c * local.x - s * local.y, s * local.x + c * local.y) + in_position + in_origin;\n" +
+			"v_texCoord = mix(in_region.xy, in_region.zw, in_corner);\n" +
+			"v_color = in_color;\n" +
+			"gl_Position = projection * modelView * vec4(world, 0.0, 1.0);\n" +
+			"}";
+
+	/**Fragment shader, same as the default one*/
+	private static final String FRAGMENT_SHADER =
+			"#version 150 core\n" +
+			"in vec2 v_texCoord;\n" +
+			"in vec4 v_color;\n" +
+			"out vec4 color;\n" +
+			"uniform sampler2D u_texDiffuse;\n" +
+			"void main() {\n" +
+			"color = texture(u_texDiffuse, v_texCoord) * v_color;\n" +
+			"}";
+
+	/**Vertex Array Object id*/
+	private int vaoId;
+	/**Static VBO of the unit quad corners*/
+	private int cornerVboId;
+	/**Instances VBO, streamed every flush*/
+	private VertexStream instanceStream;
+
+	/**Locations of the instance attributes*/
+	private int positionLoc, sizeLoc, originLoc, scaleLoc, rotationLoc, regionLoc, colorLoc;
+
+	/**Mapped region of the stream, null until the first instance of the batch*/
+	private ByteBuffer mapped;
+	/**Address of the mapped region and of the next instance*/
+	private long mapAddress, instAddress;
+
+	/**The size of the batch, maximum number of sprite drawn per batch*/
+	private int size;
+	/**Current number of sprite in the batch*/
+	private int counter;
+	/**Current texture id*/
+	private int currTexId;
+
+	/**The projection matrix*/
+	private Matrix4f proj;
+
+	/**The shader program building the quads*/
+	private ShaderProgram shader;
+
+	private boolean drawing;
+
+	public InstancedSpriteBatch(int size) {
+		this(size, VertexStream.Mode.SUB_DATA);
+	}
+
+	/**
+	 * Constructs an instanced sprite batch with the given size and instance streaming mode.
+	 * @param size the maximum number of sprites of one batch
+	 * @param streamMode how the instances are streamed to the GPU, see {@link VertexStream.Mode}
+	 */
+	public InstancedSpriteBatch(int size, VertexStream.Mode streamMode) {
+		GLCapabilities caps = GL.getCapabilities();
+
+		if(!caps.OpenGL33 && !caps.GL_ARB_instanced_arrays)
+			throw new UnsupportedOperationException("Instanced sprites require openGL 3.3 or ARB_instanced_arrays.");
+
+		this.size = size;
+
+		shader = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER, new ShaderAttribute(), "instanced sprite");
+
+		//Generate VAO id
+		vaoId = GL30.glGenVertexArrays();
+		//Bind VAO
+		GLState.bindVertexArray(vaoId);
+
+		//Unit quad, drawn as a triangle strip
+		FloatBuffer corners = BufferUtils.createFloatBuffer(8);
+		corners.put(new float[] {0, 0, 1, 0, 0, 1, 1, 1});
+		corners.flip();
+
+		cornerVboId = GL15.glGenBuffers();
+		GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, cornerVboId);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, corners, GL15.GL_STATIC_DRAW);
+
+		final int cornerLoc = shader.getAttribLocation("in_corner");
+		GL20.glEnableVertexAttribArray(cornerLoc);
+		GL20.glVertexAttribPointer(cornerLoc, 2, GL11.GL_FLOAT, false, 8, 0);
+
+		//Instances VBO, the pointers are set at each flush since the offset depends on the region
+		instanceStream = new VertexStream(INSTANCE_SIZE, size, streamMode, VertexStream.DEFAULT_REGIONS);
+
+		positionLoc = shader.getAttribLocation("in_position");
+		sizeLoc = shader.getAttribLocation("in_size");
+		originLoc = shader.getAttribLocation("in_origin");
+		scaleLoc = shader.getAttribLocation("in_scale");
+		rotationLoc = shader.getAttribLocation("in_rotation");
+		regionLoc = shader.getAttribLocation("in_region");
+		colorLoc = shader.getAttribLocation("in_color");
+
+		for(int loc: new int[] {positionLoc, sizeLoc, originLoc, scaleLoc, rotationLoc, regionLoc, colorLoc}) {
+			GL20.glEnableVertexAttribArray(loc);
+
+			if(caps.OpenGL33)
+				GL33.glVertexAttribDivisor(loc, 1);
+			else
+				ARBInstancedArrays.glVertexAttribDivisorARB(loc, 1);
+		}
+
+		//Unbind VAO
+		GLState.bindVertexArray(0);
+	}
+
+	public void begin() {
+		if(drawing)
+			throw new IllegalStateException("InstancedSpriteBatch.end must be called before begin.");
+
+		//Use the shader
+		shader.begin();
+		//Set the projection matrix
+		shader.setUniformMat4f("projection", proj);
+
+		drawing = true;
+	}
+
+	public void end() {
+		if(!drawing)
+			throw new IllegalStateException("InstancedSpriteBatch.begin must be called before end.");
+
+		render();
+		shader.end();
+		drawing = false;
+	}
+
+	/**Render the current batch*/
+	private void render() {
+		if(counter == 0)
+			return;
+
+		GLState.bindTexture(0, currTexId);
+
+		//Hand the instances written in the region to openGL
+		mapped.position((int) (instAddress - mapAddress));
+		final long offset = (long) instanceStream.unmap() * INSTANCE_SIZE;
+		mapped = null;
+
+		GLState.bindVertexArray(vaoId);
+
+		//Point the instance attributes to the region
+		GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, instanceStream.getId());
+		GL20.glVertexAttribPointer(positionLoc, 2, GL11.GL_FLOAT, false, INSTANCE_SIZE, offset);
+		GL20.glVertexAttribPointer(sizeLoc, 2, GL11.GL_FLOAT, false, INSTANCE_SIZE, offset + 8);
+		GL20.glVertexAttribPointer(originLoc, 2, GL11.GL_FLOAT, false, INSTANCE_SIZE, offset + 16);
+		GL20.glVertexAttribPointer(scaleLoc, 2, GL11.GL_FLOAT, false, INSTANCE_SIZE, offset + 24);
+		GL20.glVertexAttribPointer(rotationLoc, 1, GL11.GL_FLOAT, false, INSTANCE_SIZE, offset + 32);
+		GL20.glVertexAttribPointer(regionLoc, 4, GL11.GL_UNSIGNED_SHORT, true, INSTANCE_SIZE, offset + 36);
+		GL20.glVertexAttribPointer(colorLoc, 4, GL11.GL_UNSIGNED_BYTE, true, INSTANCE_SIZE, offset + 44);
+
+		GL31.glDrawArraysInstanced(GL11.GL_TRIANGLE_STRIP, 0, 4, counter);
+
+		//Guard the region until the GPU is done with it
+		instanceStream.fence();
+
+		counter = 0;
+	}
+
+	/**Maps the next region of the stream, the instances are then written straight into it*/
+	private void mapInstances() {
+		mapped = instanceStream.map(size * INSTANCE_SIZE);
+		mapAddress = MemoryUtil.memAddress(mapped);
+		instAddress = mapAddress;
+	}
+
+	/**Draws a sprite, see {@link SpriteBatch#draw(Sprite)}*/
+	@Override
+	public void draw(Sprite sprite) {
+		float[] region = sprite.getTexRegion().getRegion();
+		setColor(sprite.getColor());
+
+		float u1 = region[0];
+		float v1 = region[1];
+		float u2 = region[4];
+		float v2 = region[5];
+
+		if(sprite.isFlipX()) {
+			u1 = region[4];
+			u2 = region[0];
+		}
+
+		if(sprite.isFlipY()) {
+			v1 = region[5];
+			v2 = region[1];
+		}
+
+		instance(sprite.getTexRegion().getTexture().getId(), sprite.x, sprite.y, sprite.width, sprite.height,
+		         sprite.originX, sprite.originY, sprite.scaleX, sprite.scaleY, sprite.rotation * DEG_TO_RAD, u1, v1, u2, v2);
+	}
+
+	/**Draws a texture region at the given position and size*/
+	public void draw(TextureRegion texRegion, float x, float y, float width, float height) {
+		draw(texRegion, x, y, width, height, 1, 1, 0, false, false);
+	}
+
+	/**
+	 * Draws a texture region rotated around its center,
+	 * see {@link SpriteBatch#draw(TextureRegion, float, float, float, float, float, float, float, boolean, boolean)}.
+	 */
+	@Override
+	public void draw(TextureRegion texRegion, float x, float y, float width, float height, float scaleX, float scaleY, float angle, boolean flipX,
+	                 boolean flipY) {
+		width = (flipX ? -1 : 1) * width * scaleX;
+		height = (flipY ? -1 : 1) * height * scaleY;
+
+		float[] region = texRegion.getRegion();
+
+		instance(texRegion.getTexture().getId(), x - (flipX ? width : 0), y - (flipY ? height : 0), width, height,
+		         width / 2, height / 2, 1, 1, angle * DEG_TO_RAD, region[0], region[1], region[4], region[5]);
+	}
+
+	/**
+	 * Draws the quad as the rectangle spanned by its first two edges,
+	 * the rotation is taken from the top edge and a mirrored quad gets a negative height.
+	 */
+	@Override
+	protected void quad(int texId, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4,
+	                    float u1, float v1, float u2, float v2, float u3, float v3, float u4, float v4) {
+		final float ex = x2 - x1;
+		final float ey = y2 - y1;
+		final float width = (float) Math.sqrt(ex * ex + ey * ey);
+		final float angle = (float) Math.atan2(ey, ex);
+
+		//Height along the normal of the top edge, signed
+		final float height = width != 0 ? ((x4 - x1) * -ey + (y4 - y1) * ex) / width : y4 - y1;
+
+		instance(texId, x1, y1, width, height, 0, 0, 1, 1, angle, u1, v1, u3, v3);
+	}
+
+	/**Writes one instance with the current color in the mapped region, the angle is in radians*/
+	private void instance(int texId, float x, float y, float width, float height, float originX, float originY, float scaleX, float scaleY,
+	                      float angle, float u1, float v1, float u2, float v2) {
+		if(!drawing)
+			throw new IllegalStateException("InstancedSpriteBatch.begin must be called before draw.");
+
+		if(counter == size || (currTexId != texId && counter > 0))
+			render();
+
+		currTexId = texId;
+
+		if(mapped == null)
+			mapInstances();
+
+		final long address = instAddress;
+
+		MemoryUtil.memPutFloat(address, x);
+		MemoryUtil.memPutFloat(address + 4, y);
+		MemoryUtil.memPutFloat(address + 8, width);
+		MemoryUtil.memPutFloat(address + 12, height);
+		MemoryUtil.memPutFloat(address + 16, originX);
+		MemoryUtil.memPutFloat(address + 20, originY);
+		MemoryUtil.memPutFloat(address + 24, scaleX);
+		MemoryUtil.memPutFloat(address + 28, scaleY);
+		MemoryUtil.memPutFloat(address + 32, angle);
+		MemoryUtil.memPutInt(address + 36, SpriteVertex.packUV(u1, v1));
+		MemoryUtil.memPutInt(address + 40, SpriteVertex.packUV(u2, v2));
+		MemoryUtil.memPutInt(address + 44, colorBits);
+
+		instAddress = address + INSTANCE_SIZE;
+		counter++;
+	}
+
+	/**
+	 * Sets the projection matrix of the batch.
+	 * @param projection the projection matrix
+	 */
+	public void setProjection(Matrix4f projection) {
+		if(projection == null)
+			throw new IllegalArgumentException("The projection cannot be null.");
+
+		proj = projection;
+	}
+
+	/**Returns the shader program building the quads*/
+	public ShaderProgram getShader() {
+		return shader;
+	}
+
+	public void dispose() {
+		GLState.deleteVertexArray(vaoId);
+		GLState.deleteBuffer(cornerVboId);
+		instanceStream.dispose();
+		shader.dispose();
+	}
+}
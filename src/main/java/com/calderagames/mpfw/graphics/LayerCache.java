@@ -0,0 +1,159 @@
+package com.calderagames.mpfw.graphics;
+
+import java.util.function.Consumer;
+
+import org.lwjgl.opengl.GL11;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.math.Matrix4f;
+
+/**
+ * Caches a layer which rarely changes (HUD frame, parallax background...) in a transparent {@link RenderTarget}:
+ * its draws are made once into the target, then the texture of the target is drawn each frame instead of the sprites.
+ * <p>The target covers the view plus a margin on each side, the layer is drawn again when it is marked dirty
+ * (see {@link #markDirty()}) or when the view leaves the cached area.</p>
+ * <p>The target holds premultiplied colors: the layer is drawn into it with the alpha blended separately and
+ * the texture is drawn with GL_ONE, GL_ONE_MINUS_SRC_ALPHA.</p>
+ * Usage, each frame:
+ * <pre>
+ * cache.update(batch, cameraX, cameraY, b -&gt; drawLayer(b)); //outside begin and end
+ * batch.begin();
+ * cache.draw(batch);
+ * batch.end();
+ * </pre>
+ */
+public class LayerCache implements Disposable {
+
+	private RenderTarget target;
+	/**Region of the whole texture of the target*/
+	private TextureRegion region;
+	/**Size of the view and margin around it, in world units (1 unit per pixel)*/
+	private final int viewWidth, viewHeight;
+	private final int margin;
+
+	/**Projection of the cached area*/
+	private Matrix4f projection;
+	/**Top left corner of the cached area*/
+	private float cachedX, cachedY;
+
+	/**Boolean flag that states if the layer must be drawn again*/
+	private boolean dirty;
+
+	/**Number of times the layer was drawn into the target*/
+	private int redraws;
+
+	/**
+	 * Constructs a layer cache.
+	 * @param viewWidth the width of the view
+	 * @param viewHeight the height of the view
+	 * @param margin the margin cached around the view, the view can move by it before the layer is drawn again
+	 */
+	public LayerCache(int viewWidth, int viewHeight, int margin) {
+		if(viewWidth <= 0 || viewHeight <= 0)
+			throw new IllegalArgumentException("The view size must be positive.");
+		if(margin < 0)
+			throw new IllegalArgumentException("The margin cannot be negative.");
+
+		this.viewWidth = viewWidth;
+		this.viewHeight = viewHeight;
+		this.margin = margin;
+
+		target = new RenderTarget(viewWidth + 2 * margin, viewHeight + 2 * margin, true);
+		region = new TextureRegion(target.getTexture(), 0, 0, target.getWidth(), target.getHeight());
+		projection = new Matrix4f();
+		dirty = true;
+	}
+
+	/**Marks the layer to be drawn again at the next update, e.g. when one of its sprites changed*/
+	public void markDirty() {
+		dirty = true;
+	}
+
+	/**Returns if the layer is marked dirty*/
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Returns if the layer must be drawn again for a view.
+	 * @param viewX the x-coordinate of the top left corner of the view
+	 * @param viewY the y-coordinate of the top left corner of the view
+	 */
+	public boolean needsRedraw(float viewX, float viewY) {
+		return dirty || viewX < cachedX || viewY < cachedY ||
+		       viewX + viewWidth > cachedX + target.getWidth() || viewY + viewHeight > cachedY + target.getHeight();
+	}
+
+	/**
+	 * Draws the layer into the target if needed, centered on the view. Must be called outside begin and end,
+	 * the render target, projection and blend function of the batch are restored afterwards.
+	 * @param batch the batch to draw with
+	 * @param viewX the x-coordinate of the top left corner of the view
+	 * @param viewY the y-coordinate of the top left corner of the view
+	 * @param layer draws the layer in world coordinates with the batch, between begin and end
+	 * @return true if the layer was drawn
+	 */
+	public boolean update(SpriteBatch batch, float viewX, float viewY, Consumer<SpriteBatch> layer) {
+		if(!needsRedraw(viewX, viewY))
+			return false;
+
+		//Snap the area to whole pixels so the texture is drawn without filtering
+		cachedX = (float) Math.floor(viewX) - margin;
+		cachedY = (float) Math.floor(viewY) - margin;
+		projection.setOrtho(cachedX, cachedX + target.getWidth(), cachedY + target.getHeight(), cachedY, 1, -1);
+
+		final RenderTarget lastTarget = batch.getRenderTarget();
+		final Matrix4f lastProjection = batch.getProjection();
+		final int src = batch.getBlendSrc(), dst = batch.getBlendDst();
+		final int srcAlpha = batch.getBlendSrcAlpha(), dstAlpha = batch.getBlendDstAlpha();
+
+		batch.setRenderTarget(target);
+		batch.setProjection(projection);
+		//The colors are multiplied by their alpha, the alpha accumulates the coverage
+		batch.setBlendFunction(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA, GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
+
+		batch.begin();
+		target.clear();
+		layer.accept(batch);
+		batch.end();
+
+		batch.setRenderTarget(lastTarget);
+		if(lastProjection != null)
+			batch.setProjection(lastProjection);
+		batch.setBlendFunction(src, dst, srcAlpha, dstAlpha);
+
+		dirty = false;
+		redraws++;
+
+		return true;
+	}
+
+	/**
+	 * Draws the cached layer at its place in the world, the blend function of the batch is restored afterwards.
+	 * <p><b>Note:</b> the colors being premultiplied, a translucent batch color must be premultiplied too.</p>
+	 * @param batch the batch to draw with, begin must have been called
+	 */
+	public void draw(SpriteBatch batch) {
+		final int src = batch.getBlendSrc(), dst = batch.getBlendDst();
+		final int srcAlpha = batch.getBlendSrcAlpha(), dstAlpha = batch.getBlendDstAlpha();
+
+		batch.setBlendFunction(GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
+		//The first row of the texture is the bottom of the area
+		batch.draw(region, cachedX, cachedY, target.getWidth(), target.getHeight(), 1f, 1f, 0f, false, true);
+		batch.setBlendFunction(src, dst, srcAlpha, dstAlpha);
+	}
+
+	/**Returns the render target holding the layer*/
+	public RenderTarget getRenderTarget() {
+		return target;
+	}
+
+	/**Returns the number of times the layer was drawn into the target*/
+	public int getRedraws() {
+		return redraws;
+	}
+
+	public void dispose() {
+		target.dispose();
+	}
+}
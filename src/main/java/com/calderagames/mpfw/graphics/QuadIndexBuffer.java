@@ -0,0 +1,99 @@
+package com.calderagames.mpfw.graphics;
+
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+
+/**
+ * Static element buffer of 16-bit indices drawing quads as two triangles
+ * (top left, top right, bottom left / top right, bottom right, bottom left).
+ * One buffer is created per number of quads and shared by reference counting.
+ */
+final class QuadIndexBuffer {
+
+	/**Maximum number of quads addressable with 16-bit indices*/
+	static final int MAX_QUADS = 65536 / 4;
+
+	/**Shared buffers per number of quads*/
+	private static final HashMap<Integer, QuadIndexBuffer> buffers = new HashMap<>();
+
+	/**Id of the element buffer*/
+	private final int id;
+	/**Number of quads*/
+	private final int quads;
+	/**Number of users of the buffer*/
+	private int references;
+
+	private QuadIndexBuffer(int quads) {
+		this.quads = quads;
+
+		ShortBuffer indices = BufferUtils.createShortBuffer(6 * quads);
+
+		for(int i = 0; i < quads; i++) {
+			final int index = i * 4;
+			indices.put((short) (index + 0)); //Top left
+			indices.put((short) (index + 1)); //Top right
+			indices.put((short) (index + 3)); //Bottom left
+			indices.put((short) (index + 1)); //Top right
+			indices.put((short) (index + 2)); //Bottom right
+			indices.put((short) (index + 3)); //Bottom left
+		}
+
+		indices.flip();
+
+		//The VAO left bound by the last draw must not get the element binding
+		GLState.bindVertexArray(0);
+
+		id = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, id);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Returns the shared index buffer for the given number of quads, creates it if needed.
+	 * Each call must be matched by a call to {@link #release()}.
+	 * @param quads the number of quads, at most {@link #MAX_QUADS}
+	 */
+	static QuadIndexBuffer obtain(int quads) {
+		if(quads < 1 || quads > MAX_QUADS)
+			throw new IllegalArgumentException("The number of quads must be between 1 and " + MAX_QUADS + ".");
+
+		QuadIndexBuffer buffer = buffers.get(quads);
+
+		if(buffer == null) {
+			buffer = new QuadIndexBuffer(quads);
+			buffers.put(quads, buffer);
+		}
+
+		buffer.references++;
+
+		return buffer;
+	}
+
+	/**Release one reference, the buffer is deleted once it is not referenced anymore*/
+	void release() {
+		if(--references > 0)
+			return;
+
+		buffers.remove(quads);
+		GL15.glDeleteBuffers(id);
+	}
+
+	/**Binds the buffer to GL_ELEMENT_ARRAY_BUFFER, when a VAO is bound the binding is stored in it*/
+	void bind() {
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, id);
+	}
+
+	/**Returns the id of the element buffer*/
+	int getId() {
+		return id;
+	}
+
+	/**Returns the number of quads*/
+	int getQuads() {
+		return quads;
+	}
+}
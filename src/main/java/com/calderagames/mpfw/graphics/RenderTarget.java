@@ -17,24 +17,37 @@ public class RenderTarget {
 	private Color color;
 	
 	private boolean inUse;
+	
+	// viewport to restore at end
+	private final int[] lastViewport = new int[4];
 
 	public RenderTarget(int width, int height) {
+		this(width, height, false);
+	}
+	
+	/**
+	 * Constructs a render target.
+	 * @param width the width in pixels
+	 * @param height the height in pixels
+	 * @param alpha true for an RGBA8 color texture cleared to transparent black, false for RGB8 cleared to opaque black
+	 */
+	public RenderTarget(int width, int height, boolean alpha) {
 		FRAME_WIDTH = width;
 		FRAME_HEIGHT = height;
-		color = new Color(0f, 0f, 0f, 1f);
+		color = new Color(0f, 0f, 0f, alpha ? 0f : 1f);
 		
 		frameBufferID = glGenFramebuffers();
 		int colorTextureID = glGenTextures();
 		depthRenderBufferID = glGenRenderbuffers();
 
 		// frame buffer object
-		glBindFramebuffer(GL_FRAMEBUFFER, frameBufferID);
+		GLState.bindFramebuffer(GL_FRAMEBUFFER, frameBufferID);
 
 		// color texture
-		glBindTexture(GL_TEXTURE_2D, colorTextureID);
+		GLState.bindTexture(colorTextureID);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB8, FRAME_WIDTH, FRAME_HEIGHT, 0, GL_RGBA, GL_INT, (java.nio.ByteBuffer) null);
+		glTexImage2D(GL_TEXTURE_2D, 0, alpha ? GL_RGBA8 : GL_RGB8, FRAME_WIDTH, FRAME_HEIGHT, 0, GL_RGBA, GL_INT, (java.nio.ByteBuffer) null);
 		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, colorTextureID, 0);
 
 		// depth buffer
@@ -49,7 +62,7 @@ public class RenderTarget {
 		else
 			System.out.println("An error occured creating the frame buffer.");
 
-		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);
 		
 		texture = new Texture(colorTextureID, 0);
 	}
@@ -57,8 +70,9 @@ public class RenderTarget {
 	public void begin() {
 		if(inUse)
 			return;
-		glViewport(0, 0, FRAME_WIDTH, FRAME_HEIGHT);
-		glBindFramebuffer(GL_FRAMEBUFFER, frameBufferID);
+		GLState.getViewport(lastViewport);
+		GLState.viewport(0, 0, FRAME_WIDTH, FRAME_HEIGHT);
+		GLState.bindFramebuffer(GL_FRAMEBUFFER, frameBufferID);
 		
 		inUse = true;
 	}
@@ -78,12 +92,14 @@ public class RenderTarget {
 	public void end() {
 		if(!inUse)
 			return;
-		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);
+		if(lastViewport[2] >= 0)
+			GLState.viewport(lastViewport[0], lastViewport[1], lastViewport[2], lastViewport[3]);
 		inUse = false;
 	}
 
 	public void dispose() {
-		glDeleteFramebuffers(frameBufferID);
+		GLState.deleteFramebuffer(frameBufferID);
 		glDeleteRenderbuffers(depthRenderBufferID);
 		texture.dispose();
 	}
@@ -93,6 +109,11 @@ public class RenderTarget {
 		color.g = g;
 		color.b = b;
 	}
+	
+	public void setClearColor(float r, float g, float b, float a) {
+		setClearColor(r, g, b);
+		color.a = a;
+	}
 
 	public int getWidth() {
 		return FRAME_WIDTH;
@@ -102,6 +123,10 @@ public class RenderTarget {
 		return FRAME_HEIGHT;
 	}
 
+	public int getFrameBufferID() {
+		return frameBufferID;
+	}
+
 	public Texture getTexture() {
 		return texture;
 	}
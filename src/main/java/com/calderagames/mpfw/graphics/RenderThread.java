@@ -0,0 +1,205 @@
+package com.calderagames.mpfw.graphics;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.calderagames.mpfw.Window;
+import com.calderagames.mpfw.math.Matrix4f;
+
+/**
+ * Runs every GL call on a dedicated thread: the game thread records frame N+1 in a {@link CommandList}
+ * while the render thread plays frame N and swaps the buffers.
+ * <p>Two command lists are handed over without lock, the game thread is then at most one frame ahead.
+ * Usage on the game thread, each frame: {@link #beginFrame()}, record, {@link #endFrame()} and
+ * {@link Window#pollEvents()} instead of {@link Window#update()}.</p>
+ * <p><b>Note:</b> while the thread runs the context is current on it, the GL objects (textures, shaders...)
+ * must be created and disposed through {@link #invokeLater(Runnable)}.</p>
+ */
+public class RenderThread implements Runnable {
+
+	/**Maximum time in nanoseconds a waiting thread parks before checking again*/
+	private static final long PARK_TIMEOUT = 1000000;
+
+	private final Window window;
+	/**Size of the sprite batch created on the render thread*/
+	private final int batchSize;
+
+	/**List recorded by the game thread*/
+	private CommandList recording;
+	/**List handed to the render thread, null once taken*/
+	private final AtomicReference<CommandList> submitted;
+	/**List played and cleared by the render thread, null once taken*/
+	private final AtomicReference<CommandList> free;
+
+	/**Tasks to run on the render thread before the next frame*/
+	private final ConcurrentLinkedQueue<Runnable> tasks;
+
+	private Thread thread;
+	private volatile Thread gameThread;
+	private volatile boolean running;
+	/**Error that stopped the render thread, thrown on the game thread*/
+	private volatile Throwable error;
+
+	/**Number of frames played*/
+	private volatile long frames;
+
+	/**
+	 * Constructs a render thread, not started.
+	 * @param window the window whose context is moved to the render thread
+	 * @param batchSize the size of the sprite batch playing the frames
+	 */
+	public RenderThread(Window window, int batchSize) {
+		this.window = window;
+		this.batchSize = batchSize;
+
+		recording = new CommandList();
+		submitted = new AtomicReference<>();
+		free = new AtomicReference<>(new CommandList());
+		tasks = new ConcurrentLinkedQueue<>();
+	}
+
+	/**Moves the context from the calling thread to the render thread and starts it*/
+	public void start() {
+		if(thread != null)
+			throw new IllegalStateException("RenderThread.stop must be called before start.");
+
+		window.releaseContext();
+
+		error = null;
+		running = true;
+		thread = new Thread(this, "mpfw render");
+		thread.start();
+	}
+
+	/**
+	 * Stops the render thread once the submitted frame is played and makes the context current on the calling thread,
+	 * also if the render thread already stopped on an error.
+	 */
+	public void stop() {
+		if(thread == null)
+			return;
+
+		running = false;
+		LockSupport.unpark(thread);
+
+		try {
+			thread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		thread = null;
+		window.makeContextCurrent();
+	}
+
+	/**
+	 * Returns the list to record the next frame in, to be called on the game thread.
+	 * @return the command list, empty
+	 */
+	public CommandList beginFrame() {
+		checkError();
+		return recording;
+	}
+
+	/**
+	 * Hands the recorded frame to the render thread and waits for a free list,
+	 * which only blocks if the render thread is more than one frame behind.
+	 */
+	public void endFrame() {
+		checkError();
+
+		if(!running)
+			throw new IllegalStateException("RenderThread.start must be called before endFrame.");
+
+		gameThread = Thread.currentThread();
+
+		while(!submitted.compareAndSet(null, recording)) {
+			checkError();
+			LockSupport.parkNanos(this, PARK_TIMEOUT);
+		}
+
+		LockSupport.unpark(thread);
+
+		CommandList next;
+		while((next = free.getAndSet(null)) == null) {
+			checkError();
+			LockSupport.parkNanos(this, PARK_TIMEOUT);
+		}
+
+		recording = next;
+	}
+
+	/**Runs a task on the render thread before the next frame is played, e.g. to load a texture*/
+	public void invokeLater(Runnable task) {
+		tasks.add(task);
+		LockSupport.unpark(thread);
+	}
+
+	@Override
+	public void run() {
+		window.makeContextCurrent();
+
+		SpriteBatch batch = null;
+
+		try {
+			final Matrix4f projection = new Matrix4f();
+			batch = new SpriteBatch(batchSize);
+			batch.setProjection(projection);
+
+			while(running || submitted.get() != null) {
+				runTasks();
+
+				final CommandList list = submitted.getAndSet(null);
+
+				if(list == null) {
+					LockSupport.parkNanos(this, PARK_TIMEOUT);
+					continue;
+				}
+
+				//The game thread may publish the next frame right away
+				LockSupport.unpark(gameThread);
+
+				list.play(batch, projection);
+				window.swapBuffers();
+				frames++;
+
+				list.clear();
+				free.set(list);
+				LockSupport.unpark(gameThread);
+			}
+
+			runTasks();
+		} catch(Throwable t) {
+			error = t;
+			running = false;
+		} finally {
+			if(batch != null)
+				batch.dispose();
+
+			window.releaseContext();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while((task = tasks.poll()) != null)
+			task.run();
+	}
+
+	/**Throws on the game thread the error that stopped the render thread*/
+	private void checkError() {
+		if(error != null)
+			throw new IllegalStateException("The render thread stopped.", error);
+	}
+
+	/**Returns if the render thread runs*/
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**Returns the number of frames played by the render thread*/
+	public long getFrames() {
+		return frames;
+	}
+}
@@ -11,12 +11,18 @@ public class ShaderAttribute {
 	public String TEXCOORD_ATTR;
 	/**Name of the color attribute in the vertex shader*/
 	public String COLOR_ATTR;
+	/**Name of the texture slot attribute in the vertex shader (multi-texture batches)*/
+	public String TEXSLOT_ATTR;
+	/**Name of the depth attribute in the vertex shader (depth sorted batches)*/
+	public String DEPTH_ATTR;
 	/**Name of the projection matrix in the vertex shader*/
 	public String PROJECTION_ATTR;
 	/**Name of the model view matrix in the vertex shader*/
 	public String MODELVIEW_ATTR;
 	/**Name of the texture diffuse in the fragment shader*/
 	public String TEXDIFFUSE_ATTR;
+	/**Name of the alpha test threshold in the fragment shader, the fragments below it are discarded*/
+	public String ALPHATEST_ATTR;
 	
 	/**Constructs a {@link ShaderProgram} attribute with default attributes.</br>
 	 * Default attributes:
@@ -24,17 +30,23 @@ public class ShaderAttribute {
 	 * <li>POSITION_ATTR = "in_position"</br></li>
 	 * <li>TEXCOORD_ATTR = "in_texCoord"</br></li>
 	 * <li>COLOR_ATTR = "in_color"</li>
+	 * <li>TEXSLOT_ATTR = "in_texSlot"</li>
+	 * <li>DEPTH_ATTR = "in_depth"</li>
 	 * <li>PROJECTION_ATTR = "projection"</li>
 	 * <li>MODELVIEW_ATTR = "modelView"</li>
 	 * <li>TEXDIFFUSE_ATTR = "u_texDiffuse"</li>
+	 * <li>ALPHATEST_ATTR = "u_alphaTest"</li>
 	 * </ul>
 	 */
 	public ShaderAttribute() {
 		POSITION_ATTR = "in_position";
 		TEXCOORD_ATTR = "in_texCoord";
 		COLOR_ATTR = "in_color";
+		TEXSLOT_ATTR = "in_texSlot";
+		DEPTH_ATTR = "in_depth";
 		PROJECTION_ATTR = "projection";
 		MODELVIEW_ATTR = "modelView";
 		TEXDIFFUSE_ATTR = "u_texDiffuse";
+		ALPHATEST_ATTR = "u_alphaTest";
 	}
 }
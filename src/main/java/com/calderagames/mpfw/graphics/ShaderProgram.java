@@ -15,7 +15,6 @@ import static org.lwjgl.opengl.GL20.glGetUniformLocation;
 import static org.lwjgl.opengl.GL20.glLinkProgram;
 import static org.lwjgl.opengl.GL20.glShaderSource;
 import static org.lwjgl.opengl.GL20.glValidateProgram;
-import static org.lwjgl.opengl.GL20.glUseProgram;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -29,7 +28,9 @@ import javax.swing.JOptionPane;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
 
+import com.calderagames.mpfw.Disposable;
 import com.calderagames.mpfw.math.Matrix4f;
 import com.calderagames.mpfw.math.Vector2f;
 import com.calderagames.mpfw.math.Vector3f;
@@ -38,14 +39,15 @@ import com.calderagames.mpfw.math.Vector4f;
 /**
  * Holds an openGL shader program and utility methods to create, manage and update it.
  */
-public class ShaderProgram {
+public class ShaderProgram implements Disposable {
 
-	/**Default vertex shader*/
+	/**Default vertex shader, the depth attribute gives the depth of the vertex (0 unless the batch sorts by depth)*/
 	private String defaultVertexShader = 
 			"#version 150 core\n" +
 			"in vec4 in_position;\n" +
 			"in vec4 in_texCoord;\n" +
 			"in vec4 in_color;\n" +
+			"in float in_depth;\n" +
 			"out vec2 v_texCoord;\n" +
 			"out vec4 v_color;\n" +
 			"uniform mat4 projection;\n" +
@@ -54,6 +56,7 @@ public class ShaderProgram {
 			"v_texCoord = in_texCoord.xy;\n" +
 			"v_color = in_color;\n" +
 			"gl_Position = projection * modelView * in_position;\n" +
+			"gl_Position.z = -in_depth * gl_Position.w;\n" +
 			"}";
 	
 	/**Default fragment shader*/
@@ -67,6 +70,40 @@ public class ShaderProgram {
 			"color = texture(u_texDiffuse, v_texCoord) * v_color;\n" +
 			"}";
 	
+	/**Alpha tested variant of the default fragment shader, the fragments whose alpha is below u_alphaTest are discarded*/
+	private String defaultAlphaTestFragmentShader = 
+			"#version 150 core\n" +
+			"in vec2 v_texCoord;\n" +
+			"in vec4 v_color;\n" +
+			"out vec4 color;\n" +
+			"uniform sampler2D u_texDiffuse;\n" +
+			"uniform float u_alphaTest;\n" +
+			"void main() {\n" +
+			"color = texture(u_texDiffuse, v_texCoord) * v_color;\n" +
+			"if(color.a < u_alphaTest) discard;\n" +
+			"}";
+	
+	
+	/**Default vertex shader of the multi-texture batches, the texture slot is passed to the fragment shader*/
+	private String defaultMultiTexVertexShader = 
+			"#version 150 core\n" +
+			"in vec4 in_position;\n" +
+			"in vec4 in_texCoord;\n" +
+			"in vec4 in_color;\n" +
+			"in uint in_texSlot;\n" +
+			"in float in_depth;\n" +
+			"out vec2 v_texCoord;\n" +
+			"out vec4 v_color;\n" +
+			"flat out uint v_texSlot;\n" +
+			"uniform mat4 projection;\n" +
+			"uniform mat4 modelView;\n" +
+			"void main() {\n" +
+			"v_texCoord = in_texCoord.xy;\n" +
+			"v_color = in_color;\n" +
+			"v_texSlot = in_texSlot;\n" +
+			"gl_Position = projection * modelView * in_position;\n" +
+			"gl_Position.z = -in_depth * gl_Position.w;\n" +
+			"}";
 	
 	/**Shader program*/
 	private int shaderProgram;
@@ -88,8 +125,53 @@ public class ShaderProgram {
 	 * and default fragment shader ({@link #defaultFragmentShader}).
 	 */
 	public ShaderProgram() {
-		name = "default";
-		createProgram(defaultVertexShader, defaultFragmentShader, new ShaderAttribute());
+		this(false);
+	}
+	
+	/**
+	 * Constructs a shader program with the default vertex shader and, if alphaTest is true, the alpha tested
+	 * variant of the default fragment shader ({@link #defaultAlphaTestFragmentShader}), used by the opaque pass
+	 * of the depth sorted batches (see {@link SpriteBatch#setDepthSorted(boolean)}).
+	 * @param alphaTest true to discard the fragments whose alpha is below {@link ShaderAttribute#ALPHATEST_ATTR}
+	 */
+	public ShaderProgram(boolean alphaTest) {
+		name = alphaTest ? "default alpha test" : "default";
+		createProgram(defaultVertexShader, alphaTest ? defaultAlphaTestFragmentShader : defaultFragmentShader, new ShaderAttribute());
+	}
+	
+	/**
+	 * Constructs a shader program for multi-texture batches with the default vertex shader
+	 * ({@link #defaultMultiTexVertexShader}) and a fragment shader sampling from the texture
+	 * unit given by the texture slot attribute. The sampler array is bound to the units 0 to textureUnits - 1.
+	 * @param textureUnits the number of texture units (samplers) used by the shader
+	 */
+	public ShaderProgram(int textureUnits) {
+		this(textureUnits, false);
+	}
+	
+	/**
+	 * Constructs a shader program for multi-texture batches, see {@link #ShaderProgram(int)}.
+	 * @param textureUnits the number of texture units (samplers) used by the shader
+	 * @param alphaTest true to discard the fragments whose alpha is below {@link ShaderAttribute#ALPHATEST_ATTR},
+	 * see {@link #ShaderProgram(boolean)}
+	 */
+	public ShaderProgram(int textureUnits, boolean alphaTest) {
+		if(textureUnits < 1)
+			throw new IllegalArgumentException("The number of texture units must be at least 1.");
+		
+		name = alphaTest ? "default multi-texture alpha test" : "default multi-texture";
+		ShaderAttribute attributes = new ShaderAttribute();
+		createProgram(defaultMultiTexVertexShader, 
+		              createMultiTexFragmentShader(attributes.TEXDIFFUSE_ATTR, alphaTest ? attributes.ALPHATEST_ATTR : null, textureUnits), attributes);
+		
+		//Set each sampler of the array on its texture unit, the first one is already set
+		begin();
+		for(int i = 1; i < textureUnits; i++) {
+			String sampler = attributes.TEXDIFFUSE_ATTR + "[" + i + "]";
+			addUniformLocation(sampler);
+			setUniform1i(sampler, i);
+		}
+		end();
 	}
 	
 	/**
@@ -137,18 +219,68 @@ public class ShaderProgram {
 	}
 	
 	public ShaderProgram(String vertexShader, String fragmentShader, ShaderAttribute shaderAttrib, String name) {
+		this.name = name;
 		createProgram(vertexShader, fragmentShader, shaderAttrib);
 	}
 	
+	/**
+	 * Constructs a shader program capturing the given outputs of the vertex shader with transform feedback,
+	 * the outputs are interleaved in the feedback buffer in the given order.
+	 * @param vertexShader the vertex shader source code
+	 * @param fragmentShader the fragment shader source code, can be null if the program only updates the feedback buffer
+	 * (drawn with GL_RASTERIZER_DISCARD enabled)
+	 * @param shaderAttrib the attributes of the shader program
+	 * @param feedbackVaryings the names of the outputs captured
+	 * @param name the name of the shader program (for error tracing)
+	 */
+	public ShaderProgram(String vertexShader, String fragmentShader, ShaderAttribute shaderAttrib, String[] feedbackVaryings, String name) {
+		this.name = name;
+		createProgram(vertexShader, fragmentShader, shaderAttrib, feedbackVaryings);
+	}
+	
+	/**
+	 * Generates the fragment shader of the multi-texture batches. Samplers can't be indexed
+	 * with a non uniform value in GLSL 1.50, so the sampler is picked with a chain of conditions.
+	 * @param alphaTestName the name of the alpha test uniform, null for no alpha test
+	 */
+	private static String createMultiTexFragmentShader(String samplerName, String alphaTestName, int textureUnits) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("#version 150 core\n");
+		sb.append("in vec2 v_texCoord;\n");
+		sb.append("in vec4 v_color;\n");
+		sb.append("flat in uint v_texSlot;\n");
+		sb.append("out vec4 color;\n");
+		sb.append("uniform sampler2D ").append(samplerName).append("[").append(textureUnits).append("];\n");
+		if(alphaTestName != null)
+			sb.append("uniform float ").append(alphaTestName).append(";\n");
+		sb.append("void main() {\n");
+		sb.append("vec4 texel;\n");
+		for(int i = 0; i < textureUnits; i++) {
+			if(i > 0)
+				sb.append("else ");
+			if(i < textureUnits - 1)
+				sb.append("if(v_texSlot == ").append(i).append("u) ");
+			sb.append("texel = texture(").append(samplerName).append("[").append(i).append("], v_texCoord);\n");
+		}
+		sb.append("color = texel * v_color;\n");
+		if(alphaTestName != null)
+			sb.append("if(color.a < ").append(alphaTestName).append(") discard;\n");
+		sb.append("}");
+		return sb.toString();
+	}
+	
 	private void createProgram(String vertexShaderSource, String fragmentShaderSource, ShaderAttribute shaderAttrib) {
+		createProgram(vertexShaderSource, fragmentShaderSource, shaderAttrib, null);
+	}
+	
+	private void createProgram(String vertexShaderSource, String fragmentShaderSource, ShaderAttribute shaderAttrib, String[] feedbackVaryings) {
 		attributes = shaderAttrib;
 		
 		//Create the program
 		shaderProgram = glCreateProgram();
 		
-		//Create vertex and fragment shader
+		//Create vertex shader
 		int vertexShader = glCreateShader(GL_VERTEX_SHADER);
-		int fragmentShader = glCreateShader(GL_FRAGMENT_SHADER);
 		
 		//Compile vertex shader source code
 		glShaderSource(vertexShader, vertexShaderSource);
@@ -160,24 +292,37 @@ public class ShaderProgram {
 										  "Vertex shader wasn't able to be compiled correctly.\n", JOptionPane.ERROR_MESSAGE);
 		}
 
-		//Compile fragment shader source code
-		glShaderSource(fragmentShader, fragmentShaderSource);
-		glCompileShader(fragmentShader);
+		//Attach the vertex shader to the shader program
+		glAttachShader(shaderProgram, vertexShader);
 		
-		//Check for compilation error of fragment shader
-		if(glGetShaderi(fragmentShader, GL_COMPILE_STATUS) == GL_FALSE) {
-			JOptionPane.showMessageDialog(null, "Fragment Shader - " + name + ":\n" + glGetShaderInfoLog(fragmentShader, 1000),
-										  "Fragment shader wasn't able to be compiled correctly.\n", JOptionPane.ERROR_MESSAGE);
+		//A transform feedback only program has no fragment shader
+		if(fragmentShaderSource != null) {
+			int fragmentShader = glCreateShader(GL_FRAGMENT_SHADER);
+			
+			//Compile fragment shader source code
+			glShaderSource(fragmentShader, fragmentShaderSource);
+			glCompileShader(fragmentShader);
+			
+			//Check for compilation error of fragment shader
+			if(glGetShaderi(fragmentShader, GL_COMPILE_STATUS) == GL_FALSE) {
+				JOptionPane.showMessageDialog(null, "Fragment Shader - " + name + ":\n" + glGetShaderInfoLog(fragmentShader, 1000),
+											  "Fragment shader wasn't able to be compiled correctly.\n", JOptionPane.ERROR_MESSAGE);
+			}
+			
+			//Attach the fragment shader to the shader program
+			glAttachShader(shaderProgram, fragmentShader);
 		}
-
-		//Attach the vertex and fragment shader to the shader program
-		glAttachShader(shaderProgram, vertexShader);
-		glAttachShader(shaderProgram, fragmentShader);
+		
+		//The captured outputs must be set before linking
+		if(feedbackVaryings != null)
+			GL30.glTransformFeedbackVaryings(shaderProgram, feedbackVaryings, GL30.GL_INTERLEAVED_ATTRIBS);
 
 		//Bind attrib location with the given ShaderAttribute
 		glBindAttribLocation(shaderProgram, 0, shaderAttrib.POSITION_ATTR);
 		glBindAttribLocation(shaderProgram, 1, shaderAttrib.TEXCOORD_ATTR);
 		glBindAttribLocation(shaderProgram, 2, shaderAttrib.COLOR_ATTR);
+		glBindAttribLocation(shaderProgram, 3, shaderAttrib.TEXSLOT_ATTR);
+		glBindAttribLocation(shaderProgram, 4, shaderAttrib.DEPTH_ATTR);
 
 		//Link the shader program
 		glLinkProgram(shaderProgram);
@@ -191,6 +336,8 @@ public class ShaderProgram {
 		addUniformLocation(attributes.PROJECTION_ATTR);
 		addUniformLocation(attributes.MODELVIEW_ATTR);
 		addUniformLocation(attributes.TEXDIFFUSE_ATTR);
+		//-1 if the shader has no alpha test, setting it is then ignored
+		addUniformLocation(attributes.ALPHATEST_ATTR);
 		
 		begin();
 		//Set the modelView to identity
@@ -210,7 +357,7 @@ public class ShaderProgram {
 		if(inUse)
 			return;
 		
-		glUseProgram(shaderProgram);
+		GLState.useProgram(shaderProgram);
 		
 		inUse = true;
 	}
@@ -222,18 +369,26 @@ public class ShaderProgram {
 	
 	/**
 	 * Stop using the shader program, to be call once the shader
-	 * is not needed anymore</br>
+	 * is not needed anymore. The program stays bound until another one is used,
+	 * see {@link GLState}.</br>
 	 * <b>Note:</b> if the method is called after end() it has no effect. 
 	 */
 	public void end() {
 		if(!inUse)
 			return;
 		
-		glUseProgram(0);
-		
 		inUse = false;
 	}
 	
+	/**
+	 * Returns the location of an attribute in the shader program.
+	 * @param name the name of the attribute in the vertex shader
+	 * @return the location, -1 if the attribute isn't active
+	 */
+	public int getAttribLocation(String name) {
+		return GL20.glGetAttribLocation(shaderProgram, name);
+	}
+	
 	/**
 	 * Add the location of the uniform in the shader program
 	 * @param name the name of the uniform in the shader program
@@ -334,4 +489,10 @@ public class ShaderProgram {
 		buffer.flip();
 		GL20.glUniformMatrix4fv(locations.get(name), false, buffer);
 	}
+	
+	/**Deletes the shader program*/
+	public void dispose() {
+		GLState.deleteProgram(shaderProgram);
+		inUse = false;
+	}
 }
@@ -0,0 +1,252 @@
+package com.calderagames.mpfw.graphics;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.MPFW;
+
+/**
+ * Draws filled and outlined shapes as quads of a sprite batch, every vertex sampling the center of a white texel.
+ * If the texel is in the atlas the sprites are drawn from, the shapes share the batch's draw stream
+ * and never cause a texture or shader flush.
+ * <p>The shapes are drawn with the current color of the batch, a triangle is a quad whose last two corners are
+ * the same. The polygons must be convex.</p>
+ */
+public class ShapeRenderer implements Disposable {
+
+	/**Number of segments of the circles by default*/
+	public static final int DEFAULT_SEGMENTS = 32;
+
+	/**Batch the quads are drawn with*/
+	private AbstractSpriteBatch batch;
+
+	/**Zero sized region at the center of the white texel*/
+	private TextureRegion white;
+	/**Texture created when no atlas texel is given*/
+	private Texture ownTexture;
+
+	/**Cosine and sine of the circle's points by number of segments, interleaved*/
+	private HashMap<Integer, float[]> circles;
+
+	/**
+	 * Constructs a shape renderer with its own 1x1 white texture, the shapes then share the stream
+	 * but a texture switch happens between sprites and shapes.
+	 * @param batch the batch to draw with
+	 */
+	public ShapeRenderer(AbstractSpriteBatch batch) {
+		this(batch, null);
+	}
+
+	/**
+	 * Constructs a shape renderer.
+	 * @param batch the batch to draw with
+	 * @param whiteTexel region of a white texel of the atlas, if null a 1x1 white texture is created
+	 */
+	public ShapeRenderer(AbstractSpriteBatch batch, TextureRegion whiteTexel) {
+		if(batch == null)
+			throw new IllegalArgumentException("The batch cannot be null.");
+
+		this.batch = batch;
+
+		if(whiteTexel == null) {
+			BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+			image.setRGB(0, 0, 0xFFFFFFFF);
+			ownTexture = new Texture(image, MPFW.MPFW_NEAREST);
+			whiteTexel = new TextureRegion(ownTexture, 0, 0, 1, 1);
+		}
+
+		setWhiteTexel(whiteTexel);
+
+		circles = new HashMap<>();
+	}
+
+	/**
+	 * Sets the white texel the shapes are drawn with, e.g. when the batch draws from another atlas.
+	 * @param whiteTexel region of a white texel
+	 */
+	public void setWhiteTexel(TextureRegion whiteTexel) {
+		final Texture texture = whiteTexel.getTexture();
+		final float[] uv = whiteTexel.getRegion();
+
+		//Sample the center of the texel, the filtering can't reach the neighbours
+		white = new TextureRegion(texture, (uv[0] + uv[4]) / 2 * texture.getWidth(), (uv[1] + uv[5]) / 2 * texture.getHeight(), 0, 0);
+	}
+
+	/**Draws a filled axis aligned rectangle*/
+	public void rect(float x, float y, float width, float height) {
+		batch.draw(white, x, y, x + width, y, x + width, y + height, x, y + height);
+	}
+
+	/**
+	 * Draws the outline of an axis aligned rectangle, the outline is inside the rectangle.
+	 * @param thickness the thickness of the outline
+	 */
+	public void rectLine(float x, float y, float width, float height, float thickness) {
+		if(2 * thickness >= width || 2 * thickness >= height) {
+			rect(x, y, width, height);
+			return;
+		}
+
+		//Top and bottom edges span the width, the sides fill the gap so nothing is blended twice
+		rect(x, y, width, thickness);
+		rect(x, y + height - thickness, width, thickness);
+		rect(x, y + thickness, thickness, height - 2 * thickness);
+		rect(x + width - thickness, y + thickness, thickness, height - 2 * thickness);
+	}
+
+	/**
+	 * Draws a line segment.
+	 * @param thickness the thickness of the line, centered on the segment
+	 */
+	public void line(float x1, float y1, float x2, float y2, float thickness) {
+		final float dx = x2 - x1;
+		final float dy = y2 - y1;
+		final float length = (float) Math.sqrt(dx * dx + dy * dy);
+
+		if(length == 0)
+			return;
+
+		//Half thickness normal
+		final float nx = -dy / length * thickness / 2;
+		final float ny = dx / length * thickness / 2;
+
+		batch.draw(white, x1 + nx, y1 + ny, x2 + nx, y2 + ny, x2 - nx, y2 - ny, x1 - nx, y1 - ny);
+	}
+
+	/**Draws a filled triangle*/
+	public void triangle(float x1, float y1, float x2, float y2, float x3, float y3) {
+		batch.draw(white, x1, y1, x2, y2, x3, y3, x3, y3);
+	}
+
+	/**See {@link #circle(float, float, float, int)}*/
+	public void circle(float x, float y, float radius) {
+		circle(x, y, radius, DEFAULT_SEGMENTS);
+	}
+
+	/**
+	 * Draws a filled circle, two segments per quad.
+	 * @param x the x-coordinate of the center
+	 * @param y the y-coordinate of the center
+	 * @param segments the number of segments of the outline, at least 3
+	 */
+	public void circle(float x, float y, float radius, int segments) {
+		final float[] points = circlePoints(segments);
+
+		for(int i = 0; i < segments; i += 2) {
+			final int p1 = 2 * i;
+			final int p2 = 2 * (i + 1);
+			//Odd number of segments, the last quad is a triangle
+			final int p3 = i + 2 <= segments ? 2 * (i + 2) : p2;
+
+			batch.draw(white, x, y,
+			           x + points[p1] * radius, y + points[p1 + 1] * radius,
+			           x + points[p2] * radius, y + points[p2 + 1] * radius,
+			           x + points[p3] * radius, y + points[p3 + 1] * radius);
+		}
+	}
+
+	/**See {@link #circleLine(float, float, float, float, int)}*/
+	public void circleLine(float x, float y, float radius, float thickness) {
+		circleLine(x, y, radius, thickness, DEFAULT_SEGMENTS);
+	}
+
+	/**
+	 * Draws the outline of a circle, one quad per segment.
+	 * @param x the x-coordinate of the center
+	 * @param y the y-coordinate of the center
+	 * @param thickness the thickness of the outline, inside the circle
+	 * @param segments the number of segments of the outline, at least 3
+	 */
+	public void circleLine(float x, float y, float radius, float thickness, int segments) {
+		final float[] points = circlePoints(segments);
+		final float inner = Math.max(radius - thickness, 0);
+
+		for(int i = 0; i < segments; i++) {
+			final int p1 = 2 * i;
+			final int p2 = 2 * (i + 1);
+
+			batch.draw(white, x + points[p1] * radius, y + points[p1 + 1] * radius,
+			           x + points[p2] * radius, y + points[p2 + 1] * radius,
+			           x + points[p2] * inner, y + points[p2 + 1] * inner,
+			           x + points[p1] * inner, y + points[p1 + 1] * inner);
+		}
+	}
+
+	/**
+	 * Draws a filled convex polygon, two triangles per quad.
+	 * @param vertices the x and y coordinates of the vertices, at least 3 vertices
+	 */
+	public void polygon(float[] vertices) {
+		final int count = vertices.length / 2;
+
+		if(count < 3)
+			throw new IllegalArgumentException("A polygon must have at least 3 vertices.");
+
+		for(int i = 1; i < count - 1; i += 2) {
+			final int p1 = 2 * i;
+			final int p2 = 2 * (i + 1);
+			final int p3 = i + 2 < count ? 2 * (i + 2) : p2;
+
+			batch.draw(white, vertices[0], vertices[1], vertices[p1], vertices[p1 + 1],
+			           vertices[p2], vertices[p2 + 1], vertices[p3], vertices[p3 + 1]);
+		}
+	}
+
+	/**
+	 * Draws the outline of a polygon, the last vertex being linked to the first one.
+	 * @param vertices the x and y coordinates of the vertices, at least 2 vertices
+	 * @param thickness the thickness of the lines
+	 */
+	public void polygonLine(float[] vertices, float thickness) {
+		final int count = vertices.length / 2;
+
+		if(count < 2)
+			throw new IllegalArgumentException("A polygon outline must have at least 2 vertices.");
+
+		for(int i = 0; i < count; i++) {
+			final int p1 = 2 * i;
+			final int p2 = 2 * ((i + 1) % count);
+
+			line(vertices[p1], vertices[p1 + 1], vertices[p2], vertices[p2 + 1], thickness);
+		}
+	}
+
+	/**Returns the points of the unit circle for a number of segments, the first point being repeated at the end*/
+	private float[] circlePoints(int segments) {
+		if(segments < 3)
+			throw new IllegalArgumentException("A circle must have at least 3 segments.");
+
+		float[] points = circles.get(segments);
+
+		if(points == null) {
+			points = new float[2 * (segments + 1)];
+
+			for(int i = 0; i < segments; i++) {
+				final double angle = 2 * Math.PI * i / segments;
+				points[2 * i] = (float) Math.cos(angle);
+				points[2 * i + 1] = (float) Math.sin(angle);
+			}
+
+			points[2 * segments] = points[0];
+			points[2 * segments + 1] = points[1];
+
+			circles.put(segments, points);
+		}
+
+		return points;
+	}
+
+	/**Returns the batch the shapes are drawn with*/
+	public AbstractSpriteBatch getBatch() {
+		return batch;
+	}
+
+	/**Deletes the white texture if the renderer created it*/
+	public void dispose() {
+		if(ownTexture != null) {
+			ownTexture.dispose();
+			ownTexture = null;
+		}
+	}
+}
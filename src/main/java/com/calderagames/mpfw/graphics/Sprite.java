@@ -72,6 +72,7 @@ public class Sprite {
 
 	public void setOriginY(float originY) {
 		this.originY = originY;
+		dirty = true;
 	}
 
 	public void setOriginCenter() {
@@ -1,127 +1,260 @@
 package com.calderagames.mpfw.graphics;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 
-import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.system.MemoryUtil;
 
 import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.graphics.BatchStats.FlushReason;
 import com.calderagames.mpfw.math.Matrix4f;
 
-public class SpriteBatch implements Disposable {
+/**
+ * Batches sprites and draws them with as few draw calls as possible, a flush happens
+ * when the batch is full or when the texture, shader or render target changes.
+ * <p>A multi-texture batch binds up to {@link #getTextureUnits()} textures at once and writes the texture
+ * slot of each vertex, a texture change then only flushes when every slot is taken.</p>
+ * <p>In deferred mode (see {@link #setDeferred(boolean)}) the draws are recorded between begin() and end()
+ * with a 64-bit sort key made of the layer, render target, shader, blend function and texture. At end() the
+ * records are sorted by key, so the draws are grouped by state within each layer, then drawn.</p>
+ * <p>In depth sorted mode (see {@link #setDepthSorted(boolean)}) each recorded sprite gets a depth from its layer and
+ * draw order. The opaque sprites (see {@link #setOpaque(boolean)}) are drawn first, grouped by state and front to back,
+ * with the depth test and without blending. The translucent ones are drawn after, back to front over them.</p>
+ * <p>An optional cull rectangle (see {@link #setCullRect(float, float, float, float)}) rejects the sprites
+ * fully outside the view before their vertices are written.</p>
+ * <p>Draws can also be recorded on other threads with {@link DrawRecorder}s (see {@link #createRecorder()}),
+ * the recorders are merged at end() in creation order, with the state set last.</p>
+ * <p>The vertices use the compact layout described by {@link SpriteVertex} (16 bytes per vertex, 20 with the
+ * texture slot and depth of the multi-texture and depth sorted batches), the texture coordinates are therefore clamped between 0 and 1. They are written straight into the
+ * region of the {@link VertexStream} (staging buffer or mapped VBO), there is no copy on the heap.</p>
+ * <p><b>Note:</b> on Java 9+ LWJGL writes the vertices through JNI, many times slower, unless the JVM is run with
+ * --add-opens java.base/java.nio=ALL-UNNAMED --add-exports java.base/sun.nio.ch=ALL-UNNAMED.</p>
+ */
+public class SpriteBatch extends AbstractSpriteBatch implements Disposable {
+
+	/**Bit position of each part of the sort key, the texture id takes the 24 lowest bits*/
+	private static final int LAYER_SHIFT = 48, TARGET_SHIFT = 40, SHADER_SHIFT = 32, BLEND_SHIFT = 24;
+	/**Mask of the state part of the sort key (everything but the texture)*/
+	private static final long STATE_MASK = ~0xFFFFFFL;
+	/**Mask of the layer part of the sort key*/
+	private static final long LAYER_MASK = 0xFFFFL << LAYER_SHIFT;
+	/**Maximum number of render targets, shaders or blend functions in one deferred batch*/
+	private static final int MAX_KEY_STATES = 256;
 
 	/**Vertex Array Object id*/
 	private int vaoId;
-	/**Interleaved VBO id*/
-	private int vboId;
-	/**Elements VBO id*/
-	private int eVboId;
-	
-	/**Color to be pass in the buffer*/
-	private Color color;
-	/**Float array that holds all the vertices*/
-	private float[] vertices;
-	/**Index counter of vertices*/
-	private int vertIndex;
-	/**Buffer of vertices*/
-	private FloatBuffer bufferVert;
-	/**Float array that holds all the elements*/
-	private int[] elements;
-	/**Index counter of elements*/
-	private int elemIndex;
-	/**Buffer of elements*/
-	private IntBuffer bufferElem;
-
-	/**x/y coordinates, reusable*/
-	private float x1, y1, x2, y2, x3, y3, x4, y4;
-	private float u1, v1, u2, v2, u3, v3, u4, v4;
+	/**Interleaved VBO, streamed every flush*/
+	private VertexStream vertexStream;
+	/**Boolean flag that states if the vertices have the extended layout (texture slot and depth), see {@link SpriteVertex}*/
+	private boolean extendedLayout;
+	/**Size in bytes of a vertex*/
+	private int vertexSize;
+	/**Shared static elements VBO*/
+	private QuadIndexBuffer indexBuffer;
 	
+	/**Region of the stream the vertices are written into, null until the first vertex of a batch, see {@link SpriteVertex}*/
+	private ByteBuffer mapped;
+	/**Address of the mapped region and of the next vertex*/
+	private long mapAddress, vertAddress;
+
 	/**The size of the batch, maximum number of sprite drawn per batch*/
 	private int size;
 	/**Current number of sprite in the batch*/
 	private int counter;
 	/**Current texture id*/
 	private int currTexId;
+	/**Packed texture slot of the current texture in native order, see {@link SpriteVertex#packSlot(int)}*/
+	private int slotBits;
+	/**Texture id bound to each slot (texture unit)*/
+	private int[] slotTexIds;
+	/**Number of slots in use*/
+	private int slotCount;
 
 	/**The projection matrix*/
 	private Matrix4f proj;
 	
 	/**Default shader program*/
 	private ShaderProgram defaultShader;
+	/**Boolean flag that states if the default shader was created by the batch, it then has an alpha tested variant*/
+	private boolean builtInShader;
+	/**Alpha tested variant of the built-in default shader, drawing the opaque pass, null until the depth sorted mode is enabled*/
+	private ShaderProgram alphaTestShader;
 	/**The current shader program in use for the batch*/
 	private ShaderProgram currShader;
 	
 	private RenderTarget currRenderTarget;
 	
+	/**Current blend function, the alpha factors may differ from the color ones*/
+	private int blendSrc = GL11.GL_SRC_ALPHA, blendDst = GL11.GL_ONE_MINUS_SRC_ALPHA;
+	private int blendSrcAlpha = GL11.GL_SRC_ALPHA, blendDstAlpha = GL11.GL_ONE_MINUS_SRC_ALPHA;
+	
 	private boolean drawing;
 	
+	/**Boolean flag that states if the draws are recorded and sorted at end() instead of drawn right away*/
+	private boolean deferred;
+	/**Recorded draws of the deferred mode*/
+	private DrawQueue queue;
+	/**Current layer, the most significant part of the sort key*/
+	private int layer;
+	/**Render targets, shaders and blend functions used since begin(), their index is part of the sort key*/
+	private ArrayList<RenderTarget> keyTargets;
+	private ArrayList<ShaderProgram> keyShaders;
+	private ArrayList<Long> keyBlends;
+	/**State part of the sort key for the next draws*/
+	private long stateKey;
+	
+	/**Boolean flag that states if the recorded draws are drawn in an opaque and a translucent pass, see {@link #setDepthSorted(boolean)}*/
+	private boolean depthSorted;
+	/**Boolean flag that states if the next draws are opaque or alpha tested*/
+	private boolean opaque;
+	/**Alpha below which the fragments of the opaque pass are discarded*/
+	private float alphaTest = 0.5f;
+	/**Boolean flag that states if the opaque pass is drawn, the default shader is then replaced by its alpha tested variant*/
+	private boolean alphaTestPass;
+	/**Packed depth of the emitted records, see {@link SpriteVertex#packDepth(int)}*/
+	private int depthBits;
+	/**Sort keys, depth and draw order of the records of the depth passes*/
+	private long[] depthKeys;
+	private int[] depths;
+	private int[] paintOrder;
+	
+	/**Recorders merged at end(), in creation order*/
+	private ArrayList<DrawRecorder> recorders = new ArrayList<>();
+	
+	/**Statistics since the last reset*/
+	private final BatchStats stats = new BatchStats();
+	
+	/**Boolean flag that states if the sprites outside the cull rectangle are rejected*/
+	private boolean culling;
+	/**Bounds of the cull rectangle*/
+	private float cullMinX, cullMinY, cullMaxX, cullMaxY;
+	
 	public SpriteBatch(int size) {
 		this(size, null);
 	}
 	
 	/**
 	 * Constructs a sprite batch with the given size and shader program
-	 * @param size the size maximum size of one batch
+	 * @param size the size maximum size of one batch, at most {@link QuadIndexBuffer#MAX_QUADS}
 	 * @param defaultShader the shader program to be use by default
 	 */
 	public SpriteBatch(int size, ShaderProgram defaultShader) {
+		this(size, defaultShader, VertexStream.Mode.SUB_DATA);
+	}
+	
+	/**
+	 * Constructs a multi-texture sprite batch with the given size, using the default
+	 * multi-texture shader program (see {@link ShaderProgram#ShaderProgram(int)}).
+	 * @param size the size maximum size of one batch, at most {@link QuadIndexBuffer#MAX_QUADS}
+	 * @param textureUnits the number of textures bound at once, clamped to the hardware limit (at most 32)
+	 */
+	public SpriteBatch(int size, int textureUnits) {
+		this(size, null, VertexStream.Mode.SUB_DATA, VertexStream.DEFAULT_REGIONS, textureUnits);
+	}
+	
+	/**
+	 * Constructs a sprite batch with the given size, shader program and vertex streaming mode
+	 * using {@link VertexStream#DEFAULT_REGIONS} regions for the ring modes.
+	 * @param size the size maximum size of one batch, at most {@link QuadIndexBuffer#MAX_QUADS}
+	 * @param defaultShader the shader program to be use by default
+	 * @param streamMode how the vertices are streamed to the GPU, see {@link VertexStream.Mode}
+	 */
+	public SpriteBatch(int size, ShaderProgram defaultShader, VertexStream.Mode streamMode) {
+		this(size, defaultShader, streamMode, VertexStream.DEFAULT_REGIONS);
+	}
+	
+	/**
+	 * Constructs a sprite batch with the given size, shader program and vertex streaming mode.
+	 * @param size the size maximum size of one batch, at most {@link QuadIndexBuffer#MAX_QUADS}
+	 * @param defaultShader the shader program to be use by default
+	 * @param streamMode how the vertices are streamed to the GPU, see {@link VertexStream.Mode}
+	 * @param streamRegions the number of regions of the ring, each region holds one full batch
+	 */
+	public SpriteBatch(int size, ShaderProgram defaultShader, VertexStream.Mode streamMode, int streamRegions) {
+		this(size, defaultShader, streamMode, streamRegions, 1);
+	}
+	
+	/**
+	 * Constructs a sprite batch with the given size, shader program, vertex streaming mode and number of texture units.
+	 * @param size the size maximum size of one batch, at most {@link QuadIndexBuffer#MAX_QUADS}
+	 * @param defaultShader the shader program to be use by default, if null the default (multi-texture) shader is created
+	 * @param streamMode how the vertices are streamed to the GPU, see {@link VertexStream.Mode}
+	 * @param streamRegions the number of regions of the ring, each region holds one full batch
+	 * @param textureUnits the number of textures bound at once, clamped to the hardware limit (at most 32),
+	 * when more than 1 the shader program must pick the sampler from the texture slot attribute
+	 */
+	public SpriteBatch(int size, ShaderProgram defaultShader, VertexStream.Mode streamMode, int streamRegions, int textureUnits) {
 		this.size = size;
 		
-		if(defaultShader == null)
-			defaultShader = new ShaderProgram();
+		//Clamp the texture units to the hardware limit and to MPFW_TEXTURE0..31
+		textureUnits = Math.max(1, Math.min(textureUnits, Math.min(32, GL11.glGetInteger(GL20.GL_MAX_TEXTURE_IMAGE_UNITS))));
+		slotTexIds = new int[textureUnits];
+		
+		if(defaultShader == null) {
+			defaultShader = textureUnits > 1 ? new ShaderProgram(textureUnits) : new ShaderProgram();
+			builtInShader = true;
+		}
 		
 		this.defaultShader = defaultShader;
 		
 		currShader = this.defaultShader;
 		
-		//Default white color
-		color = new Color(1f, 1f, 1f, 1f);
-		
-		//Init vertex array
-		vertices = new float[(8 + 8 + 16) * size];
-		//Create buffer
-		bufferVert = BufferUtils.createFloatBuffer((8 + 8 + 16) * size);
-		bufferElem = BufferUtils.createIntBuffer(6 * size);
-		elements = new int[6 * size];
+		//Get the shared quad elements, throws if the size is too big for 16-bit indices
+		indexBuffer = QuadIndexBuffer.obtain(size);
 		
 		//Create VAO and VBO
 		//Generate VAO id
 		vaoId = GL30.glGenVertexArrays();
 		//Bind VAO
-		GL30.glBindVertexArray(vaoId);
-		
-		//Generate interleaved VBO
-		vboId = GL15.glGenBuffers();
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
-		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, bufferVert, GL15.GL_DYNAMIC_DRAW);
-		
-		//Stride floatSize = 4 bytes, 2 float per position, 2 for texture coords and 4 for colors
-		//Position
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glVertexAttribPointer(0, 2, GL11.GL_FLOAT, false, 32, 0);//Offset 0
-		//Texture coordinates
-		GL20.glEnableVertexAttribArray(1);
-		GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, 32, 8);//Offset 8 (2 * floatSize)
-		//Color
-		GL20.glEnableVertexAttribArray(2);
-		GL20.glVertexAttribPointer(2, 4, GL11.GL_FLOAT, false, 32, 16);//Offset 16 ((2 + 2) * floatSize)
-		
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		GLState.bindVertexArray(vaoId);
+		
+		//The elements binding is stored in the VAO
+		indexBuffer.bind();
+		
+		//Generate interleaved VBO and set the attributes, the texture slot is only needed by the multi-texture batches
+		setVertexLayout(textureUnits > 1, streamMode, streamRegions);
+	}
+	
+	/**
+	 * Creates the vertex stream for the compact or extended layout and sets the vertex attributes of the VAO,
+	 * see {@link SpriteVertex}. Must be called outside begin and end.
+	 */
+	private void setVertexLayout(boolean extended, VertexStream.Mode streamMode, int streamRegions) {
+		GLState.bindVertexArray(vaoId);
+		
+		if(vertexStream != null)
+			vertexStream.dispose();
+		
+		extendedLayout = extended;
+		vertexSize = extended ? SpriteVertex.EXTENDED_SIZE : SpriteVertex.SIZE;
+		
+		//Generate interleaved VBO, 4 vertices per sprite, left bound by the stream
+		vertexStream = new VertexStream(vertexSize, 4 * size, streamMode, streamRegions);
+		
+		//Position, texture coordinates and color, plus texture slot and depth if extended
+		SpriteVertex.setAttributes(extended);
 		
 		//Unbind VAO
-		GL30.glBindVertexArray(0);
+		GLState.bindVertexArray(0);
+	}
+	
+	/**Switches to the extended layout if the batch is multi-texture or depth sorted, to the compact one otherwise*/
+	private void updateVertexLayout() {
+		final boolean extended = slotTexIds.length > 1 || depthSorted;
 		
-		eVboId = GL15.glGenBuffers();
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, eVboId);
-		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, bufferElem, GL15.GL_DYNAMIC_DRAW);
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
+		if(extended != extendedLayout)
+			setVertexLayout(extended, vertexStream.getMode(), vertexStream.getRegions());
 	}
 	
+	/**
+	 * Begins the batch: binds the render target and the shader and sets the projection.
+	 * <p><b>Note:</b> the blend function of the batch (see {@link #setBlendFunction(int, int)}) is applied, a blend
+	 * function set on the context beforehand, e.g. with glBlendFunc, is overwritten and isn't restored at end().</p>
+	 */
 	public void begin() {
 		if(drawing)
 			throw new IllegalStateException("SpriteBatch.end must be called before begin.");
@@ -135,277 +268,545 @@ public class SpriteBatch implements Disposable {
 		//Set the projection matrix
 		currShader.setUniformMat4f("projection", proj);
 		
+		GLState.blendFuncSeparate(blendSrc, blendDst, blendSrcAlpha, blendDstAlpha);
+		
 		drawing = true;
+		
+		//The state at begin gets the index 0 in the sort key
+		if(deferred) {
+			queue.clear();
+			keyTargets.clear();
+			keyShaders.clear();
+			keyBlends.clear();
+			updateStateKey();
+		}
 	}
 	
 	public void end() {
 		if(!drawing)
 			throw new IllegalStateException("SpriteBatch.begin must be called before end.");
-	
-		render();
+		
+		mergeRecorders();
+		
+		if(deferred)
+			renderQueue();
+		
+		render(FlushReason.END);
 		if(currRenderTarget != null)
 			currRenderTarget.end();
 		currShader.end();
 		drawing = false;
+		
+		//Release the slots, the bound textures may not survive until the next frame
+		slotCount = 0;
+		currTexId = 0;
 	}
 
-	/**Render the current batch*/
-	private void render() {
-		if(counter == 0)
-			return;
+	/**
+	 * Merges the draws of the recorders in creation order and clears them, the merged draws
+	 * use the current state (and layer in deferred mode).
+	 */
+	private void mergeRecorders() {
+		for(int r = 0; r < recorders.size(); r++) {
+			final DrawQueue recorded = recorders.get(r).getQueue();
+			
+			if(deferred) {
+				queue.addAll(recorded, stateKey);
+			}
+			else {
+				final int[] data = recorded.getData();
+				
+				for(int i = 0; i < recorded.size(); i++)
+					emit(data, i * DrawQueue.RECORD_INTS, recorded.getTexId(i));
+			}
+			
+			recorded.clear();
+		}
+	}
+	
+	/**
+	 * Sorts the recorded draws and draws them, the state changes are applied in the sorted order.
+	 * Once done the state set last is applied back.
+	 */
+	private void renderQueue() {
+		final RenderTarget lastTarget = currRenderTarget;
+		final ShaderProgram lastShader = currShader;
+		final long lastBlend = packBlend();
+		
+		//The GL state is still the one of begin
+		currRenderTarget = keyTargets.get(0);
+		currShader = keyShaders.get(0);
+		final long firstBlend = keyBlends.get(0);
+		blendSrc = (int) (firstBlend >>> 48);
+		blendDst = (int) (firstBlend >>> 32) & 0xFFFF;
+		blendSrcAlpha = (int) (firstBlend >>> 16) & 0xFFFF;
+		blendDstAlpha = (int) firstBlend & 0xFFFF;
+		
+		deferred = false;
+		
+		if(depthSorted) {
+			renderDepthPasses();
+		}
+		else {
+			queue.sort();
+			
+			final int[] order = queue.getOrder();
+			final int[] data = queue.getData();
+			long currState = keyState(0, 0, 0, 0);
+			
+			for(int i = 0; i < queue.size(); i++) {
+				final int record = order[i];
+				final long key = queue.getKey(record);
+				
+				if((key & STATE_MASK) != currState) {
+					currState = key & STATE_MASK;
+					applyKeyState(key);
+				}
+				
+				emit(data, record * DrawQueue.RECORD_INTS, queue.getTexId(record));
+			}
+		}
+		
+		//Back to the state set last
+		setRenderTarget(lastTarget);
+		setShader(lastShader);
+		setBlendFunction(lastBlend);
 		
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, currTexId);
+		deferred = true;
+		queue.clear();
+	}
+	
+	/**Applies the render target, shader and blend function of a sort key*/
+	private void applyKeyState(long key) {
+		ShaderProgram shader = keyShaders.get((int) (key >>> SHADER_SHIFT) & 0xFF);
 		
-		bufferVert.put(vertices, 0, vertIndex);
-		bufferVert.flip();
+		if(alphaTestPass && shader == defaultShader && alphaTestShader != null)
+			shader = alphaTestShader;
 		
-		bufferElem.put(elements, 0, elemIndex);
-		bufferElem.flip();
+		setRenderTarget(keyTargets.get((int) (key >>> TARGET_SHIFT) & 0xFF));
+		setShader(shader);
+		setBlendFunction(keyBlends.get((int) (key >>> BLEND_SHIFT) & 0xFF));
+	}
+	
+	/**
+	 * Draws the recorded draws in two passes, see {@link #setDepthSorted(boolean)}. The depth of a record is its
+	 * rank in layer then draw order, so the depth test gives the same result as drawing in that order.
+	 */
+	private void renderDepthPasses() {
+		final int count = queue.size();
 		
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
-		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, bufferVert);
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		if(depthKeys == null || depthKeys.length < count) {
+			depthKeys = new long[Math.max(count, size)];
+			depths = new int[depthKeys.length];
+			paintOrder = new int[depthKeys.length];
+		}
 		
-		//Bind the VAO and draw
-		GL30.glBindVertexArray(vaoId);
+		//Painter's order: layer then draw order
+		for(int i = 0; i < count; i++)
+			depthKeys[i] = queue.getKey(i) & LAYER_MASK;
 		
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, eVboId);
-		GL15.glBufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, 0, bufferElem);
+		queue.sort(depthKeys);
+		System.arraycopy(queue.getOrder(), 0, paintOrder, 0, count);
 		
-		GL11.glDrawElements(GL11.GL_TRIANGLES, 6 * counter, GL11.GL_UNSIGNED_INT, 0);
-		//GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, 6 * counter);
+		//Spread the ranks over the 16 bits, beyond 65536 records some neighbours share a depth
+		final long maxRank = Math.max(count - 1, 1);
+		for(int i = 0; i < count; i++)
+			depths[paintOrder[i]] = (int) (i * 0xFFFFL / maxRank);
 		
-		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
-		GL30.glBindVertexArray(0);
+		//Opaque order: state and texture, then front to back. The layer is shifted out of the key
+		for(int i = 0; i < count; i++)
+			depthKeys[i] = (queue.getKey(i) << 16) | (0xFFFF - depths[i]);
 		
-		//Clear the buffers and set the counters to 0
-		bufferVert.clear();
-		bufferElem.clear();
-		counter = 0;
-		vertIndex = 0;
-		elemIndex = 0;
-	}
-	
-	public void draw(Sprite sprite) {
-		if(!drawing)
-			throw new IllegalStateException("SpriteBatch.begin must be called before draw.");
+		queue.sort(depthKeys);
 		
-		if(currTexId == 0)
-			currTexId = sprite.getTexRegion().getTexture().getId();
-		
-		if(counter == size || currTexId != sprite.getTexRegion().getTexture().getId())
-			render();
-		
-		currTexId = sprite.getTexRegion().getTexture().getId();
-		
-		float[] vert = sprite.getVertices();
-		float[] region = sprite.getTexRegion().getRegion();
-		setColor(sprite.getColor());
-		
-		x1 = vert[0];
-		y1 = vert[1];
-		x2 = vert[2];
-		y2 = vert[3];
-		x3 = vert[4];
-		y3 = vert[5];
-		x4 = vert[6];
-		y4 = vert[7];
-		
-		u1 = region[0];
-		v1 = region[1];
-		u2 = region[2];
-		v2 = region[3];
-		u3 = region[4];
-		v3 = region[5];
-		u4 = region[6];
-		v4 = region[7];
-		
-		if(sprite.isFlipX()) {
-			u1 = u1 + u2;
-			u2 = u1 - u2;
-			u1 = u1 - u2;
-			
-			u3 = u3 + u4;
-			u4 = u3 - u4;
-			u3 = u3 - u4;
+		//The depth only orders the draws of this batch, clear it on every target
+		GLState.depthMask(true);
+		for(int t = 0; t < keyTargets.size(); t++) {
+			setRenderTarget(keyTargets.get(t));
+			GL11.glClear(GL11.GL_DEPTH_BUFFER_BIT);
 		}
 		
-		if(sprite.isFlipY()) {
-			v1 = v1 + v4;
-			v4 = v1 - v4;
-			v1 = v1 - v4;
-			
-			v2 = v2 + v3;
-			v3 = v2 - v3;
-			v2 = v2 - v3;
-		}
+		//The blending is put back as it was once the translucent pass is done
+		final boolean lastBlending = GLState.isBlending();
 		
-		vertices[vertIndex++] = x1;
-		vertices[vertIndex++] = y1;
+		GLState.setDepthTest(true);
+		GLState.depthFunc(GL11.GL_LEQUAL);
+		GLState.setBlending(false);
+		setAlphaTestUniforms(alphaTest);
 		
-		vertices[vertIndex++] = u1;
-		vertices[vertIndex++] = v1;
+		alphaTestPass = true;
+		drawDepthPass(queue.getOrder(), count, true);
+		render(FlushReason.DEPTH_PASS);
+		alphaTestPass = false;
 		
-		vertices[vertIndex++] = color.r;
-		vertices[vertIndex++] = color.g;
-		vertices[vertIndex++] = color.b;
-		vertices[vertIndex++] = color.a;
+		//The translucent sprites are tested against the opaque ones but don't hide each other
+		GLState.depthMask(false);
+		GLState.setBlending(true);
+		setAlphaTestUniforms(0f);
 		
-		vertices[vertIndex++] = x2;
-		vertices[vertIndex++] = y2;
+		drawDepthPass(paintOrder, count, false);
+		render(FlushReason.END);
 		
-		vertices[vertIndex++] = u2;
-		vertices[vertIndex++] = v2;
+		GLState.setDepthTest(false);
+		GLState.depthMask(true);
+		GLState.setBlending(lastBlending);
+		depthBits = 0;
+	}
+	
+	/**Draws the opaque or translucent records in the given order*/
+	private void drawDepthPass(int[] order, int count, boolean opaquePass) {
+		final int[] data = queue.getData();
+		long currState = -1;
 		
-		vertices[vertIndex++] = color.r;
-		vertices[vertIndex++] = color.g;
-		vertices[vertIndex++] = color.b;
-		vertices[vertIndex++] = color.a;
+		for(int i = 0; i < count; i++) {
+			final int record = order[i];
+			
+			if(((queue.getFlags(record) & DrawQueue.OPAQUE) != 0) != opaquePass)
+				continue;
+			
+			final long key = queue.getKey(record);
+			
+			//The layer doesn't change the GL state
+			if((key & STATE_MASK & ~LAYER_MASK) != currState) {
+				currState = key & STATE_MASK & ~LAYER_MASK;
+				applyKeyState(key);
+			}
+			
+			depthBits = SpriteVertex.packDepth(depths[record]);
+			emit(data, record * DrawQueue.RECORD_INTS, queue.getTexId(record));
+		}
+	}
+	
+	/**Sets the alpha test of the custom shaders used since begin() and of the alpha tested default shader*/
+	private void setAlphaTestUniforms(float threshold) {
+		for(int i = 0; i < keyShaders.size(); i++) {
+			final ShaderProgram shader = keyShaders.get(i);
+			
+			//Ignored by the shaders without the uniform
+			if(shader != defaultShader || alphaTestShader == null) {
+				setShader(shader);
+				shader.setUniform1f(shader.getShaderAttrib().ALPHATEST_ATTR, threshold);
+			}
+		}
 		
-		vertices[vertIndex++] = x3;
-		vertices[vertIndex++] = y3;
+		if(alphaTestShader != null) {
+			setShader(alphaTestShader);
+			alphaTestShader.setUniform1f(alphaTestShader.getShaderAttrib().ALPHATEST_ATTR, threshold);
+		}
+	}
+	
+	/**
+	 * Render the current batch.
+	 * @param reason the reason of the flush, counted in the stats
+	 */
+	private void render(FlushReason reason) {
+		if(counter == 0)
+			return;
 		
-		vertices[vertIndex++] = u3;
-		vertices[vertIndex++] = v3;
+		stats.flush(reason, counter, vertexSize);
 		
-		vertices[vertIndex++] = color.r;
-		vertices[vertIndex++] = color.g;
-		vertices[vertIndex++] = color.b;
-		vertices[vertIndex++] = color.a;
+		//Bind the texture of each slot, the ones already bound are skipped
+		for(int i = slotCount - 1; i >= 0; i--)
+			GLState.bindTexture(i, slotTexIds[i]);
 		
-		vertices[vertIndex++] = x4;
-		vertices[vertIndex++] = y4;
+		//Hand the vertices written in the region to openGL
+		mapped.position((int) (vertAddress - mapAddress));
+		final int baseVertex = vertexStream.unmap();
+		mapped = null;
 		
-		vertices[vertIndex++] = u4;
-		vertices[vertIndex++] = v4;
+		//Bind the VAO (with the static elements) and draw, it stays bound until another one is
+		GLState.bindVertexArray(vaoId);
 		
-		vertices[vertIndex++] = color.r;
-		vertices[vertIndex++] = color.g;
-		vertices[vertIndex++] = color.b;
-		vertices[vertIndex++] = color.a;
+		GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, 6 * counter, GL11.GL_UNSIGNED_SHORT, 0, baseVertex);
 		
-		final int index = counter * 4;
-		elements[elemIndex++] = index + 0; //Top left
-		elements[elemIndex++] = index + 1; //Top right
-		elements[elemIndex++] = index + 3; //Bottom left
-		elements[elemIndex++] = index + 1; //Top right
-		elements[elemIndex++] = index + 2; //Bottom right
-		elements[elemIndex++] = index + 3; //Bottom left;
+		//Guard the region until the GPU is done with it
+		vertexStream.fence();
 		
-		counter++;
+		//Set the counter to 0
+		counter = 0;
+	}
+	
+	/**Maps the next region of the stream, the vertices are then written straight into it*/
+	private void mapVertices() {
+		final int stalls = vertexStream.getStallCount();
+		mapped = vertexStream.map(4 * size * vertexSize);
+		stats.stall(vertexStream.getStallCount() - stalls);
+		mapAddress = MemoryUtil.memAddress(mapped);
+		vertAddress = mapAddress;
 	}
 	
-	public void draw(TextureRegion texRegion, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4) {
+	/**Draws a quad with the current color, or records it in deferred mode*/
+	@Override
+	protected void quad(int texId, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4,
+	                    float u1, float v1, float u2, float v2, float u3, float v3, float u4, float v4) {
 		if(!drawing)
 			throw new IllegalStateException("SpriteBatch.begin must be called before draw.");
 		
-		if(currTexId == 0)
-			currTexId = texRegion.getTexture().getId();
+		//check if the vertices are out of the screen
+		if(culling) {
+			if(Math.max(Math.max(x1, x2), Math.max(x3, x4)) < cullMinX || Math.min(Math.min(x1, x2), Math.min(x3, x4)) > cullMaxX || 
+			   Math.max(Math.max(y1, y2), Math.max(y3, y4)) < cullMinY || Math.min(Math.min(y1, y2), Math.min(y3, y4)) > cullMaxY) {
+				stats.cull();
+				return;
+			}
+		}
 		
-		if(counter == size || currTexId != texRegion.getTexture().getId())
-			render();
+		if(deferred) {
+			final int offset = queue.add(stateKey | (texId & 0xFFFFFF), texId, opaque ? DrawQueue.OPAQUE : 0);
+			final int[] data = queue.getData();
+			
+			record(data, offset, x1, y1, u1, v1);
+			record(data, offset + 4, x2, y2, u2, v2);
+			record(data, offset + 8, x3, y3, u3, v3);
+			record(data, offset + 12, x4, y4, u4, v4);
+			return;
+		}
 		
-		currTexId = texRegion.getTexture().getId();
-
-		//check if the vertices are out of the screen
-	
-		vertices[vertIndex++] = x1;
-		vertices[vertIndex++] = y1;
+		if(counter == size)
+			render(FlushReason.FULL);
 		
-		vertices[vertIndex++] = texRegion.getRegion()[0];
-		vertices[vertIndex++] = texRegion.getRegion()[1];
+		setTexture(texId);
 		
-		vertices[vertIndex++] = color.r;
-		vertices[vertIndex++] = color.g;
-		vertices[vertIndex++] = color.b;
-		vertices[vertIndex++] = color.a;
+		if(mapped == null)
+			mapVertices();
 		
-		vertices[vertIndex++] = x2;
-		vertices[vertIndex++] = y2;
+		vertex(x1, y1, u1, v1);
+		vertex(x2, y2, u2, v2);
+		vertex(x3, y3, u3, v3);
+		vertex(x4, y4, u4, v4);
 		
-		vertices[vertIndex++] = texRegion.getRegion()[2];
-		vertices[vertIndex++] = texRegion.getRegion()[3];
+		counter++;
+	}
+	
+	/**
+	 * Draws many sprites of the same region, the sprites being described by parallel arrays.
+	 * Each sprite has the size of the region in pixels times its scale and is rotated around its center.
+	 * @param texRegion the region of every sprite
+	 * @param x the x-coordinates of the top left corners
+	 * @param y the y-coordinates of the top left corners
+	 * @param scale the scales, if null the sprites aren't scaled
+	 * @param rotation the angles in degrees, if null the sprites aren't rotated
+	 * @param packedColor the colors packed by {@link Color#toIntBits()}, if null the current color is used
+	 * @param offset the index of the first sprite in the arrays
+	 * @param count the number of sprites
+	 */
+	public void drawBulk(TextureRegion texRegion, float[] x, float[] y, float[] scale, float[] rotation, int[] packedColor, int offset, int count) {
+		bulk(texRegion, null, x, y, scale, rotation, packedColor, offset, count);
+	}
+	
+	/**
+	 * Draws many sprites, the sprites being described by parallel arrays.
+	 * See {@link #drawBulk(TextureRegion, float[], float[], float[], float[], int[], int, int)}.
+	 * @param texRegions the region of each sprite
+	 */
+	public void drawBulk(TextureRegion[] texRegions, float[] x, float[] y, float[] scale, float[] rotation, int[] packedColor, int offset, int count) {
+		bulk(null, texRegions, x, y, scale, rotation, packedColor, offset, count);
+	}
+	
+	/**Draws many sprites with one region or one region per sprite, the loop writes the vertices itself*/
+	private void bulk(TextureRegion texRegion, TextureRegion[] texRegions, float[] x, float[] y, float[] scale, float[] rotation, 
+	                  int[] packedColor, int offset, int count) {
+		if(!drawing)
+			throw new IllegalStateException("SpriteBatch.begin must be called before draw.");
+		final int end = offset + count;
+		if(offset < 0 || count < 0 || end > x.length || end > y.length || (scale != null && end > scale.length) || 
+		   (rotation != null && end > rotation.length) || (packedColor != null && end > packedColor.length) || 
+		   (texRegions != null && end > texRegions.length))
+			throw new IllegalArgumentException("The range [" + offset + ", " + end + "[ is out of the arrays.");
+		
+		//The recorded path goes through quad(), one sprite at a time
+		if(deferred) {
+			final int lastColorBits = colorBits;
+			
+			for(int i = offset; i < end; i++) {
+				final TextureRegion region = texRegion != null ? texRegion : texRegions[i];
+				final float s = scale != null ? scale[i] : 1f;
+				
+				if(packedColor != null)
+					colorBits = SpriteVertex.packColor(packedColor[i]);
+				
+				draw(region, x[i], y[i], region.getWidth() * s, region.getHeight() * s, 1f, 1f, 
+				     rotation != null ? rotation[i] : 0f, false, false);
+			}
+			
+			colorBits = lastColorBits;
+			return;
+		}
 		
-		vertices[vertIndex++] = color.r;
-		vertices[vertIndex++] = color.g;
-		vertices[vertIndex++] = color.b;
-		vertices[vertIndex++] = color.a;
+		TextureRegion currRegion = null;
+		float regionWidth = 0, regionHeight = 0;
+		int texId = 0, uv1 = 0, uv2 = 0, uv3 = 0, uv4 = 0;
 		
-		vertices[vertIndex++] = x3;
-		vertices[vertIndex++] = y3;
+		for(int i = offset; i < end; i++) {
+			final TextureRegion region = texRegion != null ? texRegion : texRegions[i];
+			
+			//Read the region once per run of sprites sharing it
+			if(region != currRegion) {
+				final float[] uv = region.getRegion();
+				currRegion = region;
+				texId = region.getTexture().getId();
+				regionWidth = region.getWidth();
+				regionHeight = region.getHeight();
+				uv1 = SpriteVertex.packUV(uv[0], uv[1]);
+				uv2 = SpriteVertex.packUV(uv[2], uv[3]);
+				uv3 = SpriteVertex.packUV(uv[4], uv[5]);
+				uv4 = SpriteVertex.packUV(uv[6], uv[7]);
+			}
+			
+			final float s = scale != null ? scale[i] : 1f;
+			final float hw = regionWidth * s / 2;
+			final float hh = regionHeight * s / 2;
+			final float cx = x[i] + hw;
+			final float cy = y[i] + hh;
+			final float angle = rotation != null ? rotation[i] : 0f;
+			
+			//Corner offsets from the center
+			float ax = -hw, ay = -hh, bx = hw, by = -hh;
+			
+			if(angle != 0) {
+				final float cos = (float) Math.cos(Math.toRadians(angle));
+				final float sin = (float) Math.sin(Math.toRadians(angle));
+				ax = -cos * hw + sin * hh;
+				ay = -sin * hw - cos * hh;
+				bx = cos * hw + sin * hh;
+				by = sin * hw - cos * hh;
+			}
+			
+			//The bottom corners are the top ones mirrored through the center
+			final float x1 = cx + ax, y1 = cy + ay;
+			final float x2 = cx + bx, y2 = cy + by;
+			final float x3 = cx - ax, y3 = cy - ay;
+			final float x4 = cx - bx, y4 = cy - by;
+			
+			if(culling) {
+				if(Math.max(Math.max(x1, x2), Math.max(x3, x4)) < cullMinX || Math.min(Math.min(x1, x2), Math.min(x3, x4)) > cullMaxX || 
+				   Math.max(Math.max(y1, y2), Math.max(y3, y4)) < cullMinY || Math.min(Math.min(y1, y2), Math.min(y3, y4)) > cullMaxY) {
+					stats.cull();
+					continue;
+				}
+			}
+			
+			if(counter == size)
+				render(FlushReason.FULL);
+			
+			if(texId != currTexId || slotCount == 0)
+				setTexture(texId);
+			
+			if(mapped == null)
+				mapVertices();
+			
+			final int color = packedColor != null ? SpriteVertex.packColor(packedColor[i]) : colorBits;
+			final int stride = vertexSize;
+			final long address = vertAddress;
+			
+			MemoryUtil.memPutFloat(address, x1);
+			MemoryUtil.memPutFloat(address + 4, y1);
+			MemoryUtil.memPutInt(address + SpriteVertex.TEXCOORD_OFFSET, uv1);
+			MemoryUtil.memPutInt(address + SpriteVertex.COLOR_OFFSET, color);
+			
+			MemoryUtil.memPutFloat(address + stride, x2);
+			MemoryUtil.memPutFloat(address + stride + 4, y2);
+			MemoryUtil.memPutInt(address + stride + SpriteVertex.TEXCOORD_OFFSET, uv2);
+			MemoryUtil.memPutInt(address + stride + SpriteVertex.COLOR_OFFSET, color);
+			
+			MemoryUtil.memPutFloat(address + 2 * stride, x3);
+			MemoryUtil.memPutFloat(address + 2 * stride + 4, y3);
+			MemoryUtil.memPutInt(address + 2 * stride + SpriteVertex.TEXCOORD_OFFSET, uv3);
+			MemoryUtil.memPutInt(address + 2 * stride + SpriteVertex.COLOR_OFFSET, color);
+			
+			MemoryUtil.memPutFloat(address + 3 * stride, x4);
+			MemoryUtil.memPutFloat(address + 3 * stride + 4, y4);
+			MemoryUtil.memPutInt(address + 3 * stride + SpriteVertex.TEXCOORD_OFFSET, uv4);
+			MemoryUtil.memPutInt(address + 3 * stride + SpriteVertex.COLOR_OFFSET, color);
+			
+			if(extendedLayout) {
+				final int slot = slotBits;
+				MemoryUtil.memPutInt(address + SpriteVertex.TEXSLOT_OFFSET, slot);
+				MemoryUtil.memPutInt(address + stride + SpriteVertex.TEXSLOT_OFFSET, slot);
+				MemoryUtil.memPutInt(address + 2 * stride + SpriteVertex.TEXSLOT_OFFSET, slot);
+				MemoryUtil.memPutInt(address + 3 * stride + SpriteVertex.TEXSLOT_OFFSET, slot);
+			}
+			
+			vertAddress = address + 4 * stride;
+			counter++;
+		}
+	}
+	
+	/**Writes one vertex of a record with the current color*/
+	private void record(int[] data, int offset, float x, float y, float u, float v) {
+		data[offset] = Float.floatToRawIntBits(x);
+		data[offset + 1] = Float.floatToRawIntBits(y);
+		data[offset + 2] = SpriteVertex.packUV(u, v);
+		data[offset + 3] = colorBits;
+	}
+	
+	/**Draws a recorded quad, see {@link DrawQueue}*/
+	private void emit(int[] data, int offset, int texId) {
+		if(counter == size)
+			render(FlushReason.FULL);
+		
+		setTexture(texId);
+		
+		if(mapped == null)
+			mapVertices();
+		
+		long address = vertAddress;
+		
+		for(int i = 0; i < 4; i++) {
+			MemoryUtil.memPutInt(address, data[offset++]);
+			MemoryUtil.memPutInt(address + 4, data[offset++]);
+			MemoryUtil.memPutInt(address + SpriteVertex.TEXCOORD_OFFSET, data[offset++]);
+			MemoryUtil.memPutInt(address + SpriteVertex.COLOR_OFFSET, data[offset++]);
+			if(extendedLayout)
+				MemoryUtil.memPutInt(address + SpriteVertex.TEXSLOT_OFFSET, slotBits | depthBits);
+			address += vertexSize;
+		}
 		
-		vertices[vertIndex++] = texRegion.getRegion()[4];
-		vertices[vertIndex++] = texRegion.getRegion()[5];
+		vertAddress = address;
 		
-		vertices[vertIndex++] = color.r;
-		vertices[vertIndex++] = color.g;
-		vertices[vertIndex++] = color.b;
-		vertices[vertIndex++] = color.a;
+		counter++;
+	}
+	
+	/**
+	 * Makes the texture current and finds its slot, a slot is taken if the texture isn't bound yet.
+	 * If every slot is taken the batch is rendered first.
+	 * @param texId the id of the texture
+	 */
+	private void setTexture(int texId) {
+		if(texId == currTexId && slotCount > 0)
+			return;
 		
-		vertices[vertIndex++] = x4;
-		vertices[vertIndex++] = y4;
+		currTexId = texId;
 		
-		vertices[vertIndex++] = texRegion.getRegion()[6];
-		vertices[vertIndex++] = texRegion.getRegion()[7];
+		for(int i = 0; i < slotCount; i++) {
+			if(slotTexIds[i] == texId) {
+				slotBits = SpriteVertex.packSlot(i);
+				return;
+			}
+		}
 		
-		vertices[vertIndex++] = color.r;
-		vertices[vertIndex++] = color.g;
-		vertices[vertIndex++] = color.b;
-		vertices[vertIndex++] = color.a;
+		if(slotCount == slotTexIds.length) {
+			render(FlushReason.TEXTURE);
+			slotCount = 0;
+		}
 		
-		final int index = counter * 4;
-		elements[elemIndex++] = index + 0; //Top left
-		elements[elemIndex++] = index + 1; //Top right
-		elements[elemIndex++] = index + 3; //Bottom left
-		elements[elemIndex++] = index + 1; //Top right
-		elements[elemIndex++] = index + 2; //Bottom right
-		elements[elemIndex++] = index + 3; //Bottom left;
-
-		counter++;
+		slotTexIds[slotCount] = texId;
+		slotBits = SpriteVertex.packSlot(slotCount++);
 	}
 	
-	public void draw(TextureRegion texRegion, float x, float y, float width, float height, float scaleX, float scaleY, float angle, boolean flipX,
-	     			boolean flipY) {
- 		width = (flipX ? -1 : 1) * width * scaleX;
- 		height = (flipY ? -1 : 1) * height * scaleY;
-
- 		if(angle != 0) {
- 			final float cos = (float) Math.cos(Math.toRadians(angle));
-			final float sin = (float) Math.sin(Math.toRadians(angle));
-
-			x1 = (cos * (-width / 2) - sin * (-height / 2)) + width / 2 + x;
-			y1 = (sin * (-width / 2) + cos * (-height / 2)) + height / 2 + y;
-
-			x2 = (cos * (width / 2) - sin * (-height / 2)) + width / 2 + x;
-			y2 = (sin * (width / 2) + cos * (-height / 2)) + height / 2 + y;
-
-			x3 = (cos * (width / 2) - sin * (height / 2)) + width / 2 + x;
-			y3 = (sin * (width / 2) + cos * (height / 2)) + height / 2 + y;
-
-			x4 = (cos * (-width / 2) - sin * (height / 2)) + width / 2 + x;
-			y4 = (sin * (-width / 2) + cos * (height / 2)) + height / 2 + y;
- 		}
- 		else {
- 			x1 = x;
- 			y1 = y;
-
- 			x2 = x + width;
- 			y2 = y;
-
- 			x3 = x + width;
- 			y3 = y + height;
-
- 			x4 = x;
- 			y4 = y + height;
- 		}
-
- 		draw(texRegion, 
- 		     x1 + (flipX ? -width : 0), y1 + (flipY ? -height : 0), 
- 		     x2 + (flipX ? -width : 0), y2 + (flipY ? -height : 0), 
- 		     x3 + (flipX ? -width : 0), y3 + (flipY ? -height : 0), 
- 		     x4 + (flipX ? -width : 0), y4 + (flipY ? -height : 0));
- 	}
+	/**Writes one vertex with the current color, and texture slot if the layout is extended, in the mapped region*/
+	private void vertex(float x, float y, float u, float v) {
+		final long address = vertAddress;
+		
+		MemoryUtil.memPutFloat(address, x);
+		MemoryUtil.memPutFloat(address + 4, y);
+		MemoryUtil.memPutInt(address + SpriteVertex.TEXCOORD_OFFSET, SpriteVertex.packUV(u, v));
+		MemoryUtil.memPutInt(address + SpriteVertex.COLOR_OFFSET, colorBits);
+		if(extendedLayout)
+			MemoryUtil.memPutInt(address + SpriteVertex.TEXSLOT_OFFSET, slotBits);
+		
+		vertAddress = address + vertexSize;
+	}
 	
 	/**
 	 * Sets the projection matrix of the batch.
@@ -418,6 +819,11 @@ public class SpriteBatch implements Disposable {
 		proj = projection;
 	}
 	
+	/**Returns the projection matrix of the batch*/
+	public Matrix4f getProjection() {
+		return proj;
+	}
+	
 	public void setShader(ShaderProgram newShader) {
 		if(newShader == null)
 			newShader = defaultShader;
@@ -425,13 +831,22 @@ public class SpriteBatch implements Disposable {
 		if(currShader.equals(newShader))
 			return;
 		
-		if(drawing) {
-			render();
+		if(drawing && !deferred) {
+			render(FlushReason.SHADER);
+			currShader.end();
 			newShader.begin();
 			//Set the projection matrix
-			currShader.setUniformMat4f("projection", proj);
+			newShader.setUniformMat4f("projection", proj);
 		}
 		currShader = newShader;
+		
+		if(drawing && deferred)
+			updateStateKey();
+	}
+	
+	/**Returns the current shader program*/
+	public ShaderProgram getShader() {
+		return currShader;
 	}
 	
 	public void setRenderTarget(RenderTarget newRenderTarget) {
@@ -439,40 +854,375 @@ public class SpriteBatch implements Disposable {
 			(currRenderTarget == null && newRenderTarget == null))
 			return;
 		
-		if(drawing) {
-			render();
+		if(drawing && !deferred) {
+			render(FlushReason.RENDER_TARGET);
 			
+			if(currRenderTarget != null)
+				currRenderTarget.end();
 			if(newRenderTarget != null)
 				newRenderTarget.begin();
-			else if(currRenderTarget != null)
-				currRenderTarget.end();
 		}
 		
 		currRenderTarget = newRenderTarget;
+		
+		if(drawing && deferred)
+			updateStateKey();
+	}
+	
+	/**Returns the current render target, null for the window*/
+	public RenderTarget getRenderTarget() {
+		return currRenderTarget;
+	}
+	
+	/**
+	 * Sets the blend function of the batch, default: GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA. It is applied at begin().
+	 * @param src the source factor (glBlendFunc sfactor)
+	 * @param dst the destination factor (glBlendFunc dfactor)
+	 */
+	public void setBlendFunction(int src, int dst) {
+		setBlendFunction(src, dst, src, dst);
+	}
+	
+	/**
+	 * Sets the blend function of the batch with separate factors for the alpha, e.g. GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA,
+	 * GL_ONE, GL_ONE_MINUS_SRC_ALPHA to draw into a transparent render target which then holds premultiplied colors.
+	 * @param srcRGB the source factor of the color (glBlendFuncSeparate srcRGB)
+	 * @param dstRGB the destination factor of the color (glBlendFuncSeparate dstRGB)
+	 * @param srcAlpha the source factor of the alpha (glBlendFuncSeparate srcAlpha)
+	 * @param dstAlpha the destination factor of the alpha (glBlendFuncSeparate dstAlpha)
+	 */
+	public void setBlendFunction(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+		if(srcRGB == blendSrc && dstRGB == blendDst && srcAlpha == blendSrcAlpha && dstAlpha == blendDstAlpha)
+			return;
+		
+		if(drawing && !deferred) {
+			render(FlushReason.BLEND);
+			GLState.blendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+		}
+		
+		blendSrc = srcRGB;
+		blendDst = dstRGB;
+		blendSrcAlpha = srcAlpha;
+		blendDstAlpha = dstAlpha;
+		
+		if(drawing && deferred)
+			updateStateKey();
+	}
+	
+	/**Sets the blend function packed by {@link #packBlend()}*/
+	private void setBlendFunction(long blend) {
+		setBlendFunction((int) (blend >>> 48), (int) (blend >>> 32) & 0xFFFF, (int) (blend >>> 16) & 0xFFFF, (int) blend & 0xFFFF);
+	}
+	
+	/**Packs the 4 factors of the blend function in a long, 16 bits each*/
+	private long packBlend() {
+		return ((long) blendSrc << 48) | ((long) blendDst << 32) | ((long) blendSrcAlpha << 16) | blendDstAlpha;
+	}
+	
+	/**Returns the source factor of the color of the blend function*/
+	public int getBlendSrc() {
+		return blendSrc;
+	}
+	
+	/**Returns the destination factor of the color of the blend function*/
+	public int getBlendDst() {
+		return blendDst;
+	}
+	
+	/**Returns the source factor of the alpha of the blend function*/
+	public int getBlendSrcAlpha() {
+		return blendSrcAlpha;
+	}
+	
+	/**Returns the destination factor of the alpha of the blend function*/
+	public int getBlendDstAlpha() {
+		return blendDstAlpha;
+	}
+	
+	/**
+	 * Sets the layer of the next draws. In deferred mode the draws are sorted by layer first,
+	 * lower layers being drawn first, the layer has no effect otherwise.
+	 * @param layer the layer between -32768 and 32767
+	 */
+	public void setLayer(int layer) {
+		if(layer < Short.MIN_VALUE || layer > Short.MAX_VALUE)
+			throw new IllegalArgumentException("The layer must be between " + Short.MIN_VALUE + " and " + Short.MAX_VALUE + ".");
+		
+		this.layer = layer;
+		
+		if(drawing && deferred)
+			updateStateKey();
+	}
+	
+	/**
+	 * Enables or disables the deferred mode, the draws are then recorded and sorted by state at end().
+	 * <p><b>Note:</b> within a layer the draw order is only kept between draws sharing the same state, 
+	 * the render targets, shaders and blend functions are ordered by first use since begin().</p>
+	 * @param deferred true to enable, false to disable
+	 */
+	public void setDeferred(boolean deferred) {
+		if(drawing)
+			throw new IllegalStateException("SpriteBatch.setDeferred must be called outside begin and end.");
+		
+		if(!deferred) {
+			depthSorted = false;
+			updateVertexLayout();
+		}
+		
+		if(deferred && queue == null) {
+			queue = new DrawQueue(size);
+			keyTargets = new ArrayList<>();
+			keyShaders = new ArrayList<>();
+			keyBlends = new ArrayList<>();
+		}
+		
+		this.deferred = deferred;
+	}
+	
+	/**Returns if the deferred mode is enabled*/
+	public boolean isDeferred() {
+		return deferred;
+	}
+	
+	/**
+	 * Enables or disables the depth sorted mode, which implies the deferred mode (see {@link #setDeferred(boolean)}).
+	 * At end() the opaque sprites are drawn first, grouped by state and texture, front to back with the depth test
+	 * and without blending, the sprites hidden behind them are then rejected before their fragments are shaded.
+	 * The translucent sprites are drawn after in layer then draw order, tested against the opaque ones.
+	 * <p>The result is the one of drawing in layer then draw order, as long as the opaque sprites have no
+	 * translucent texels: the texels below the alpha test (see {@link #setAlphaTest(float)}) are discarded,
+	 * the others are drawn as opaque.</p>
+	 * <p>The opaque pass draws with an alpha tested variant of the built-in default shader (see
+	 * {@link ShaderProgram#ShaderProgram(int, boolean)}), the shaders used otherwise are left without the discard.
+	 * A custom shader must write the depth attribute as the default ones do and, to be alpha tested, discard
+	 * the fragments below the {@link ShaderAttribute#ALPHATEST_ATTR} uniform itself (set to 0 in the translucent pass).</p>
+	 * <p><b>Note:</b> the render targets, or the window, must have a depth buffer which is cleared at end().</p>
+	 * @param depthSorted true to enable, false to disable (the deferred mode stays enabled)
+	 */
+	public void setDepthSorted(boolean depthSorted) {
+		if(drawing)
+			throw new IllegalStateException("SpriteBatch.setDepthSorted must be called outside begin and end.");
+		
+		if(depthSorted)
+			setDeferred(true);
+		
+		if(depthSorted && builtInShader && alphaTestShader == null)
+			alphaTestShader = slotTexIds.length > 1 ? new ShaderProgram(slotTexIds.length, true) : new ShaderProgram(true);
+		
+		this.depthSorted = depthSorted;
+		
+		//The depth is written in the extended vertex layout
+		updateVertexLayout();
+	}
+	
+	/**Returns if the depth sorted mode is enabled*/
+	public boolean isDepthSorted() {
+		return depthSorted;
+	}
+	
+	/**
+	 * Sets if the next draws are opaque (or alpha tested) and drawn in the first pass of the depth sorted mode,
+	 * translucent by default. Has no effect if the depth sorted mode is disabled.
+	 * @param opaque true for opaque, false for translucent
+	 */
+	public void setOpaque(boolean opaque) {
+		this.opaque = opaque;
+	}
+	
+	/**Returns if the next draws are opaque, see {@link #setOpaque(boolean)}*/
+	public boolean isOpaque() {
+		return opaque;
+	}
+	
+	/**
+	 * Sets the alpha below which the fragments of the opaque sprites are discarded in depth sorted mode, default: 0.5.
+	 * @param threshold the threshold between 0 and 1
+	 */
+	public void setAlphaTest(float threshold) {
+		if(threshold < 0 || threshold > 1)
+			throw new IllegalArgumentException("The alpha test threshold must be between 0 and 1.");
+		
+		alphaTest = threshold;
+	}
+	
+	/**Computes the state part of the sort key from the current layer, render target, shader and blend function*/
+	private void updateStateKey() {
+		stateKey = keyState(layer, keyIndex(keyTargets, currRenderTarget), keyIndex(keyShaders, currShader), 
+		                    keyIndex(keyBlends, packBlend()));
+	}
+	
+	private static long keyState(int layer, int target, int shader, int blend) {
+		return ((long) ((layer - Short.MIN_VALUE) & 0xFFFF) << LAYER_SHIFT) | ((long) target << TARGET_SHIFT) | 
+		       ((long) shader << SHADER_SHIFT) | ((long) blend << BLEND_SHIFT);
+	}
+	
+	/**Returns the index of the state in the list, the state is added if needed*/
+	private static <T> int keyIndex(ArrayList<T> states, T state) {
+		int index = states.indexOf(state);
+		
+		if(index == -1) {
+			if(states.size() == MAX_KEY_STATES)
+				throw new IllegalStateException("A deferred batch can't use more than " + MAX_KEY_STATES + " different states of a kind.");
+			
+			states.add(state);
+			index = states.size() - 1;
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Sets the cull rectangle and enables the culling, the sprites whose bounding box is fully
+	 * outside the rectangle are rejected before any vertex is written.
+	 * @param x the x-coordinate of the rectangle
+	 * @param y the y-coordinate of the rectangle
+	 * @param width the width of the rectangle
+	 * @param height the height of the rectangle
+	 */
+	public void setCullRect(float x, float y, float width, float height) {
+		if(width < 0 || height < 0)
+			throw new IllegalArgumentException("The cull rectangle size cannot be negative.");
+		
+		cullMinX = x;
+		cullMinY = y;
+		cullMaxX = x + width;
+		cullMaxY = y + height;
+		culling = true;
+	}
+	
+	/**
+	 * Sets the cull rectangle to the view of the camera and enables the culling.
+	 * @param camera the camera, its position is the top left corner of the view
+	 * @param viewWidth the width of the view
+	 * @param viewHeight the height of the view
+	 */
+	public void setCullRect(Camera2D camera, float viewWidth, float viewHeight) {
+		setCullRect(camera.getX(), camera.getY(), viewWidth, viewHeight);
 	}
 	
 	/**
-	 * Sets the color with the given values.
-	 * @param r the red value between 0 and 1
-	 * @param g the green value between 0 and 1
-	 * @param b the blue value between 0 and 1
-	 * @param a the alpha value between 0 and 1
+	 * Sets the cull rectangle to the area visible through the projection matrix and enables the culling.
+	 * The model-view matrix of the shaders is taken as the identity (the default), see {@link #setCullRectFromProjection(Matrix4f)}.
+	 * The projection must be orthographic, see {@link Matrix4f#setOrtho(float, float, float, float, float, float)}.
 	 */
-	public void setColor(float r, float g, float b, float a) {
-		color.setColor(r, g, b, a);
+	public void setCullRectFromProjection() {
+		setCullRectFromProjection(null);
 	}
 	
 	/**
-	 * Sets the color from another Color.
-	 * @param color the color to copy from
+	 * Sets the cull rectangle to the area visible through projection * modelView and enables the culling.
+	 * The projection must be orthographic and the model-view matrix may translate, scale and rotate in the xy plane,
+	 * the rectangle is then the bounding box of the visible area.
+	 * @param modelView the model-view matrix set on the shaders, null for the identity
 	 */
-	public void setColor(Color color) {
-		this.color.setColor(color);
+	public void setCullRectFromProjection(Matrix4f modelView) {
+		if(proj == null)
+			throw new IllegalStateException("SpriteBatch.setProjection must be called before setCullRectFromProjection.");
+		
+		//xy part of projection * modelView, the matrices are indexed [column][row]
+		float a = proj.m[0][0], b = proj.m[0][1], c = proj.m[1][0], d = proj.m[1][1], e = proj.m[3][0], f = proj.m[3][1];
+		
+		if(modelView != null) {
+			final float[][] p = proj.m, mv = modelView.m;
+			a = p[0][0] * mv[0][0] + p[1][0] * mv[0][1];
+			b = p[0][1] * mv[0][0] + p[1][1] * mv[0][1];
+			c = p[0][0] * mv[1][0] + p[1][0] * mv[1][1];
+			d = p[0][1] * mv[1][0] + p[1][1] * mv[1][1];
+			e = p[0][0] * mv[3][0] + p[1][0] * mv[3][1] + p[3][0];
+			f = p[0][1] * mv[3][0] + p[1][1] * mv[3][1] + p[3][1];
+		}
+		
+		final float det = a * d - b * c;
+		if(det == 0)
+			throw new IllegalStateException("The projection * modelView matrix can't be inverted.");
+		
+		//Unproject the corners of the normalized device coordinates
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		
+		for(int corner = 0; corner < 4; corner++) {
+			final float u = (corner & 1) == 0 ? -1 - e : 1 - e;
+			final float v = (corner & 2) == 0 ? -1 - f : 1 - f;
+			final float x = (d * u - c * v) / det;
+			final float y = (a * v - b * u) / det;
+			
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		
+		setCullRect(minX, minY, maxX - minX, maxY - minY);
+	}
+	
+	/**Disables the culling, every sprite is drawn*/
+	public void disableCulling() {
+		culling = false;
+	}
+	
+	/**Returns if the culling is enabled*/
+	public boolean isCulling() {
+		return culling;
+	}
+	
+	/**
+	 * Copies the cull rectangle, see {@link #setCullRect(float, float, float, float)}.
+	 * @param out receives the x-coordinate, y-coordinate, width and height of the rectangle
+	 */
+	public void getCullRect(float[] out) {
+		out[0] = cullMinX;
+		out[1] = cullMinY;
+		out[2] = cullMaxX - cullMinX;
+		out[3] = cullMaxY - cullMinY;
+	}
+	
+	/**
+	 * Returns the statistics of the batch (draw calls, flushes by reason, culled sprites, stalls...),
+	 * to be reset by the caller, e.g. every frame
+	 */
+	public BatchStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * Creates a draw recorder merged in this batch at each end(), to be used by one thread.
+	 * See {@link DrawRecorder}.
+	 * @return the new recorder
+	 */
+	public DrawRecorder createRecorder() {
+		DrawRecorder recorder = new DrawRecorder(size);
+		recorders.add(recorder);
+		return recorder;
+	}
+	
+	/**
+	 * Removes a recorder from the batch, its draws are discarded.
+	 * @param recorder the recorder created by {@link #createRecorder()}
+	 */
+	public void removeRecorder(DrawRecorder recorder) {
+		if(recorders.remove(recorder))
+			recorder.clear();
+	}
+	
+	/**Returns the number of textures the batch binds at once, 1 if the batch isn't multi-texture*/
+	public int getTextureUnits() {
+		return slotTexIds.length;
+	}
+	
+	/**Returns the vertex streaming mode in use, see {@link VertexStream#getMode()}*/
+	public VertexStream.Mode getStreamMode() {
+		return vertexStream.getMode();
 	}
 
 	public void dispose() {
-		GL30.glDeleteVertexArrays(vaoId);
-		GL15.glDeleteBuffers(vboId);
-		GL15.glDeleteBuffers(eVboId);
+		GLState.deleteVertexArray(vaoId);
+		vertexStream.dispose();
+		indexBuffer.release();
+		
+		//The shaders given by the user are left to them
+		if(builtInShader)
+			defaultShader.dispose();
+		if(alphaTestShader != null)
+			alphaTestShader.dispose();
 	}
 }
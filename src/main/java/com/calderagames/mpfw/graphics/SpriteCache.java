@@ -0,0 +1,271 @@
+package com.calderagames.mpfw.graphics;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.math.Matrix4f;
+
+/**
+ * Stores immutable sprites (tile layers, backgrounds...) in static GPU buffers so they can be
+ * redrawn every frame without building or uploading any vertex.
+ * <p>A cache is filled once between {@link #beginCache()} and {@link #endCache()} with the same
+ * draw methods as {@link SpriteBatch}, then drawn between {@link #begin()} and {@link #end()}
+ * with {@link #draw(int, float, float)}, one draw call per run of sprites sharing a texture.</p>
+ */
+public class SpriteCache extends AbstractSpriteBatch implements Disposable {
+
+	/**A filled cache*/
+	private static class Cache {
+		/**Vertex Array Object id*/
+		int vaoId;
+		/**Static VBO id*/
+		int vboId;
+		/**Texture id, first sprite and number of sprites of each run*/
+		int[] runTexIds;
+		int[] runStarts;
+		int[] runCounts;
+	}
+
+	/**Filled caches, the id of a cache is its index*/
+	private ArrayList<Cache> caches;
+
+	/**Int array that holds the vertices of the cache being filled, see {@link SpriteVertex}*/
+	private int[] vertices;
+	/**Index counter of vertices*/
+	private int vertIndex;
+	/**Texture id, first sprite and number of sprites of each run of the cache being filled*/
+	private int[] runTexIds, runStarts, runCounts;
+	/**Number of runs of the cache being filled*/
+	private int runCount;
+	/**Number of sprites of the cache being filled*/
+	private int counter;
+
+	/**Shared static elements VBO*/
+	private QuadIndexBuffer indexBuffer;
+
+	/**The projection matrix*/
+	private Matrix4f proj;
+	/**The model view matrix, holds the offset of the cache drawn*/
+	private Matrix4f modelView;
+
+	/**Shader program used to draw the caches*/
+	private ShaderProgram shader;
+
+	private boolean building;
+	private boolean drawing;
+
+	public SpriteCache() {
+		this(null);
+	}
+
+	/**
+	 * Constructs a sprite cache with the given shader program.
+	 * @param shader the shader program used to draw the caches, if null the default shader is created
+	 */
+	public SpriteCache(ShaderProgram shader) {
+		if(shader == null)
+			shader = new ShaderProgram();
+
+		this.shader = shader;
+
+		caches = new ArrayList<>();
+		modelView = new Matrix4f();
+
+		vertices = new int[SpriteVertex.SPRITE_INTS * 256];
+		runTexIds = new int[16];
+		runStarts = new int[16];
+		runCounts = new int[16];
+
+		indexBuffer = QuadIndexBuffer.obtain(QuadIndexBuffer.MAX_QUADS);
+	}
+
+	/**Starts a new cache, the next draws are stored in it until {@link #endCache()}*/
+	public void beginCache() {
+		if(building)
+			throw new IllegalStateException("SpriteCache.endCache must be called before beginCache.");
+		if(drawing)
+			throw new IllegalStateException("SpriteCache.end must be called before beginCache.");
+
+		vertIndex = 0;
+		runCount = 0;
+		counter = 0;
+		building = true;
+	}
+
+	/**
+	 * Uploads the cache being filled to the GPU.
+	 * @return the id of the cache
+	 */
+	public int endCache() {
+		if(!building)
+			throw new IllegalStateException("SpriteCache.beginCache must be called before endCache.");
+
+		Cache cache = new Cache();
+		cache.runTexIds = Arrays.copyOf(runTexIds, runCount);
+		cache.runStarts = Arrays.copyOf(runStarts, runCount);
+		cache.runCounts = Arrays.copyOf(runCounts, runCount);
+
+		IntBuffer buffer = BufferUtils.createIntBuffer(Math.max(vertIndex, 1));
+		buffer.put(vertices, 0, vertIndex);
+		buffer.flip();
+
+		cache.vaoId = GL30.glGenVertexArrays();
+		GLState.bindVertexArray(cache.vaoId);
+
+		cache.vboId = GL15.glGenBuffers();
+		GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, cache.vboId);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+
+		SpriteVertex.setAttributes();
+
+		//The elements binding is stored in the VAO
+		indexBuffer.bind();
+
+		GLState.bindVertexArray(0);
+
+		caches.add(cache);
+		building = false;
+
+		return caches.size() - 1;
+	}
+
+	/**Stores a quad in the cache being filled*/
+	@Override
+	protected void quad(int texId, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4,
+	                    float u1, float v1, float u2, float v2, float u3, float v3, float u4, float v4) {
+		if(!building)
+			throw new IllegalStateException("SpriteCache.beginCache must be called before draw.");
+
+		if(vertIndex + SpriteVertex.SPRITE_INTS > vertices.length)
+			vertices = Arrays.copyOf(vertices, vertices.length * 2);
+
+		//Start a new run when the texture changes
+		if(runCount == 0 || runTexIds[runCount - 1] != texId) {
+			if(runCount == runTexIds.length) {
+				runTexIds = Arrays.copyOf(runTexIds, runCount * 2);
+				runStarts = Arrays.copyOf(runStarts, runCount * 2);
+				runCounts = Arrays.copyOf(runCounts, runCount * 2);
+			}
+
+			runTexIds[runCount] = texId;
+			runStarts[runCount] = counter;
+			runCounts[runCount] = 0;
+			runCount++;
+		}
+
+		vertex(x1, y1, u1, v1);
+		vertex(x2, y2, u2, v2);
+		vertex(x3, y3, u3, v3);
+		vertex(x4, y4, u4, v4);
+
+		runCounts[runCount - 1]++;
+		counter++;
+	}
+
+	/**Writes one vertex with the current color*/
+	private void vertex(float x, float y, float u, float v) {
+		vertices[vertIndex++] = Float.floatToRawIntBits(x);
+		vertices[vertIndex++] = Float.floatToRawIntBits(y);
+		vertices[vertIndex++] = SpriteVertex.packUV(u, v);
+		vertices[vertIndex++] = colorBits;
+	}
+
+	public void begin() {
+		if(drawing)
+			throw new IllegalStateException("SpriteCache.end must be called before begin.");
+		if(building)
+			throw new IllegalStateException("SpriteCache.endCache must be called before begin.");
+
+		//Use the shader
+		shader.begin();
+		//Set the projection matrix
+		shader.setUniformMat4f("projection", proj);
+
+		drawing = true;
+	}
+
+	public void end() {
+		if(!drawing)
+			throw new IllegalStateException("SpriteCache.begin must be called before end.");
+
+		//Reset the model view matrix
+		modelView.identity();
+		shader.setUniformMat4f("modelView", modelView);
+		shader.end();
+
+		drawing = false;
+	}
+
+	/**See {@link #draw(int, float, float)}*/
+	public void draw(int cacheId) {
+		draw(cacheId, 0, 0);
+	}
+
+	/**
+	 * Draws a cache, one draw call per run of sprites sharing a texture.
+	 * @param cacheId the id of the cache returned by {@link #endCache()}
+	 * @param offsetX the offset on the x axis applied with the model view matrix
+	 * @param offsetY the offset on the y axis applied with the model view matrix
+	 */
+	public void draw(int cacheId, float offsetX, float offsetY) {
+		if(!drawing)
+			throw new IllegalStateException("SpriteCache.begin must be called before draw.");
+
+		if(cacheId < 0 || cacheId >= caches.size())
+			throw new IllegalArgumentException("Invalid cache id: " + cacheId);
+
+		Cache cache = caches.get(cacheId);
+
+		modelView.identity();
+		modelView.m[3][0] = offsetX;
+		modelView.m[3][1] = offsetY;
+		shader.setUniformMat4f("modelView", modelView);
+
+		GLState.bindVertexArray(cache.vaoId);
+
+		for(int i = 0; i < cache.runTexIds.length; i++) {
+			GLState.bindTexture(0, cache.runTexIds[i]);
+
+			//The 16-bit indices address at most MAX_QUADS sprites per draw call
+			for(int start = 0; start < cache.runCounts[i]; start += QuadIndexBuffer.MAX_QUADS) {
+				final int count = Math.min(QuadIndexBuffer.MAX_QUADS, cache.runCounts[i] - start);
+				GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, 6 * count, GL11.GL_UNSIGNED_SHORT, 0,
+				                              4 * (cache.runStarts[i] + start));
+			}
+		}
+	}
+
+	/**
+	 * Sets the projection matrix of the cache.
+	 * @param projection the projection matrix
+	 */
+	public void setProjection(Matrix4f projection) {
+		if(projection == null)
+			throw new IllegalArgumentException("The projection cannot be null.");
+
+		proj = projection;
+	}
+
+	/**Deletes every cache, the ids are not valid anymore*/
+	public void clear() {
+		for(Cache cache: caches) {
+			GLState.deleteVertexArray(cache.vaoId);
+			GLState.deleteBuffer(cache.vboId);
+		}
+
+		caches.clear();
+	}
+
+	public void dispose() {
+		clear();
+		indexBuffer.release();
+	}
+}
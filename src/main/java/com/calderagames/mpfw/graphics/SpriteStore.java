@@ -0,0 +1,333 @@
+package com.calderagames.mpfw.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Holds many sprites in parallel primitive arrays, a sprite being an int handle instead of a {@link Sprite} object.
+ * Every setter changing the corners marks the sprite in a dirty bitset, {@link #update()} then regenerates the
+ * corners of the dirty runs in bulk with {@link SpriteTransform}.
+ * <p>The sprites are drawn in handle order, a removed handle is reused by the next {@link #add(TextureRegion, float, float)}.</p>
+ */
+public class SpriteStore {
+
+	/**Flags*/
+	private static final byte ALIVE = 1;
+	private static final byte FLIP_X = 2;
+	private static final byte FLIP_Y = 4;
+
+	/**State of each sprite*/
+	private float[] x, y;
+	private float[] width, height;
+	private float[] originX, originY;
+	private float[] scaleX, scaleY;
+	private float[] rotation;
+	/**Color packed for the vertices, see {@link SpriteVertex#packColor(int)}*/
+	private int[] colorBits;
+	private byte[] flags;
+	private TextureRegion[] regions;
+
+	/**Corners of each sprite, 8 floats per sprite*/
+	private float[] vertices;
+
+	/**One bit per sprite whose corners must be regenerated*/
+	private long[] dirty;
+	/**True if at least one bit of the bitset is set*/
+	private boolean anyDirty;
+
+	/**Removed handles to reuse*/
+	private int[] freeHandles;
+	private int freeCount;
+	/**Number of handles ever used, the arrays are valid up to it*/
+	private int end;
+	/**Number of live sprites*/
+	private int size;
+
+	public SpriteStore() {
+		this(1024);
+	}
+
+	/**
+	 * Constructs a sprite store.
+	 * @param capacity the initial number of sprites, the store grows if needed
+	 */
+	public SpriteStore(int capacity) {
+		capacity = Math.max(capacity, 64);
+
+		x = new float[capacity];
+		y = new float[capacity];
+		width = new float[capacity];
+		height = new float[capacity];
+		originX = new float[capacity];
+		originY = new float[capacity];
+		scaleX = new float[capacity];
+		scaleY = new float[capacity];
+		rotation = new float[capacity];
+		colorBits = new int[capacity];
+		flags = new byte[capacity];
+		regions = new TextureRegion[capacity];
+		vertices = new float[8 * capacity];
+		dirty = new long[(capacity + 63) >>> 6];
+		freeHandles = new int[64];
+	}
+
+	/**See {@link #add(TextureRegion, float, float)}, the size is the size of the region in pixels*/
+	public int add(TextureRegion texRegion) {
+		return add(texRegion, texRegion.getWidth(), texRegion.getHeight());
+	}
+
+	/**
+	 * Adds a white sprite at 0, 0 with its origin at its top left corner.
+	 * @param texRegion the region of the sprite
+	 * @return the handle of the sprite
+	 */
+	public int add(TextureRegion texRegion, float width, float height) {
+		if(texRegion == null)
+			throw new IllegalArgumentException("The region cannot be null.");
+
+		final int h;
+
+		if(freeCount > 0) {
+			h = freeHandles[--freeCount];
+		}
+		else {
+			if(end == x.length)
+				grow(x.length * 2);
+			h = end++;
+		}
+
+		x[h] = y[h] = 0;
+		this.width[h] = width;
+		this.height[h] = height;
+		originX[h] = originY[h] = 0;
+		scaleX[h] = scaleY[h] = 1;
+		rotation[h] = 0;
+		colorBits[h] = SpriteVertex.packColor(Color.toIntBits(1f, 1f, 1f, 1f));
+		flags[h] = ALIVE;
+		regions[h] = texRegion;
+
+		markDirty(h);
+		size++;
+
+		return h;
+	}
+
+	/**Removes a sprite, its handle becomes invalid*/
+	public void remove(int h) {
+		check(h);
+
+		flags[h] = 0;
+		regions[h] = null;
+		dirty[h >>> 6] &= ~(1L << h);
+
+		if(freeCount == freeHandles.length)
+			freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+		freeHandles[freeCount++] = h;
+		size--;
+	}
+
+	/**Removes every sprite*/
+	public void clear() {
+		Arrays.fill(flags, 0, end, (byte) 0);
+		Arrays.fill(regions, 0, end, null);
+		Arrays.fill(dirty, 0);
+		anyDirty = false;
+		freeCount = 0;
+		end = 0;
+		size = 0;
+	}
+
+	private void grow(int capacity) {
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		width = Arrays.copyOf(width, capacity);
+		height = Arrays.copyOf(height, capacity);
+		originX = Arrays.copyOf(originX, capacity);
+		originY = Arrays.copyOf(originY, capacity);
+		scaleX = Arrays.copyOf(scaleX, capacity);
+		scaleY = Arrays.copyOf(scaleY, capacity);
+		rotation = Arrays.copyOf(rotation, capacity);
+		colorBits = Arrays.copyOf(colorBits, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		regions = Arrays.copyOf(regions, capacity);
+		vertices = Arrays.copyOf(vertices, 8 * capacity);
+		dirty = Arrays.copyOf(dirty, (capacity + 63) >>> 6);
+	}
+
+	private void check(int h) {
+		if(h < 0 || h >= end || (flags[h] & ALIVE) == 0)
+			throw new IllegalArgumentException("Invalid sprite handle: " + h);
+	}
+
+	private void markDirty(int h) {
+		dirty[h >>> 6] |= 1L << h;
+		anyDirty = true;
+	}
+
+	public void setPosition(int h, float x, float y) {
+		check(h);
+		this.x[h] = x;
+		this.y[h] = y;
+		markDirty(h);
+	}
+
+	public void setSize(int h, float width, float height) {
+		check(h);
+		this.width[h] = width;
+		this.height[h] = height;
+		markDirty(h);
+	}
+
+	public void setOrigin(int h, float originX, float originY) {
+		check(h);
+		this.originX[h] = originX;
+		this.originY[h] = originY;
+		markDirty(h);
+	}
+
+	public void setOriginCenter(int h) {
+		check(h);
+		setOrigin(h, width[h] / 2, height[h] / 2);
+	}
+
+	public void setScale(int h, float scaleX, float scaleY) {
+		check(h);
+		this.scaleX[h] = scaleX;
+		this.scaleY[h] = scaleY;
+		markDirty(h);
+	}
+
+	/**Sets the rotation in degrees around the origin*/
+	public void setRotation(int h, float rotation) {
+		check(h);
+		this.rotation[h] = rotation;
+		markDirty(h);
+	}
+
+	/**Sets the region, the corners don't change*/
+	public void setTexRegion(int h, TextureRegion texRegion) {
+		check(h);
+		if(texRegion == null)
+			throw new IllegalArgumentException("The region cannot be null.");
+		regions[h] = texRegion;
+	}
+
+	/**Sets the flips, the corners don't change*/
+	public void setFlip(int h, boolean flipX, boolean flipY) {
+		check(h);
+		flags[h] = (byte) (ALIVE | (flipX ? FLIP_X : 0) | (flipY ? FLIP_Y : 0));
+	}
+
+	/**Sets the color, the corners don't change*/
+	public void setColor(int h, float r, float g, float b, float a) {
+		check(h);
+		colorBits[h] = SpriteVertex.packColor(Color.toIntBits(r, g, b, a));
+	}
+
+	public void setColor(int h, Color color) {
+		setColor(h, color.r, color.g, color.b, color.a);
+	}
+
+	public float getX(int h) {
+		check(h);
+		return x[h];
+	}
+
+	public float getY(int h) {
+		check(h);
+		return y[h];
+	}
+
+	public float getRotation(int h) {
+		check(h);
+		return rotation[h];
+	}
+
+	public TextureRegion getTexRegion(int h) {
+		check(h);
+		return regions[h];
+	}
+
+	/**Regenerates the corners of the dirty sprites, one bulk transform per run of consecutive dirty sprites*/
+	public void update() {
+		if(!anyDirty)
+			return;
+
+		final int words = (end + 63) >>> 6;
+
+		for(int w = 0; w < words; w++) {
+			long bits = dirty[w];
+
+			while(bits != 0) {
+				//Run of consecutive set bits
+				final int start = Long.numberOfTrailingZeros(bits);
+				final int length = Long.numberOfTrailingZeros(~(bits >>> start));
+				final int first = (w << 6) + start;
+
+				SpriteTransform.transform(x, y, originX, originY, scaleX, scaleY, rotation, width, height,
+				                          first, length, vertices, 8 * first);
+
+				bits = length == 64 ? 0 : bits & ~(((1L << length) - 1) << start);
+			}
+
+			dirty[w] = 0;
+		}
+
+		anyDirty = false;
+	}
+
+	/**
+	 * Returns the corners of a sprite as of the last {@link #update()}.
+	 * @param out receives the 8 floats of the corners
+	 */
+	public void getVertices(int h, float[] out) {
+		check(h);
+		System.arraycopy(vertices, 8 * h, out, 0, 8);
+	}
+
+	/**
+	 * Updates the dirty sprites and draws every sprite in handle order, the color of the batch is left untouched.
+	 * @param batch the batch to draw with, begin must have been called
+	 */
+	public void draw(AbstractSpriteBatch batch) {
+		update();
+
+		final int lastColorBits = batch.colorBits;
+
+		for(int h = 0; h < end; h++) {
+			final byte flag = flags[h];
+
+			if((flag & ALIVE) == 0)
+				continue;
+
+			final TextureRegion region = regions[h];
+			final float[] uv = region.getRegion();
+			final int v = 8 * h;
+
+			float u1 = uv[0], u2 = uv[2], u3 = uv[4], u4 = uv[6];
+			float v1 = uv[1], v2 = uv[3], v3 = uv[5], v4 = uv[7];
+
+			if((flag & FLIP_X) != 0) {
+				float t = u1; u1 = u2; u2 = t;
+				t = u3; u3 = u4; u4 = t;
+			}
+
+			if((flag & FLIP_Y) != 0) {
+				float t = v1; v1 = v4; v4 = t;
+				t = v2; v2 = v3; v3 = t;
+			}
+
+			batch.colorBits = colorBits[h];
+			batch.quad(region.getTexture().getId(),
+			           vertices[v], vertices[v + 1], vertices[v + 2], vertices[v + 3],
+			           vertices[v + 4], vertices[v + 5], vertices[v + 6], vertices[v + 7],
+			           u1, v1, u2, v2, u3, v3, u4, v4);
+		}
+
+		batch.colorBits = lastColorBits;
+	}
+
+	/**Returns the number of sprites*/
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,112 @@
+package com.calderagames.mpfw.graphics;
+
+/**
+ * Computes the corners of many sprites at once from parallel arrays, the same way as {@link Sprite#getVertices()}.
+ * <p>On Java 17+ with the jdk.incubator.vector module resolved (--add-modules jdk.incubator.vector) the
+ * multi-release jar computes several sprites per instruction, otherwise a scalar loop is used.
+ * The scalar loop gives the same floats as {@link Sprite#getVertices()}. The vector one computes the rotation
+ * in single precision, each coordinate of its corners is within {@link #maxError} of the scalar one.</p>
+ */
+public final class SpriteTransform {
+
+	private SpriteTransform() {}
+
+	/**Relative error of the vector computation, see {@link #maxError}*/
+	public static final float TOLERANCE = 1e-6f;
+
+	/**
+	 * Computes the corners of sprites, in order top left, top right, bottom right and bottom left,
+	 * the rotation is in degrees around the origin and the origin is relative to x and y.
+	 * Every array is read from offset to offset + count.
+	 * @param out receives 8 floats (x then y of each corner) per sprite
+	 * @param outOffset index in out of the first corner of the first sprite
+	 */
+	public static void transform(float[] x, float[] y, float[] originX, float[] originY, float[] scaleX, float[] scaleY,
+	                             float[] rotation, float[] width, float[] height, int offset, int count, float[] out, int outOffset) {
+		if(offset < 0 || count < 0 || outOffset < 0 || outOffset + 8 * count > out.length)
+			throw new IllegalArgumentException("The range [" + offset + ", " + (offset + count) + "[ is out of the arrays.");
+
+		final int end = offset + count;
+		if(end > x.length || end > y.length || end > originX.length || end > originY.length || end > scaleX.length ||
+		   end > scaleY.length || end > rotation.length || end > width.length || end > height.length)
+			throw new IllegalArgumentException("The range [" + offset + ", " + end + "[ is out of the arrays.");
+
+		SpriteTransformKernel.transform(x, y, originX, originY, scaleX, scaleY, rotation, width, height, offset, count, out, outOffset);
+	}
+
+	/**
+	 * Returns the bound of the difference between a coordinate computed by the vector kernel and by
+	 * {@link Sprite#getVertices()}: TOLERANCE * max(1, m) * (1 + |rotation in radians|), m being
+	 * |x| + |y| + |originX| + |originY| + (|originX| + |width|) * |scaleX| + (|originY| + |height|) * |scaleY|.
+	 * The single precision angle is off by up to 2^-23 times itself, the error therefore grows with the rotation.
+	 */
+	public static float maxError(float x, float y, float originX, float originY, float scaleX, float scaleY,
+	                             float rotation, float width, float height) {
+		final float magnitude = Math.abs(x) + Math.abs(y) + Math.abs(originX) + Math.abs(originY) +
+		                        (Math.abs(originX) + Math.abs(width)) * Math.abs(scaleX) +
+		                        (Math.abs(originY) + Math.abs(height)) * Math.abs(scaleY);
+
+		return TOLERANCE * Math.max(1, magnitude) * (1 + (float) Math.abs(Math.toRadians(rotation)));
+	}
+
+	/**Returns if the vector kernel is in use*/
+	public static boolean isVectorized() {
+		return SpriteTransformKernel.isVectorized();
+	}
+
+	/**Scalar loop, same operations as {@link Sprite#getVertices()}*/
+	static void scalar(float[] x, float[] y, float[] originX, float[] originY, float[] scaleX, float[] scaleY,
+	                   float[] rotation, float[] width, float[] height, int offset, int count, float[] out, int outOffset) {
+		for(int i = offset, o = outOffset; i < offset + count; i++, o += 8) {
+			float localX = -originX[i];
+			float localY = -originY[i];
+			float localX2 = localX + width[i];
+			float localY2 = localY + height[i];
+			final float worldOriginX = x[i] - localX;
+			final float worldOriginY = y[i] - localY;
+
+			if(scaleX[i] != 1 || scaleY[i] != 1) {
+				localX *= scaleX[i];
+				localY *= scaleY[i];
+				localX2 *= scaleX[i];
+				localY2 *= scaleY[i];
+			}
+
+			if(rotation[i] != 0) {
+				final float cos = (float) Math.cos(Math.toRadians(rotation[i]));
+				final float sin = (float) Math.sin(Math.toRadians(rotation[i]));
+
+				final float x1 = localX * cos - localY * sin + worldOriginX;
+				final float y1 = localY * cos + localX * sin + worldOriginY;
+				final float x2 = localX * cos - localY2 * sin + worldOriginX;
+				final float y2 = localY2 * cos + localX * sin + worldOriginY;
+				final float x3 = localX2 * cos - localY2 * sin + worldOriginX;
+				final float y3 = localY2 * cos + localX2 * sin + worldOriginY;
+
+				out[o] = x1;
+				out[o + 1] = y1;
+				out[o + 2] = x1 + (x3 - x2);
+				out[o + 3] = y3 - (y2 - y1);
+				out[o + 4] = x3;
+				out[o + 5] = y3;
+				out[o + 6] = x2;
+				out[o + 7] = y2;
+			}
+			else {
+				final float x1 = localX + worldOriginX;
+				final float y1 = localY + worldOriginY;
+				final float x2 = localX2 + worldOriginX;
+				final float y2 = localY2 + worldOriginY;
+
+				out[o] = x1;
+				out[o + 1] = y1;
+				out[o + 2] = x2;
+				out[o + 3] = y1;
+				out[o + 4] = x2;
+				out[o + 5] = y2;
+				out[o + 6] = x1;
+				out[o + 7] = y2;
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.calderagames.mpfw.graphics;
+
+/**
+ * Kernel of {@link SpriteTransform}, Java 8 version. The multi-release jar replaces it on Java 17+
+ * by a version using the vector API when available (src/main/java17).
+ */
+final class SpriteTransformKernel {
+
+	private SpriteTransformKernel() {}
+
+	static boolean isVectorized() {
+		return false;
+	}
+
+	static void transform(float[] x, float[] y, float[] originX, float[] originY, float[] scaleX, float[] scaleY,
+	                      float[] rotation, float[] width, float[] height, int offset, int count, float[] out, int outOffset) {
+		SpriteTransform.scalar(x, y, originX, originY, scaleX, scaleY, rotation, width, height, offset, count, out, outOffset);
+	}
+}
@@ -0,0 +1,126 @@
+package com.calderagames.mpfw.graphics;
+
+import java.nio.ByteOrder;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Describes the compact vertex layout shared by the sprite renderers (16 bytes per vertex):
+ * <ul>
+ * <li>position: 2 floats</li>
+ * <li>texture coordinates: 2 normalized unsigned shorts</li>
+ * <li>color: 4 normalized unsigned bytes (see {@link Color#toIntBits()})</li>
+ * </ul>
+ * The extended layout, used by the multi-texture and depth sorted batches, adds 4 bytes (20 bytes per vertex):
+ * <ul>
+ * <li>texture slot: 1 unsigned short (integer attribute)</li>
+ * <li>depth: 1 normalized unsigned short, 0 unless the batch sorts by depth (see {@link SpriteBatch#setDepthSorted(boolean)})</li>
+ * </ul>
+ * A vertex is stored as 4 (or 5) ints, the position as raw float bits.
+ * <p><b>Note:</b> texture coordinates are clamped between 0 and 1.</p>
+ */
+final class SpriteVertex {
+
+	/**Size in bytes of a vertex of the compact layout*/
+	static final int SIZE = 16;
+	/**Size in bytes of a vertex of the extended layout*/
+	static final int EXTENDED_SIZE = 20;
+	/**Number of ints per vertex of the compact layout*/
+	static final int INTS = SIZE / 4;
+	/**Number of ints per sprite (4 vertices) of the compact layout*/
+	static final int SPRITE_INTS = 4 * INTS;
+
+	/**Offset in bytes of the attributes*/
+	static final int POSITION_OFFSET = 0, TEXCOORD_OFFSET = 8, COLOR_OFFSET = 12, TEXSLOT_OFFSET = 16, DEPTH_OFFSET = 18;
+
+	/**Boolean flag that states if the platform is big endian, the packed ints are then reordered*/
+	private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+	private SpriteVertex() {}
+
+	/**Enable and set the vertex attributes pointers of the compact layout, the VAO and VBO must be bound*/
+	static void setAttributes() {
+		setAttributes(false);
+	}
+
+	/**
+	 * Enable and set the vertex attributes pointers, the VAO and VBO must be bound.
+	 * With the compact layout the texture slot and depth attributes are disabled, the shaders read 0.
+	 * @param extended true for the extended layout, false for the compact one
+	 */
+	static void setAttributes(boolean extended) {
+		final int stride = extended ? EXTENDED_SIZE : SIZE;
+
+		//Position
+		GL20.glEnableVertexAttribArray(0);
+		GL20.glVertexAttribPointer(0, 2, GL11.GL_FLOAT, false, stride, POSITION_OFFSET);
+		//Texture coordinates
+		GL20.glEnableVertexAttribArray(1);
+		GL20.glVertexAttribPointer(1, 2, GL11.GL_UNSIGNED_SHORT, true, stride, TEXCOORD_OFFSET);
+		//Color
+		GL20.glEnableVertexAttribArray(2);
+		GL20.glVertexAttribPointer(2, 4, GL11.GL_UNSIGNED_BYTE, true, stride, COLOR_OFFSET);
+
+		if(extended) {
+			//Texture slot
+			GL20.glEnableVertexAttribArray(3);
+			GL30.glVertexAttribIPointer(3, 1, GL11.GL_UNSIGNED_SHORT, stride, TEXSLOT_OFFSET);
+			//Depth
+			GL20.glEnableVertexAttribArray(4);
+			GL20.glVertexAttribPointer(4, 1, GL11.GL_UNSIGNED_SHORT, true, stride, DEPTH_OFFSET);
+		}
+		else {
+			GL20.glDisableVertexAttribArray(3);
+			GL20.glDisableVertexAttribArray(4);
+		}
+	}
+
+	/**
+	 * Packs the texture coordinates in an int, ready to be written in native order.
+	 * @param u the u coordinate between 0 and 1
+	 * @param v the v coordinate between 0 and 1
+	 * @return the packed texture coordinates
+	 */
+	static int packUV(float u, float v) {
+		final int uBits = toUShort(u);
+		final int vBits = toUShort(v);
+		return BIG_ENDIAN ? (uBits << 16) | vBits : (vBits << 16) | uBits;
+	}
+
+	/**
+	 * Converts a color packed by {@link Color#toIntBits()} so it is written in native order.
+	 * @param abgr the packed color
+	 * @return the packed color in native order
+	 */
+	static int packColor(int abgr) {
+		return BIG_ENDIAN ? Integer.reverseBytes(abgr) : abgr;
+	}
+
+	/**
+	 * Packs the texture slot in an int, ready to be written in native order.
+	 * @param slot the texture slot (texture unit index)
+	 * @return the packed texture slot
+	 */
+	static int packSlot(int slot) {
+		return BIG_ENDIAN ? slot << 16 : slot;
+	}
+
+	/**
+	 * Packs the depth so it can be or'ed with the packed texture slot, see {@link #packSlot(int)}.
+	 * @param depth the depth between 0 (back) and 0xFFFF (front)
+	 * @return the packed depth
+	 */
+	static int packDepth(int depth) {
+		return BIG_ENDIAN ? depth : depth << 16;
+	}
+
+	private static int toUShort(float f) {
+		if(f <= 0f)
+			return 0;
+		if(f >= 1f)
+			return 0xFFFF;
+		return (int) (f * 0xFFFF + 0.5f);
+	}
+}
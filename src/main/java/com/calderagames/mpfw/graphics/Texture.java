@@ -1,6 +1,7 @@
 package com.calderagames.mpfw.graphics;
 
 import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -8,7 +9,7 @@ import java.nio.ByteBuffer;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL21;
 import org.lwjgl.opengl.GL30;
 
 import com.calderagames.mpfw.Disposable;
@@ -32,11 +33,14 @@ public class Texture implements Disposable{
 	/**Boolean flag that states if the texture is loaded*/
 	private boolean loaded;
 	
+	/**Signature of the PNG files*/
+	private static final long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+	
 	/**
 	 * Constructs a texture with the provided texture filter (See: {@link MPFW#MPFW_NEAREST})
-	 * and texture unit (See: {@link MPFW#MPFW_TEXTURE0}). The constructor checks the file path, decode
-	 * the file and stores the width and height of the texture but doesn't load the texture into memory,
-	 * use {@link #load()} for that.
+	 * and texture unit (See: {@link MPFW#MPFW_TEXTURE0}). The constructor checks the file path, reads
+	 * the width and height of the texture from the PNG header but doesn't load the texture into memory,
+	 * use {@link #load()} or a {@link TextureLoader} for that.
 	 * @param filePath path to the texture
 	 * @param filter texture filter, see {@link MPFW#MPFW_NEAREST}
 	 */
@@ -44,16 +48,14 @@ public class Texture implements Disposable{
 		this.filePath = filePath;
 		this.filter = filter;
 
-		try {
-			//Open file input stream
-			InputStream in = new FileInputStream(filePath);
-			//Decode the file
-			PNGDecoder decoder = new PNGDecoder(in);
-			//Get width and height
-			width = decoder.getWidth();
-			height = decoder.getHeight();
-			//Close the steam
-			in.close();
+		try(DataInputStream in = new DataInputStream(new FileInputStream(filePath))) {
+			if(in.readLong() != PNG_SIGNATURE)
+				throw new IOException("Not a PNG file: " + filePath);
+			
+			//The IHDR chunk comes first: length and type, then width and height
+			in.readLong();
+			width = in.readInt();
+			height = in.readInt();
 		} catch(IOException e) {
 			e.printStackTrace();
 		}			
@@ -91,10 +93,55 @@ public class Texture implements Disposable{
 		loaded = true;
 	}
 	
+	/**
+	 * Constructs a texture from decoded RGBA pixels with the provided texture filter (See: {@link MPFW#MPFW_NEAREST}),
+	 * generate an openGL texture 2D and load it into memory. The pixels can be decoded on another thread,
+	 * the constructor must be called on the openGL thread.
+	 * @param pixels direct byte buffer of width * height RGBA pixels, from its position to its limit
+	 * @param width the width of the texture
+	 * @param height the height of the texture
+	 * @param filter texture filter, see {@link MPFW#MPFW_NEAREST}
+	 */
+	public Texture(ByteBuffer pixels, int width, int height, int filter) {
+		if(pixels.remaining() < 4 * width * height)
+			throw new IllegalArgumentException("The buffer must hold " + (4 * width * height) + " bytes.");
+		
+		this.width = width;
+		this.height = height;
+		this.filter = filter;
+		
+		//genTexture flips the buffer, the caller's one is left untouched
+		ByteBuffer buffer = pixels.slice();
+		buffer.position(4 * width * height);
+		
+		genTexture(buffer);
+		
+		loaded = true;
+	}
+	
+	/**
+	 * Constructs a texture from the RGBA pixels in the pixel unpack buffer bound, from offset 0, see {@link TextureLoader}.
+	 * No mipmap is generated, the transfer from the buffer then doesn't have to be waited for.
+	 * @param filePath path to the texture
+	 * @param width the width of the texture
+	 * @param height the height of the texture
+	 * @param filter texture filter, see {@link MPFW#MPFW_NEAREST}
+	 */
+	Texture(String filePath, int width, int height, int filter) {
+		this.filePath = filePath;
+		this.width = width;
+		this.height = height;
+		this.filter = filter;
+		
+		genTexture(null);
+		
+		loaded = true;
+	}
+	
 	/**
 	 * Constructs a texture from an existing openGL texture 2D. 
 	 * The width, height and filter are retrieved from the openGL context.
-	 * Be aware this method perform a glBindTexture call.
+	 * Be aware this method binds the texture on the active unit, see {@link GLState}.
 	 * @param textureId generated openGL id
 	 * @param width the width of the texture
 	 * @param height the height of the texture
@@ -104,14 +151,36 @@ public class Texture implements Disposable{
 		filePath = "null";
 		id = textureId;
 	
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, id);
+		GLState.bindTexture(id);
 		this.width = GL11.glGetTexLevelParameteri(GL11.GL_TEXTURE_2D, 0, GL11.GL_TEXTURE_WIDTH);
 		this.height = GL11.glGetTexLevelParameteri(GL11.GL_TEXTURE_2D, 0, GL11.GL_TEXTURE_HEIGHT);
 		this.filter = GL11.glGetTexLevelParameteri(GL11.GL_TEXTURE_2D, 0, GL11.GL_TEXTURE_MAG_FILTER);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
 		loaded = true;
 	}
 	
+	/**
+	 * Decodes a PNG into a direct RGBA buffer, used by the loaders decoding on other threads.
+	 * @param in the stream of the PNG file
+	 * @param size receives the width and height
+	 * @return the pixels, flipped
+	 * @throws IOException if the stream can't be read or isn't a supported PNG
+	 */
+	static ByteBuffer decodePNG(InputStream in, int[] size) throws IOException {
+		PNGDecoder decoder = new PNGDecoder(in);
+		size[0] = decoder.getWidth();
+		size[1] = decoder.getHeight();
+
+		ByteBuffer pixels = ByteBuffer.allocateDirect(4 * size[0] * size[1]);
+		try {
+			decoder.decode(pixels, size[0] * 4, Format.RGBA);
+		} catch(UnsupportedOperationException e) {
+			throw new IOException(e);
+		}
+		pixels.flip();
+
+		return pixels;
+	}
+	
 	/**Create openGL texture 2D and load it into memory*/
 	public void load() {
 		if(loaded)
@@ -146,23 +215,31 @@ public class Texture implements Disposable{
 	}
 	
 	/**Generate an openGL texture id with a byte buffer and load it into memory
-	 * @param buffer byte buffer containing the texture
+	 * @param buffer byte buffer containing the texture, null to read from the pixel unpack buffer bound
 	 */
 	private void genTexture(ByteBuffer buffer) {
 		//Flip the buffer
-		buffer.flip();
+		if(buffer != null)
+			buffer.flip();
 
 		//Generate the id
 		id = GL11.glGenTextures();
-		//Set active texture
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		//Bind the texture
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, id);
+		//Bind the texture on the unit 0
+		GLState.bindTexture(0, id);
 		
 		//Texture 2D RGBA
 		GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
-		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, width, height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
-		GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+		if(buffer != null) {
+			//A bound pixel unpack buffer would take the pointer for an offset
+			GLState.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, width, height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+		}
+		else
+			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, width, height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, 0L);
+		
+		//The mipmaps would wait for the asynchronous transfer of the unpack buffer, the filters don't sample them
+		if(buffer != null)
+			GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
 
 		//Set wrap parameter
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
@@ -172,18 +249,15 @@ public class Texture implements Disposable{
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, filter);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, filter);
 
-		//Unbind texture
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-
 		//Clear the buffer since we don't need it anymore
-		buffer.clear();
+		if(buffer != null)
+			buffer.clear();
 	}
 	
 	/**
 	 * Set the texture filter, if the same fitler is already set
 	 * the method does nothing.
-	 * Be aware this method perform a glBindTexture call.
+	 * Be aware this method binds the texture on the active unit unless it is already bound, see {@link GLState}.
 	 * @param filter {@link MPFW#MPFW_NEAREST} or {@link MPFW#MPFW_LINEAR}
 	 */
 	public void setFilter(int filter) {
@@ -192,10 +266,9 @@ public class Texture implements Disposable{
 		
 		this.filter = filter;
 		
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, id);
+		GLState.bindTexture(id);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, filter);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, filter);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
 	}
 	
 	/**Get the texture id generated by openGL*/
@@ -219,8 +292,7 @@ public class Texture implements Disposable{
 
 	/**Delete the texture and free the resources*/
 	public void dispose() {
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-		GL11.glDeleteTextures(id);
+		GLState.deleteTexture(id);
 		id = 0;
 		loaded = false;
 	}
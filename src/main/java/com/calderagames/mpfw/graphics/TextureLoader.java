@@ -0,0 +1,233 @@
+package com.calderagames.mpfw.graphics;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.MPFW;
+
+/**
+ * Loads PNG textures in the background: the files are read and decoded into direct buffers by worker threads,
+ * then the openGL thread uploads them through a pixel buffer object within a time budget per frame
+ * (see {@link #update()}), so a level transition no longer freezes while the files decode one after another.
+ * The loaded textures have no mipmap.
+ * <p>On Java 21 and later the files can be read on virtual threads (see {@link #TextureLoader(int, boolean)}),
+ * the workers then only decode.</p>
+ * <p>Each load returns a future completed on the openGL thread, by {@link #update()}, with the texture or
+ * with the error. The callbacks added with thenAccept, whenComplete... therefore run on the openGL thread.</p>
+ * <p><b>Note:</b> every method but {@link #load(String, int)} must be called on the openGL thread.</p>
+ */
+public class TextureLoader implements Disposable {
+
+	/**A file decoded by a worker, waiting for the upload*/
+	private static class Decoded {
+		String filePath;
+		int filter;
+		CompletableFuture<Texture> future;
+		ByteBuffer pixels;
+		int width, height;
+		/**Error of the read or decode, null if none*/
+		Throwable error;
+	}
+
+	/**Threads decoding the files*/
+	private ExecutorService workers;
+	/**Virtual threads reading the files, null if the workers read them*/
+	private ExecutorService readers;
+
+	/**Files decoded, polled by the openGL thread*/
+	private ConcurrentLinkedQueue<Decoded> ready;
+
+	/**Pixel buffer object the pixels are copied into, orphaned before every upload*/
+	private int pbo;
+
+	/**Upload time budget per frame in nanoseconds*/
+	private long uploadBudget = 2000000;
+
+	/**Loads not completed yet*/
+	private Set<Decoded> pending;
+
+	/**
+	 * Constructs a texture loader whose workers read and decode the files.
+	 * @param workerThreads the number of background threads
+	 */
+	public TextureLoader(int workerThreads) {
+		this(workerThreads, false);
+	}
+
+	/**
+	 * Constructs a texture loader.
+	 * @param workerThreads the number of background threads decoding the files
+	 * @param virtualThreads true to read the files on virtual threads, ignored before Java 21
+	 */
+	public TextureLoader(int workerThreads, boolean virtualThreads) {
+		workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), r -> {
+			Thread thread = new Thread(r, "texture loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if(virtualThreads)
+			readers = newVirtualThreadExecutor();
+
+		ready = new ConcurrentLinkedQueue<>();
+		pending = ConcurrentHashMap.newKeySet();
+		pbo = GL15.glGenBuffers();
+	}
+
+	/**Returns an executor starting a virtual thread per task, null before Java 21*/
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			//Looked up by reflection, the framework is compiled for Java 8
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Loads a PNG texture in the background, can be called from any thread.
+	 * @param filePath path to the texture
+	 * @param filter texture filter, see {@link MPFW#MPFW_NEAREST}
+	 * @return the future of the texture, completed on the openGL thread once uploaded
+	 */
+	public CompletableFuture<Texture> load(String filePath, int filter) {
+		final Decoded decoded = new Decoded();
+		decoded.filePath = filePath;
+		decoded.filter = filter;
+		decoded.future = new CompletableFuture<>();
+		pending.add(decoded);
+
+		final CompletableFuture<Void> task;
+
+		if(readers != null)
+			task = CompletableFuture.supplyAsync(() -> read(filePath), readers).thenAcceptAsync(data -> decode(decoded, data), workers);
+		else
+			task = CompletableFuture.runAsync(() -> decode(decoded, read(filePath)), workers);
+
+		//Success or failure, the future is completed by the openGL thread
+		task.whenComplete((v, error) -> {
+			decoded.error = error instanceof CompletionException ? error.getCause() : error;
+			ready.add(decoded);
+		});
+
+		return decoded.future;
+	}
+
+	/**Reads a whole file, runs on a reader or a worker*/
+	private static byte[] read(String filePath) {
+		try {
+			return Files.readAllBytes(Paths.get(filePath));
+		} catch(IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**Decodes a PNG file into a direct buffer, runs on a worker*/
+	private static void decode(Decoded decoded, byte[] data) {
+		try {
+			final int[] size = new int[2];
+			decoded.pixels = Texture.decodePNG(new ByteArrayInputStream(data), size);
+			decoded.width = size[0];
+			decoded.height = size[1];
+		} catch(IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Uploads the decoded textures until the time budget is spent and completes their futures. To be called once per frame.
+	 * <p><b>Note:</b> the budget is a soft limit, it is checked between uploads and a texture is always uploaded whole,
+	 * a frame can therefore exceed it by the time of one upload (copy of the pixels into the PBO).</p>
+	 * @return the number of futures completed
+	 */
+	public int update() {
+		final long start = System.nanoTime();
+		int completed = 0;
+		Decoded decoded;
+
+		while(System.nanoTime() - start < uploadBudget && (decoded = ready.poll()) != null) {
+			completed++;
+			pending.remove(decoded);
+
+			if(decoded.error != null) {
+				decoded.future.completeExceptionally(decoded.error);
+				continue;
+			}
+
+			//Cancelled meanwhile, nothing to upload
+			if(decoded.future.isDone())
+				continue;
+
+			decoded.future.complete(upload(decoded));
+		}
+
+		//The textures created from client memory need the unpack buffer unbound
+		GLState.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+
+		return completed;
+	}
+
+	/**Copies the pixels into the PBO and creates the texture from it, the driver transfers them asynchronously*/
+	private Texture upload(Decoded decoded) {
+		final int bytes = decoded.pixels.remaining();
+
+		GLState.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, pbo);
+		//Orphan the storage, the previous transfer may still read it
+		GL15.glBufferData(GL21.GL_PIXEL_UNPACK_BUFFER, bytes, GL15.GL_STREAM_DRAW);
+
+		ByteBuffer mapping = GL30.glMapBufferRange(GL21.GL_PIXEL_UNPACK_BUFFER, 0, bytes,
+		                                           GL30.GL_MAP_WRITE_BIT | GL30.GL_MAP_INVALIDATE_BUFFER_BIT, null);
+		mapping.put(decoded.pixels);
+		GL15.glUnmapBuffer(GL21.GL_PIXEL_UNPACK_BUFFER);
+
+		decoded.pixels = null;
+
+		return new Texture(decoded.filePath, decoded.width, decoded.height, decoded.filter);
+	}
+
+	/**Sets the time spent uploading textures per frame in milliseconds, default 2, see {@link #update()}*/
+	public void setUploadBudget(float ms) {
+		uploadBudget = (long) (ms * 1000000);
+	}
+
+	/**Returns the number of loads not completed yet*/
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**Returns if the files are read on virtual threads*/
+	public boolean isVirtualThreads() {
+		return readers != null;
+	}
+
+	/**Stops the threads and cancels the loads not completed yet, the textures already completed are left as is*/
+	public void dispose() {
+		workers.shutdownNow();
+		if(readers != null)
+			readers.shutdownNow();
+
+		for(Decoded decoded: pending)
+			decoded.future.completeExceptionally(new CancellationException("The texture loader was disposed."));
+
+		pending.clear();
+		ready.clear();
+
+		GLState.deleteBuffer(pbo);
+	}
+}
@@ -12,6 +12,9 @@ public class TextureRegion {
 	/**Coordinates of the region*/
 	private float[] texCoords;
 	
+	/**Size of the region in pixels*/
+	private float width, height;
+	
 	/**
 	 * Constructs a region of the specified texture
 	 * @param texture texture of the region
@@ -22,6 +25,8 @@ public class TextureRegion {
 	 */
 	public TextureRegion(Texture texture, float x, float y, float width, float height) {
 		this.texture = texture;
+		this.width = width;
+		this.height = height;
 
 		x /= texture.getWidth();
 		y /= texture.getHeight();
@@ -40,6 +45,16 @@ public class TextureRegion {
 		return texCoords;
 	}
 
+	/**Returns the width of the region in pixels (negative if flipped)*/
+	public float getWidth() {
+		return width;
+	}
+
+	/**Returns the height of the region in pixels (negative if flipped)*/
+	public float getHeight() {
+		return height;
+	}
+
 	/**Returns the texture associated with the region*/
 	public Texture getTexture() {
 		return texture;
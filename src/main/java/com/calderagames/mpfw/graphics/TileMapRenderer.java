@@ -0,0 +1,433 @@
+package com.calderagames.mpfw.graphics;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.math.Matrix4f;
+
+/**
+ * Draws a grid of tiles split in square chunks, each chunk being stored in a static VBO.
+ * A chunk is rebuilt only when one of its tiles changed, and only the chunks intersecting
+ * the view are drawn, with one draw call per chunk.
+ * <p>The vertices use the layout described by {@link SpriteVertex}. A tile is an index in the tileset, -1 being an empty tile. Every region of the tileset must
+ * be on the same texture. The tile (0, 0) is the top left one, at the origin.</p>
+ */
+public class TileMapRenderer implements Disposable {
+
+	/**Id of an empty tile*/
+	public static final int EMPTY = -1;
+
+	/**A chunk of the map*/
+	private static class Chunk {
+		int vaoId;
+		int vboId;
+		/**Number of tiles (quads) in the VBO*/
+		int quads;
+		/**Boolean flag that states if a tile changed since the last build*/
+		boolean dirty = true;
+	}
+
+	/**Size of the map in tiles*/
+	private int width, height;
+	/**Size of a tile*/
+	private float tileWidth, tileHeight;
+	/**Size of a chunk in tiles*/
+	private int chunkSize;
+	/**Number of chunks on each axis*/
+	private int chunksX, chunksY;
+
+	/**Tiles of the map, row by row*/
+	private int[] tiles;
+	/**Chunks, row by row, null until built*/
+	private Chunk[] chunks;
+
+	private TextureRegion[] tileset;
+	/**Packed texture coordinates of each corner of each tile of the tileset*/
+	private int[] tilesetUVs;
+	private int texId;
+
+	/**Shared static elements VBO*/
+	private QuadIndexBuffer indexBuffer;
+	/**Scratch buffer of the chunk builds*/
+	private IntBuffer buffer;
+
+	private ShaderProgram shader;
+
+	/**Number of chunks drawn and built during the last draw*/
+	private int drawnChunks, builtChunks;
+
+	/**
+	 * Constructs a tile map renderer, every tile is empty.
+	 * @param width the width of the map in tiles
+	 * @param height the height of the map in tiles
+	 * @param tileWidth the width of a tile
+	 * @param tileHeight the height of a tile
+	 * @param tileset the region of each tile id
+	 * @param chunkSize the size of a chunk in tiles, at most 128
+	 */
+	public TileMapRenderer(int width, int height, float tileWidth, float tileHeight, TextureRegion[] tileset, int chunkSize) {
+		if(width < 1 || height < 1)
+			throw new IllegalArgumentException("The size of the map must be at least 1x1.");
+		if(chunkSize < 1 || chunkSize > 128)
+			throw new IllegalArgumentException("The chunk size must be between 1 and 128.");
+		if(tileset.length == 0)
+			throw new IllegalArgumentException("The tileset cannot be empty.");
+
+		this.width = width;
+		this.height = height;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.chunkSize = chunkSize;
+
+		chunksX = (width + chunkSize - 1) / chunkSize;
+		chunksY = (height + chunkSize - 1) / chunkSize;
+
+		tiles = new int[width * height];
+		Arrays.fill(tiles, EMPTY);
+		chunks = new Chunk[chunksX * chunksY];
+
+		setTileset(tileset);
+
+		indexBuffer = QuadIndexBuffer.obtain(chunkSize * chunkSize);
+		buffer = BufferUtils.createIntBuffer(chunkSize * chunkSize * SpriteVertex.SPRITE_INTS);
+
+		shader = new ShaderProgram();
+	}
+
+	/**
+	 * Constructs a tile map renderer with chunks of 32x32 tiles.
+	 * See {@link #TileMapRenderer(int, int, float, float, TextureRegion[], int)}.
+	 */
+	public TileMapRenderer(int width, int height, float tileWidth, float tileHeight, TextureRegion[] tileset) {
+		this(width, height, tileWidth, tileHeight, tileset, 32);
+	}
+
+	/**
+	 * Sets the tileset, every chunk is rebuilt.
+	 * @param tileset the region of each tile id, on the same texture
+	 */
+	public void setTileset(TextureRegion[] tileset) {
+		texId = tileset[0].getTexture().getId();
+		tilesetUVs = new int[tileset.length * 4];
+
+		for(int i = 0; i < tileset.length; i++) {
+			if(tileset[i].getTexture().getId() != texId)
+				throw new IllegalArgumentException("Every region of the tileset must be on the same texture.");
+
+			final float[] uv = tileset[i].getRegion();
+			for(int c = 0; c < 4; c++)
+				tilesetUVs[i * 4 + c] = SpriteVertex.packUV(uv[c * 2], uv[c * 2 + 1]);
+		}
+
+		this.tileset = tileset;
+
+		for(Chunk chunk: chunks) {
+			if(chunk != null)
+				chunk.dirty = true;
+		}
+	}
+
+	/**
+	 * Sets a tile, its chunk is rebuilt the next time it is drawn.
+	 * @param x the x-coordinate of the tile
+	 * @param y the y-coordinate of the tile
+	 * @param id the index of the tile in the tileset, {@link #EMPTY} for none
+	 */
+	public void setTile(int x, int y, int id) {
+		checkTile(x, y);
+		if(id < EMPTY || id >= tileset.length)
+			throw new IllegalArgumentException("Invalid tile id: " + id);
+
+		final int index = y * width + x;
+
+		if(tiles[index] == id)
+			return;
+
+		tiles[index] = id;
+		markDirty(x / chunkSize, y / chunkSize);
+	}
+
+	/**
+	 * Sets every tile of the map.
+	 * @param tiles the tiles, row by row
+	 */
+	public void setTiles(int[] tiles) {
+		if(tiles.length != this.tiles.length)
+			throw new IllegalArgumentException("The number of tiles must be " + this.tiles.length + ".");
+
+		System.arraycopy(tiles, 0, this.tiles, 0, tiles.length);
+
+		for(Chunk chunk: chunks) {
+			if(chunk != null)
+				chunk.dirty = true;
+		}
+	}
+
+	/**
+	 * Sets the tiles of a chunk, the tiles out of the map are ignored.
+	 * @param chunkX the x-coordinate of the chunk
+	 * @param chunkY the y-coordinate of the chunk
+	 * @param chunkTiles the chunkSize * chunkSize tiles of the chunk, row by row
+	 */
+	public void setChunkTiles(int chunkX, int chunkY, int[] chunkTiles) {
+		checkChunk(chunkX, chunkY);
+		if(chunkTiles.length != chunkSize * chunkSize)
+			throw new IllegalArgumentException("The number of tiles of a chunk must be " + (chunkSize * chunkSize) + ".");
+		
+		final int startX = chunkX * chunkSize;
+		final int startY = chunkY * chunkSize;
+		final int rowLength = Math.min(width, startX + chunkSize) - startX;
+		final int endY = Math.min(height, startY + chunkSize);
+		
+		for(int y = startY; y < endY; y++)
+			System.arraycopy(chunkTiles, (y - startY) * chunkSize, tiles, y * width + startX, rowLength);
+		
+		markDirty(chunkX, chunkY);
+	}
+	
+	/**
+	 * Empties the tiles of a chunk and deletes its buffers.
+	 * @param chunkX the x-coordinate of the chunk
+	 * @param chunkY the y-coordinate of the chunk
+	 */
+	public void clearChunk(int chunkX, int chunkY) {
+		checkChunk(chunkX, chunkY);
+		
+		final int startX = chunkX * chunkSize;
+		final int endX = Math.min(width, startX + chunkSize);
+		final int endY = Math.min(height, (chunkY + 1) * chunkSize);
+		
+		for(int y = chunkY * chunkSize; y < endY; y++)
+			Arrays.fill(tiles, y * width + startX, y * width + endX, EMPTY);
+		
+		releaseChunk(chunkX, chunkY);
+	}
+
+	/**Returns the id of a tile*/
+	public int getTile(int x, int y) {
+		checkTile(x, y);
+		return tiles[y * width + x];
+	}
+
+	private void checkTile(int x, int y) {
+		if(x < 0 || y < 0 || x >= width || y >= height)
+			throw new IllegalArgumentException("The tile (" + x + ", " + y + ") is out of the map.");
+	}
+
+	private void checkChunk(int chunkX, int chunkY) {
+		if(chunkX < 0 || chunkY < 0 || chunkX >= chunksX || chunkY >= chunksY)
+			throw new IllegalArgumentException("The chunk (" + chunkX + ", " + chunkY + ") is out of the map.");
+	}
+
+	private void markDirty(int chunkX, int chunkY) {
+		final Chunk chunk = chunks[chunkY * chunksX + chunkX];
+
+		if(chunk != null)
+			chunk.dirty = true;
+	}
+
+	/**
+	 * Draws the chunks intersecting the view of the camera.
+	 * @param projection the projection matrix
+	 * @param camera the camera, its position is the top left corner of the view
+	 * @param viewWidth the width of the view
+	 * @param viewHeight the height of the view
+	 */
+	public void draw(Matrix4f projection, Camera2D camera, float viewWidth, float viewHeight) {
+		draw(projection, camera.getX(), camera.getY(), viewWidth, viewHeight);
+	}
+
+	/**
+	 * Draws the chunks intersecting the view, the dirty ones are rebuilt first.
+	 * @param projection the projection matrix
+	 * @param viewX the x-coordinate of the view
+	 * @param viewY the y-coordinate of the view
+	 * @param viewWidth the width of the view
+	 * @param viewHeight the height of the view
+	 */
+	public void draw(Matrix4f projection, float viewX, float viewY, float viewWidth, float viewHeight) {
+		final float chunkWidth = chunkSize * tileWidth;
+		final float chunkHeight = chunkSize * tileHeight;
+
+		//Range of the visible chunks
+		final int minX = Math.max(0, (int) Math.floor(viewX / chunkWidth));
+		final int minY = Math.max(0, (int) Math.floor(viewY / chunkHeight));
+		final int maxX = Math.min(chunksX - 1, (int) Math.floor((viewX + viewWidth) / chunkWidth));
+		final int maxY = Math.min(chunksY - 1, (int) Math.floor((viewY + viewHeight) / chunkHeight));
+
+		drawnChunks = 0;
+		builtChunks = 0;
+
+		if(minX > maxX || minY > maxY)
+			return;
+
+		shader.begin();
+		shader.setUniformMat4f("projection", projection);
+
+		GLState.bindTexture(0, texId);
+
+		for(int cy = minY; cy <= maxY; cy++) {
+			for(int cx = minX; cx <= maxX; cx++) {
+				Chunk chunk = chunks[cy * chunksX + cx];
+
+				if(chunk == null) {
+					chunk = new Chunk();
+					chunks[cy * chunksX + cx] = chunk;
+				}
+
+				if(chunk.dirty) {
+					build(chunk, cx, cy);
+					builtChunks++;
+				}
+
+				if(chunk.quads == 0)
+					continue;
+
+				GLState.bindVertexArray(chunk.vaoId);
+				GL11.glDrawElements(GL11.GL_TRIANGLES, 6 * chunk.quads, GL11.GL_UNSIGNED_SHORT, 0);
+				drawnChunks++;
+			}
+		}
+
+		shader.end();
+	}
+
+	/**Writes the non empty tiles of a chunk in its VBO*/
+	private void build(Chunk chunk, int chunkX, int chunkY) {
+		final int color = SpriteVertex.packColor(Color.toIntBits(1f, 1f, 1f, 1f));
+		final int startX = chunkX * chunkSize;
+		final int startY = chunkY * chunkSize;
+		final int endX = Math.min(width, startX + chunkSize);
+		final int endY = Math.min(height, startY + chunkSize);
+
+		buffer.clear();
+		int quads = 0;
+
+		for(int y = startY; y < endY; y++) {
+			for(int x = startX; x < endX; x++) {
+				final int id = tiles[y * width + x];
+
+				if(id == EMPTY)
+					continue;
+
+				final float x1 = x * tileWidth;
+				final float y1 = y * tileHeight;
+				final float x2 = x1 + tileWidth;
+				final float y2 = y1 + tileHeight;
+
+				vertex(x1, y1, tilesetUVs[id * 4], color);
+				vertex(x2, y1, tilesetUVs[id * 4 + 1], color);
+				vertex(x2, y2, tilesetUVs[id * 4 + 2], color);
+				vertex(x1, y2, tilesetUVs[id * 4 + 3], color);
+				quads++;
+			}
+		}
+
+		buffer.flip();
+
+		if(chunk.vaoId == 0 && quads > 0) {
+			chunk.vaoId = GL30.glGenVertexArrays();
+			GLState.bindVertexArray(chunk.vaoId);
+
+			chunk.vboId = GL15.glGenBuffers();
+			GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, chunk.vboId);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+			SpriteVertex.setAttributes();
+
+			//The elements binding is stored in the VAO
+			indexBuffer.bind();
+		}
+		else if(quads > 0) {
+			//Reallocate the storage, the GPU may still read the old one
+			GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, chunk.vboId);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		}
+
+		chunk.quads = quads;
+		chunk.dirty = false;
+	}
+
+	private void vertex(float x, float y, int uv, int color) {
+		buffer.put(Float.floatToRawIntBits(x)).put(Float.floatToRawIntBits(y)).put(uv).put(color);
+	}
+
+	/**
+	 * Deletes the buffers of a chunk, it is rebuilt the next time it is visible.
+	 * @param chunkX the x-coordinate of the chunk
+	 * @param chunkY the y-coordinate of the chunk
+	 */
+	public void releaseChunk(int chunkX, int chunkY) {
+		final Chunk chunk = chunks[chunkY * chunksX + chunkX];
+
+		if(chunk == null)
+			return;
+
+		if(chunk.vaoId != 0) {
+			GLState.deleteVertexArray(chunk.vaoId);
+			GLState.deleteBuffer(chunk.vboId);
+		}
+
+		chunks[chunkY * chunksX + chunkX] = null;
+	}
+
+	/**Returns the width of the map in tiles*/
+	public int getWidth() {
+		return width;
+	}
+
+	/**Returns the height of the map in tiles*/
+	public int getHeight() {
+		return height;
+	}
+
+	/**Returns the number of chunks on the x axis*/
+	public int getChunksX() {
+		return chunksX;
+	}
+
+	/**Returns the number of chunks on the y axis*/
+	public int getChunksY() {
+		return chunksY;
+	}
+
+	/**Returns the size of a tile on the x axis*/
+	public float getTileWidth() {
+		return tileWidth;
+	}
+
+	/**Returns the size of a tile on the y axis*/
+	public float getTileHeight() {
+		return tileHeight;
+	}
+
+	/**Returns the size of a chunk in tiles*/
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**Returns the number of chunks drawn during the last draw*/
+	public int getDrawnChunks() {
+		return drawnChunks;
+	}
+
+	/**Returns the number of chunks rebuilt during the last draw*/
+	public int getBuiltChunks() {
+		return builtChunks;
+	}
+
+	public void dispose() {
+		for(int cy = 0; cy < chunksY; cy++) {
+			for(int cx = 0; cx < chunksX; cx++)
+				releaseChunk(cx, cy);
+		}
+
+		indexBuffer.release();
+		shader.dispose();
+	}
+}
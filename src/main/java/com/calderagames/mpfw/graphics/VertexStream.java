@@ -0,0 +1,279 @@
+package com.calderagames.mpfw.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL44;
+import org.lwjgl.opengl.GLCapabilities;
+
+import com.calderagames.mpfw.Disposable;
+
+/**
+ * Streams vertices to an openGL array buffer. Depending on the {@link Mode} the buffer is split
+ * in a ring of regions, each region being guarded by a fence so the CPU never writes in a region
+ * the GPU is still reading from.
+ * <p>Usage, once per flush: {@link #map(int)}, write the vertices, {@link #unmap()}, issue the draw
+ * call using the returned base vertex and finally {@link #fence()}.</p>
+ */
+public class VertexStream implements Disposable {
+
+	/**Number of regions used by default in the ring modes*/
+	public static final int DEFAULT_REGIONS = 3;
+
+	/**Maximum time in nanoseconds waited per call on a fence once a stall is detected*/
+	private static final long FENCE_WAIT_TIMEOUT = 1000000;
+
+	public enum Mode {
+		/**Single region updated with glBufferSubData, the driver may stall if the GPU still uses the buffer*/
+		SUB_DATA,
+		/**Single region, the buffer storage is orphaned with glBufferData before every update*/
+		ORPHAN,
+		/**Ring of regions mapped with glMapBufferRange (unsynchronized) and guarded by fences*/
+		ROUND_ROBIN,
+		/**Ring of regions persistently mapped (GL 4.4 or ARB_buffer_storage) and guarded by fences,
+		 * falls back to {@link #ROUND_ROBIN} if not supported*/
+		PERSISTENT
+	}
+
+	/**Id of the VBO*/
+	private int vboId;
+	/**Mode actually in use (might differ from the requested one)*/
+	private Mode mode;
+
+	/**Size in bytes of a vertex*/
+	private int stride;
+	/**Number of vertices a region can hold*/
+	private int regionVertices;
+	/**Size in bytes of a region*/
+	private int regionBytes;
+	/**Number of regions in the ring*/
+	private int regions;
+	/**Index of the current region*/
+	private int currRegion;
+
+	/**Fence of each region, 0 if none*/
+	private long[] fences;
+
+	/**Staging buffer for the sub data and orphan modes*/
+	private ByteBuffer staging;
+	/**Slice of the persistent mapping for each region*/
+	private ByteBuffer[] persistentRegions;
+	/**Buffer returned by the last unsynchronized mapping*/
+	private ByteBuffer mapped;
+	/**Buffer returned by the last call to map*/
+	private ByteBuffer current;
+
+	/**Number of times a region was still in use by the GPU when it was about to be written*/
+	private int stallCount;
+
+	/**
+	 * Constructs a vertex stream, the VBO is left bound to GL_ARRAY_BUFFER
+	 * so the vertex attributes can be set right after.
+	 * @param stride the size in bytes of one vertex
+	 * @param regionVertices the number of vertices a region (one flush) can hold
+	 * @param mode the streaming mode
+	 * @param regions the number of regions in the ring, ignored by the single region modes
+	 */
+	public VertexStream(int stride, int regionVertices, Mode mode, int regions) {
+		if(mode == null)
+			mode = Mode.SUB_DATA;
+		if(regions < 1)
+			throw new IllegalArgumentException("The number of regions must be at least 1.");
+
+		GLCapabilities caps = GL.getCapabilities();
+
+		//Fallback if buffer storage isn't supported
+		if(mode == Mode.PERSISTENT && !caps.OpenGL44 && !caps.GL_ARB_buffer_storage)
+			mode = Mode.ROUND_ROBIN;
+
+		this.mode = mode;
+		this.stride = stride;
+		this.regionVertices = regionVertices;
+		this.regionBytes = stride * regionVertices;
+		this.regions = (mode == Mode.SUB_DATA || mode == Mode.ORPHAN) ? 1 : regions;
+
+		fences = new long[this.regions];
+
+		vboId = GL15.glGenBuffers();
+		GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
+
+		switch(mode) {
+			case SUB_DATA:
+			case ORPHAN:
+				staging = BufferUtils.createByteBuffer(regionBytes);
+				GL15.glBufferData(GL15.GL_ARRAY_BUFFER, regionBytes, mode == Mode.ORPHAN ? GL15.GL_STREAM_DRAW : GL15.GL_DYNAMIC_DRAW);
+				break;
+			case ROUND_ROBIN:
+				GL15.glBufferData(GL15.GL_ARRAY_BUFFER, (long) regionBytes * this.regions, GL15.GL_STREAM_DRAW);
+				break;
+			case PERSISTENT:
+				final int flags = GL30.GL_MAP_WRITE_BIT | GL44.GL_MAP_PERSISTENT_BIT | GL44.GL_MAP_COHERENT_BIT;
+				final long total = (long) regionBytes * this.regions;
+
+				if(caps.OpenGL44)
+					GL44.glBufferStorage(GL15.GL_ARRAY_BUFFER, total, flags);
+				else
+					ARBBufferStorage.glBufferStorage(GL15.GL_ARRAY_BUFFER, total, flags);
+
+				ByteBuffer mapping = GL30.glMapBufferRange(GL15.GL_ARRAY_BUFFER, 0, total, flags);
+
+				//Slice the mapping, one buffer per region
+				persistentRegions = new ByteBuffer[this.regions];
+				for(int i = 0; i < this.regions; i++) {
+					mapping.clear();
+					mapping.position(i * regionBytes);
+					mapping.limit((i + 1) * regionBytes);
+					persistentRegions[i] = mapping.slice().order(ByteOrder.nativeOrder());
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Returns a buffer to write the vertices of the next flush into, waits on the
+	 * region fence if the GPU is still using it (counted as a stall).
+	 * @param bytes the maximum number of bytes that will be written
+	 * @return a native ordered byte buffer with its position set to 0 and its limit to bytes,
+	 * when written with absolute puts its position must be set to the number of bytes written before {@link #unmap()}
+	 */
+	public ByteBuffer map(int bytes) {
+		if(bytes > regionBytes)
+			throw new IllegalArgumentException("Cannot map more than " + regionBytes + " bytes.");
+
+		waitFence(currRegion);
+
+		switch(mode) {
+			case ROUND_ROBIN:
+				GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
+				mapped = GL30.glMapBufferRange(GL15.GL_ARRAY_BUFFER, (long) currRegion * regionBytes, bytes,
+				                               GL30.GL_MAP_WRITE_BIT | GL30.GL_MAP_INVALIDATE_RANGE_BIT | GL30.GL_MAP_UNSYNCHRONIZED_BIT,
+				                               mapped);
+				current = mapped.order(ByteOrder.nativeOrder());
+				break;
+			case PERSISTENT:
+				current = persistentRegions[currRegion];
+				break;
+			default:
+				current = staging;
+				break;
+		}
+
+		current.clear();
+		current.limit(bytes);
+
+		return current;
+	}
+
+	/**
+	 * Makes the vertices written since {@link #map(int)} available to openGL.
+	 * @return the base vertex to use in the draw call
+	 */
+	public int unmap() {
+		switch(mode) {
+			case SUB_DATA:
+				current.flip();
+				GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
+				GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, current);
+				break;
+			case ORPHAN:
+				current.flip();
+				GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
+				GL15.glBufferData(GL15.GL_ARRAY_BUFFER, regionBytes, GL15.GL_STREAM_DRAW);
+				GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, current);
+				break;
+			case ROUND_ROBIN:
+				GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
+				GL15.glUnmapBuffer(GL15.GL_ARRAY_BUFFER);
+				break;
+			case PERSISTENT:
+				//Coherent mapping, nothing to do
+				break;
+		}
+
+		return currRegion * regionVertices;
+	}
+
+	/**Guards the current region with a fence and moves to the next one, to be called after the draw call*/
+	public void fence() {
+		if(regions == 1)
+			return;
+
+		fences[currRegion] = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		currRegion = (currRegion + 1) % regions;
+	}
+
+	/**Waits until the GPU is done with the given region*/
+	private void waitFence(int region) {
+		long fence = fences[region];
+
+		if(fence == 0)
+			return;
+
+		int status = GL32.glClientWaitSync(fence, 0, 0);
+
+		if(status == GL32.GL_TIMEOUT_EXPIRED) {
+			stallCount++;
+
+			do {
+				status = GL32.glClientWaitSync(fence, GL32.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_WAIT_TIMEOUT);
+			} while(status == GL32.GL_TIMEOUT_EXPIRED);
+		}
+
+		GL32.glDeleteSync(fence);
+		fences[region] = 0;
+	}
+
+	/**Returns the id of the VBO*/
+	public int getId() {
+		return vboId;
+	}
+
+	/**Returns the mode in use, might differ from the requested one if it wasn't supported*/
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**Returns the size in bytes of a vertex*/
+	public int getStride() {
+		return stride;
+	}
+
+	/**Returns the number of regions in the ring*/
+	public int getRegions() {
+		return regions;
+	}
+
+	/**Returns the number of times the CPU had to wait on the GPU before writing a region*/
+	public int getStallCount() {
+		return stallCount;
+	}
+
+	/**Sets the stall counter back to 0*/
+	public void resetStallCount() {
+		stallCount = 0;
+	}
+
+	/**Deletes the fences and the VBO*/
+	public void dispose() {
+		for(int i = 0; i < regions; i++) {
+			if(fences[i] != 0) {
+				GL32.glDeleteSync(fences[i]);
+				fences[i] = 0;
+			}
+		}
+
+		if(mode == Mode.PERSISTENT) {
+			GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, vboId);
+			GL15.glUnmapBuffer(GL15.GL_ARRAY_BUFFER);
+			persistentRegions = null;
+		}
+
+		GLState.deleteBuffer(vboId);
+	}
+}
@@ -0,0 +1,324 @@
+package com.calderagames.mpfw.graphics.particles;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.graphics.Color;
+import com.calderagames.mpfw.graphics.GLState;
+import com.calderagames.mpfw.graphics.ShaderAttribute;
+import com.calderagames.mpfw.graphics.ShaderProgram;
+import com.calderagames.mpfw.graphics.TextureRegion;
+import com.calderagames.mpfw.math.Matrix4f;
+
+/**
+ * Particle system simulated on the GPU: a transform feedback pass reads the particles from one VBO
+ * and writes them moved (or respawned once dead) to the other one, then the VBOs are swapped.
+ * The particles are drawn as point sprites textured with a region, the CPU cost per frame
+ * doesn't depend on the number of particles.
+ * <p>A particle is stored as 6 floats: position, velocity, age and life time. The particles start
+ * waiting for a random delay so the emission is spread over the first life time.</p>
+ * <p><b>Note:</b> the point size is in pixels of the viewport and is limited by the hardware
+ * (GL_POINT_SIZE_RANGE). The system must be drawn outside of {@link com.calderagames.mpfw.graphics.SpriteBatch#begin()}
+ * and end(), it uses its own shader programs and keeps the current blend function.</p>
+ */
+public class GPUParticleSystem implements Disposable {
+
+	/**Size in bytes of a particle*/
+	private static final int PARTICLE_SIZE = 6 * 4;
+
+	/**Vertex shader of the update pass, captured with transform feedback*/
+	private static final String updateVertexShader = 
+			"#version 150 core\n" +
+			"in vec2 in_position;\n" +
+			"in vec2 in_velocity;\n" +
+			"in vec2 in_data;\n" +
+			"out vec2 out_position;\n" +
+			"out vec2 out_velocity;\n" +
+			"out vec2 out_data;\n" +
+			"uniform float u_dt;\n" +
+			"uniform float u_time;\n" +
+			"uniform vec2 u_gravity;\n" +
+			"uniform vec4 u_area;\n" +
+			"uniform vec4 u_spawn;\n" +
+			"uniform vec2 u_direction;\n" +
+			"uniform int u_emitting;\n" +
+			"float rand(float n) {\n" +
+			"return fract(sin(n * 12.9898 + u_time * 78.233) * 43758.5453);\n" +
+			"}\n" +
+			"void main() {\n" +
+			"float age = in_data.x + u_dt;\n" +
+			"if(age >= in_data.y && u_emitting != 0) {\n" +
+			"float seed = float(gl_VertexID) * 0.001;\n" +
+			"float angle = mix(u_direction.x, u_direction.y, rand(seed));\n" +
+			"float speed = mix(u_spawn.x, u_spawn.y, rand(seed + 0.1));\n" +
+			"out_position = u_area.xy + vec2(rand(seed + 0.2), rand(seed + 0.3)) * u_area.zw;\n" +
+			"out_velocity = vec2(cos(angle), sin(angle)) * speed;\n" +
+			"out_data = vec2(0.0, mix(u_spawn.z, u_spawn.w, rand(seed + 0.4)));\n" +
+			"}\n" +
+			"else if(age >= in_data.y || age < 0.0) {\n" +
+			"out_position = in_position;\n" +
+			"out_velocity = in_velocity;\n" +
+			"out_data = vec2(age, in_data.y);\n" +
+			"}\n" +
+			"else {\n" +
+			"out_velocity = in_velocity + u_gravity * u_dt;\n" +
+			"out_position = in_position + out_velocity * u_dt;\n" +
+			"out_data = vec2(age, in_data.y);\n" +
+			"}\n" +
+			"}";
+
+	/**Vertex shader of the render pass*/
+	private static final String renderVertexShader = 
+			"#version 150 core\n" +
+			"in vec2 in_position;\n" +
+			"in vec2 in_data;\n" +
+			"out vec4 v_color;\n" +
+			"uniform mat4 projection;\n" +
+			"uniform mat4 modelView;\n" +
+			"uniform vec4 u_startColor;\n" +
+			"uniform vec4 u_endColor;\n" +
+			"uniform vec2 u_size;\n" +
+			"void main() {\n" +
+			"float t = clamp(in_data.x / max(in_data.y, 0.0001), 0.0, 1.0);\n" +
+			"v_color = mix(u_startColor, u_endColor, t);\n" +
+			"gl_PointSize = mix(u_size.x, u_size.y, t);\n" +
+			"gl_Position = projection * modelView * vec4(in_position, 0.0, 1.0);\n" +
+			"if(in_data.x < 0.0 || in_data.x >= in_data.y)\n" +
+			"gl_Position = vec4(2.0, 2.0, 2.0, 1.0);\n" +
+			"}";
+
+	/**Fragment shader of the render pass, the point is mapped on the region*/
+	private static final String renderFragmentShader = 
+			"#version 150 core\n" +
+			"in vec4 v_color;\n" +
+			"out vec4 color;\n" +
+			"uniform sampler2D u_texDiffuse;\n" +
+			"uniform vec4 u_region;\n" +
+			"void main() {\n" +
+			"color = texture(u_texDiffuse, mix(u_region.xy, u_region.zw, gl_PointCoord)) * v_color;\n" +
+			"}";
+
+	/**Ping-pong VBOs and the VAO reading each one*/
+	private int[] vboIds = new int[2];
+	private int[] vaoIds = new int[2];
+	/**Index of the VBO holding the current state*/
+	private int src;
+
+	private int count;
+
+	private ShaderProgram updateShader;
+	private ShaderProgram renderShader;
+
+	private TextureRegion region;
+
+	/**Time since the creation, seeds the random values of the respawns*/
+	private float time;
+
+	/**Spawn area*/
+	private float areaX, areaY, areaWidth, areaHeight;
+	private float speedMin, speedMax;
+	/**Direction bounds in degrees*/
+	private float directionMin, directionMax = 360;
+	private float lifeMin = 1, lifeMax = 1;
+	private float gravityX, gravityY;
+	private float startSize = 8, endSize = 8;
+	private Color startColor, endColor;
+	private boolean emitting = true;
+
+	/**
+	 * Constructs a GPU particle system.
+	 * @param count the number of particles
+	 * @param region the region drawn on each particle
+	 * @param lifeMax the maximum life time in seconds, the first spawns are spread over it
+	 */
+	public GPUParticleSystem(int count, TextureRegion region, float lifeMax) {
+		if(count < 1)
+			throw new IllegalArgumentException("The number of particles must be at least 1.");
+
+		this.count = count;
+		this.region = region;
+		this.lifeMin = lifeMax;
+		this.lifeMax = lifeMax;
+
+		startColor = new Color(1f, 1f, 1f, 1f);
+		endColor = new Color(1f, 1f, 1f, 1f);
+
+		//Velocity and age/life use the texture coordinates and color locations
+		ShaderAttribute attributes = new ShaderAttribute();
+		attributes.TEXCOORD_ATTR = "in_velocity";
+		attributes.COLOR_ATTR = "in_data";
+
+		updateShader = new ShaderProgram(updateVertexShader, null, attributes, 
+		                                 new String[] {"out_position", "out_velocity", "out_data"}, "particles update");
+		renderShader = new ShaderProgram(renderVertexShader, renderFragmentShader, attributes, "particles render");
+
+		for(String uniform: new String[] {"u_dt", "u_time", "u_gravity", "u_area", "u_spawn", "u_direction", "u_emitting"})
+			updateShader.addUniformLocation(uniform);
+		for(String uniform: new String[] {"u_startColor", "u_endColor", "u_size", "u_region"})
+			renderShader.addUniformLocation(uniform);
+
+		//Every particle waits for a random delay before its first spawn
+		Random random = new Random();
+		FloatBuffer buffer = BufferUtils.createFloatBuffer(count * 6);
+		for(int i = 0; i < count; i++)
+			buffer.put(0).put(0).put(0).put(0).put(-random.nextFloat() * lifeMax).put(0);
+		buffer.flip();
+
+		for(int i = 0; i < 2; i++) {
+			vaoIds[i] = GL30.glGenVertexArrays();
+			GLState.bindVertexArray(vaoIds[i]);
+
+			vboIds[i] = GL15.glGenBuffers();
+			GLState.bindBuffer(GL15.GL_ARRAY_BUFFER, vboIds[i]);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STREAM_COPY);
+
+			//Position, velocity, age and life
+			GL20.glEnableVertexAttribArray(0);
+			GL20.glVertexAttribPointer(0, 2, GL11.GL_FLOAT, false, PARTICLE_SIZE, 0);
+			GL20.glEnableVertexAttribArray(1);
+			GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, PARTICLE_SIZE, 8);
+			GL20.glEnableVertexAttribArray(2);
+			GL20.glVertexAttribPointer(2, 2, GL11.GL_FLOAT, false, PARTICLE_SIZE, 16);
+		}
+
+		GLState.bindVertexArray(0);
+	}
+
+	/**
+	 * Moves the particles and respawns the dead ones on the GPU.
+	 * @param dt the time step in seconds
+	 */
+	public void update(float dt) {
+		//Keep the seed small enough for the precision of sin in the shader
+		time = (time + dt) % 1000f;
+
+		updateShader.begin();
+		updateShader.setUniform1f("u_dt", dt);
+		updateShader.setUniform1f("u_time", time);
+		updateShader.setUniform2f("u_gravity", gravityX, gravityY);
+		updateShader.setUniform4f("u_area", areaX, areaY, areaWidth, areaHeight);
+		updateShader.setUniform4f("u_spawn", speedMin, speedMax, lifeMin, lifeMax);
+		updateShader.setUniform2f("u_direction", (float) Math.toRadians(directionMin), (float) Math.toRadians(directionMax));
+		updateShader.setUniform1i("u_emitting", emitting ? 1 : 0);
+
+		//Read from the source VBO, capture into the other one
+		GL11.glEnable(GL30.GL_RASTERIZER_DISCARD);
+		GLState.bindVertexArray(vaoIds[src]);
+		GL30.glBindBufferBase(GL30.GL_TRANSFORM_FEEDBACK_BUFFER, 0, vboIds[1 - src]);
+
+		GL30.glBeginTransformFeedback(GL11.GL_POINTS);
+		GL11.glDrawArrays(GL11.GL_POINTS, 0, count);
+		GL30.glEndTransformFeedback();
+
+		GL30.glBindBufferBase(GL30.GL_TRANSFORM_FEEDBACK_BUFFER, 0, 0);
+		GL11.glDisable(GL30.GL_RASTERIZER_DISCARD);
+
+		updateShader.end();
+
+		src = 1 - src;
+	}
+
+	/**
+	 * Draws the particles as point sprites.
+	 * @param projection the projection matrix
+	 */
+	public void draw(Matrix4f projection) {
+		final float[] uv = region.getRegion();
+
+		renderShader.begin();
+		renderShader.setUniformMat4f("projection", projection);
+		renderShader.setUniform4f("u_startColor", startColor.r, startColor.g, startColor.b, startColor.a);
+		renderShader.setUniform4f("u_endColor", endColor.r, endColor.g, endColor.b, endColor.a);
+		renderShader.setUniform2f("u_size", startSize, endSize);
+		//Top left and bottom right corners, the point coordinates start at the top left too
+		renderShader.setUniform4f("u_region", uv[0], uv[1], uv[4], uv[5]);
+
+		GLState.bindTexture(0, region.getTexture().getId());
+
+		GL11.glEnable(GL32.GL_PROGRAM_POINT_SIZE);
+		GLState.bindVertexArray(vaoIds[src]);
+		GL11.glDrawArrays(GL11.GL_POINTS, 0, count);
+		GL11.glDisable(GL32.GL_PROGRAM_POINT_SIZE);
+
+		renderShader.end();
+	}
+
+	/**Sets the area the particles spawn in*/
+	public void setArea(float x, float y, float width, float height) {
+		areaX = x;
+		areaY = y;
+		areaWidth = width;
+		areaHeight = height;
+	}
+
+	/**Sets the bounds of the speed in pixels per second*/
+	public void setSpeed(float min, float max) {
+		speedMin = min;
+		speedMax = max;
+	}
+
+	/**Sets the bounds of the direction in degrees*/
+	public void setDirection(float min, float max) {
+		directionMin = min;
+		directionMax = max;
+	}
+
+	/**Sets the bounds of the life time in seconds*/
+	public void setLife(float min, float max) {
+		if(min <= 0 || max < min)
+			throw new IllegalArgumentException("The life time bounds must be positive and ordered.");
+
+		lifeMin = min;
+		lifeMax = max;
+	}
+
+	/**Sets the acceleration in pixels per second squared*/
+	public void setGravity(float x, float y) {
+		gravityX = x;
+		gravityY = y;
+	}
+
+	/**Sets the point size in pixels at spawn and at death*/
+	public void setSize(float start, float end) {
+		startSize = start;
+		endSize = end;
+	}
+
+	/**Sets the color at spawn and at death*/
+	public void setColors(Color start, Color end) {
+		startColor.setColor(start);
+		endColor.setColor(end);
+	}
+
+	/**Sets if the dead particles respawn*/
+	public void setEmitting(boolean emitting) {
+		this.emitting = emitting;
+	}
+
+	public boolean isEmitting() {
+		return emitting;
+	}
+
+	/**Returns the number of particles (alive or not)*/
+	public int getCount() {
+		return count;
+	}
+
+	public void dispose() {
+		for(int i = 0; i < 2; i++) {
+			GLState.deleteVertexArray(vaoIds[i]);
+			GLState.deleteBuffer(vboIds[i]);
+		}
+
+		updateShader.dispose();
+		renderShader.dispose();
+	}
+}
@@ -0,0 +1,288 @@
+package com.calderagames.mpfw.graphics.particles;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import com.calderagames.mpfw.animation.Animation;
+import com.calderagames.mpfw.graphics.Color;
+import com.calderagames.mpfw.graphics.SpriteBatch;
+import com.calderagames.mpfw.graphics.TextureRegion;
+
+/**
+ * Spawns, updates and draws the particles of a {@link ParticlePool}. Every particle uses the region
+ * of the emitter, or the frame of the animation matching its age.
+ * <p>The particles spawn centered on the emitter position with a random life, speed, direction,
+ * spin and scale picked between the bounds set, their color fades from the start color to the end color.</p>
+ */
+public class ParticleEmitter {
+
+	/**Number of particles per task of a parallel update*/
+	private static final int PARALLEL_CHUNK = 4096;
+
+	private ParticlePool pool;
+
+	/**Region of every particle, null if animated*/
+	private TextureRegion region;
+	/**Animation played over the life of every particle, null if not animated*/
+	private Animation animation;
+
+	/**Position of the emitter*/
+	private float x, y;
+	/**Particles spawned per second*/
+	private float rate;
+	/**Particles to spawn, the fractional part is kept for the next update*/
+	private float accumulator;
+	private boolean emitting = true;
+
+	/**Bounds of the random values of a new particle, the direction and spin are in degrees*/
+	private float lifeMin = 1, lifeMax = 1;
+	private float speedMin, speedMax;
+	private float directionMin, directionMax = 360;
+	private float spinMin, spinMax;
+	private float scaleMin = 1, scaleMax = 1;
+
+	/**Colors packed by {@link Color#toIntBits()}*/
+	private int startColor = -1, endColor = -1;
+
+	/**Acceleration in pixels per second squared*/
+	private float gravityX, gravityY;
+
+	private Random random;
+
+	/**Scratch arrays of the draw*/
+	private int[] colors;
+	private TextureRegion[] frames;
+
+	/**
+	 * Constructs an emitter drawing every particle with the same region.
+	 * @param region the region of the particles
+	 * @param capacity the maximum number of live particles
+	 */
+	public ParticleEmitter(TextureRegion region, int capacity) {
+		this(region, null, capacity);
+	}
+
+	/**
+	 * Constructs an emitter playing an animation over the life of every particle,
+	 * see {@link Animation.PlayMode} (the animation itself isn't updated).
+	 * @param animation the animation of the particles
+	 * @param capacity the maximum number of live particles
+	 */
+	public ParticleEmitter(Animation animation, int capacity) {
+		this(null, animation, capacity);
+	}
+
+	private ParticleEmitter(TextureRegion region, Animation animation, int capacity) {
+		if(region == null && animation == null)
+			throw new IllegalArgumentException("The region or animation of the particles cannot be null.");
+
+		this.region = region;
+		this.animation = animation;
+
+		pool = new ParticlePool(capacity);
+		random = new Random();
+		colors = new int[capacity];
+
+		if(animation != null)
+			frames = new TextureRegion[capacity];
+	}
+
+	/**
+	 * Updates the particles, integrated in parallel when there are at least parallelThreshold of them.
+	 * Then removes the dead particles and spawns the new ones.
+	 * @param dt the time step in seconds
+	 * @param parallelThreshold the minimum number of particles for a parallel update
+	 */
+	void update(float dt, int parallelThreshold) {
+		final int count = pool.size();
+
+		if(count >= parallelThreshold && count > PARALLEL_CHUNK) {
+			final int chunks = (count + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+			IntStream.range(0, chunks).parallel().forEach(c -> 
+				pool.integrate(c * PARALLEL_CHUNK, Math.min(count, (c + 1) * PARALLEL_CHUNK), dt, gravityX, gravityY));
+		}
+		else {
+			pool.integrate(0, count, dt, gravityX, gravityY);
+		}
+
+		pool.removeDead();
+
+		if(emitting) {
+			accumulator += rate * dt;
+			final int spawns = (int) accumulator;
+			accumulator -= spawns;
+			spawn(spawns);
+		}
+	}
+
+	/**
+	 * Updates the particles, removes the dead ones and spawns the new ones.
+	 * @param dt the time step in seconds
+	 */
+	public void update(float dt) {
+		update(dt, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Spawns particles right away, as many as the pool can hold.
+	 * @param count the number of particles
+	 */
+	public void spawn(int count) {
+		final TextureRegion first = region != null ? region : animation.getFrames()[0];
+
+		for(int i = 0; i < count; i++) {
+			final float scale = random(scaleMin, scaleMax);
+			final float speed = random(speedMin, speedMax);
+			final double direction = Math.toRadians(random(directionMin, directionMax));
+
+			//The pool stores the top left corner
+			final int index = pool.add(x - first.getWidth() * scale / 2, y - first.getHeight() * scale / 2, 
+			                           (float) Math.cos(direction) * speed, (float) Math.sin(direction) * speed,
+			                           random(lifeMin, lifeMax), 0, random(spinMin, spinMax), scale, startColor);
+
+			if(index == -1)
+				return;
+		}
+	}
+
+	private float random(float min, float max) {
+		return min + random.nextFloat() * (max - min);
+	}
+
+	/**
+	 * Draws the particles with {@link SpriteBatch#drawBulk(TextureRegion, float[], float[], float[], float[], int[], int, int)}.
+	 * @param batch the sprite batch, begin must have been called
+	 */
+	public void draw(SpriteBatch batch) {
+		final int count = pool.size();
+		final float[] age = pool.age;
+		final float[] life = pool.life;
+
+		//Fade the colors
+		if(startColor == endColor) {
+			Arrays.fill(colors, 0, count, startColor);
+		}
+		else {
+			for(int i = 0; i < count; i++)
+				colors[i] = lerpColor(startColor, endColor, age[i] / life[i]);
+		}
+
+		if(animation == null) {
+			batch.drawBulk(region, pool.x, pool.y, pool.scale, pool.rotation, colors, 0, count);
+			return;
+		}
+
+		final TextureRegion[] animFrames = animation.getFrames();
+		final float[] durations = animation.getDurations();
+		final float total = animation.getTotalDuration();
+		final boolean loop = animation.getPlayMode() == Animation.PlayMode.LOOP;
+
+		for(int i = 0; i < count; i++) {
+			float time = loop ? age[i] % total : age[i];
+			int frame = 0;
+
+			while(frame < animFrames.length - 1 && time >= durations[frame])
+				time -= durations[frame++];
+
+			frames[i] = animFrames[frame];
+		}
+
+		batch.drawBulk(frames, pool.x, pool.y, pool.scale, pool.rotation, colors, 0, count);
+	}
+
+	/**Interpolates every channel of two packed colors*/
+	private static int lerpColor(int from, int to, float t) {
+		int result = 0;
+
+		for(int shift = 0; shift < 32; shift += 8) {
+			final int a = (from >>> shift) & 0xFF;
+			final int b = (to >>> shift) & 0xFF;
+			result |= ((int) (a + (b - a) * t) & 0xFF) << shift;
+		}
+
+		return result;
+	}
+
+	/**Sets the position the particles spawn at*/
+	public void setPosition(float x, float y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	/**Sets the number of particles spawned per second*/
+	public void setRate(float rate) {
+		this.rate = rate;
+	}
+
+	/**Sets if particles are spawned on update, the live particles keep being updated*/
+	public void setEmitting(boolean emitting) {
+		this.emitting = emitting;
+	}
+
+	/**Sets the bounds of the life time in seconds*/
+	public void setLife(float min, float max) {
+		if(min <= 0 || max < min)
+			throw new IllegalArgumentException("The life time bounds must be positive and ordered.");
+
+		lifeMin = min;
+		lifeMax = max;
+	}
+
+	/**Sets the bounds of the speed in pixels per second*/
+	public void setSpeed(float min, float max) {
+		speedMin = min;
+		speedMax = max;
+	}
+
+	/**Sets the bounds of the direction in degrees*/
+	public void setDirection(float min, float max) {
+		directionMin = min;
+		directionMax = max;
+	}
+
+	/**Sets the bounds of the angular velocity in degrees per second*/
+	public void setSpin(float min, float max) {
+		spinMin = min;
+		spinMax = max;
+	}
+
+	/**Sets the bounds of the scale*/
+	public void setScale(float min, float max) {
+		scaleMin = min;
+		scaleMax = max;
+	}
+
+	/**
+	 * Sets the colors of the particles.
+	 * @param start the color at spawn
+	 * @param end the color at death
+	 */
+	public void setColors(Color start, Color end) {
+		startColor = start.toIntBits();
+		endColor = end.toIntBits();
+	}
+
+	/**Sets the acceleration in pixels per second squared*/
+	public void setGravity(float x, float y) {
+		gravityX = x;
+		gravityY = y;
+	}
+
+	/**Returns the pool of the particles*/
+	public ParticlePool getPool() {
+		return pool;
+	}
+
+	public boolean isEmitting() {
+		return emitting;
+	}
+
+	public float getX() {
+		return x;
+	}
+
+	public float getY() {
+		return y;
+	}
+}
@@ -0,0 +1,131 @@
+package com.calderagames.mpfw.graphics.particles;
+
+/**
+ * Preallocated pool of particles stored as parallel primitive arrays, the live particles
+ * are the first {@link #size()} elements. A dead particle is replaced by the last one (swap-remove),
+ * so the particles don't keep their order.
+ */
+public class ParticlePool {
+
+	/**Position of the top left corner*/
+	final float[] x, y;
+	/**Velocity in pixels per second*/
+	final float[] vx, vy;
+	/**Time lived and life time in seconds*/
+	final float[] age, life;
+	/**Angle in degrees and angular velocity in degrees per second*/
+	final float[] rotation, spin;
+	/**Scale of the region*/
+	final float[] scale;
+	/**Color packed by {@link com.calderagames.mpfw.graphics.Color#toIntBits()}*/
+	final int[] color;
+
+	/**Number of live particles*/
+	private int count;
+
+	/**
+	 * Constructs a particle pool.
+	 * @param capacity the maximum number of live particles
+	 */
+	public ParticlePool(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("The capacity must be at least 1.");
+
+		x = new float[capacity];
+		y = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		age = new float[capacity];
+		life = new float[capacity];
+		rotation = new float[capacity];
+		spin = new float[capacity];
+		scale = new float[capacity];
+		color = new int[capacity];
+	}
+
+	/**
+	 * Adds a particle.
+	 * @return the index of the particle, -1 if the pool is full
+	 */
+	public int add(float x, float y, float vx, float vy, float life, float rotation, float spin, float scale, int color) {
+		if(count == this.x.length)
+			return -1;
+
+		final int i = count++;
+		this.x[i] = x;
+		this.y[i] = y;
+		this.vx[i] = vx;
+		this.vy[i] = vy;
+		this.age[i] = 0;
+		this.life[i] = life;
+		this.rotation[i] = rotation;
+		this.spin[i] = spin;
+		this.scale[i] = scale;
+		this.color[i] = color;
+
+		return i;
+	}
+
+	/**
+	 * Removes a particle, the last particle takes its index.
+	 * @param i the index of the particle
+	 * @throws IndexOutOfBoundsException if there is no particle at the index
+	 */
+	public void remove(int i) {
+		if(i < 0 || i >= count)
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + count);
+
+		final int last = --count;
+
+		x[i] = x[last];
+		y[i] = y[last];
+		vx[i] = vx[last];
+		vy[i] = vy[last];
+		age[i] = age[last];
+		life[i] = life[last];
+		rotation[i] = rotation[last];
+		spin[i] = spin[last];
+		scale[i] = scale[last];
+		color[i] = color[last];
+	}
+
+	/**
+	 * Moves the particles of the range [from, to[, the ranges can be updated in parallel.
+	 * @param dt the time step in seconds
+	 * @param gravityX the acceleration on the x axis in pixels per second squared
+	 * @param gravityY the acceleration on the y axis in pixels per second squared
+	 */
+	void integrate(int from, int to, float dt, float gravityX, float gravityY) {
+		for(int i = from; i < to; i++) {
+			vx[i] += gravityX * dt;
+			vy[i] += gravityY * dt;
+			x[i] += vx[i] * dt;
+			y[i] += vy[i] * dt;
+			rotation[i] += spin[i] * dt;
+			age[i] += dt;
+		}
+	}
+
+	/**Removes every particle older than its life time*/
+	void removeDead() {
+		for(int i = count - 1; i >= 0; i--) {
+			if(age[i] >= life[i])
+				remove(i);
+		}
+	}
+
+	/**Removes every particle*/
+	public void clear() {
+		count = 0;
+	}
+
+	/**Returns the number of live particles*/
+	public int size() {
+		return count;
+	}
+
+	/**Returns the maximum number of live particles*/
+	public int getCapacity() {
+		return x.length;
+	}
+}
@@ -0,0 +1,70 @@
+package com.calderagames.mpfw.graphics.particles;
+
+import java.util.ArrayList;
+
+import com.calderagames.mpfw.graphics.SpriteBatch;
+
+/**
+ * Updates and draws a group of {@link ParticleEmitter}s, the emitters are drawn in the order they were added.
+ * <p>The emitters with at least {@link #getParallelThreshold()} particles are integrated in parallel
+ * on the common fork join pool, the spawning and the removal of the dead particles stay on the calling thread.</p>
+ */
+public class ParticleSystem {
+
+	private ArrayList<ParticleEmitter> emitters;
+
+	/**Minimum number of particles of an emitter for a parallel update*/
+	private int parallelThreshold = Integer.MAX_VALUE;
+
+	public ParticleSystem() {
+		emitters = new ArrayList<>();
+	}
+
+	public void addEmitter(ParticleEmitter emitter) {
+		emitters.add(emitter);
+	}
+
+	public void removeEmitter(ParticleEmitter emitter) {
+		emitters.remove(emitter);
+	}
+
+	/**
+	 * Updates every emitter.
+	 * @param dt the time step in seconds
+	 */
+	public void update(float dt) {
+		for(int i = 0; i < emitters.size(); i++)
+			emitters.get(i).update(dt, parallelThreshold);
+	}
+
+	/**
+	 * Draws every emitter.
+	 * @param batch the sprite batch, begin must have been called
+	 */
+	public void draw(SpriteBatch batch) {
+		for(int i = 0; i < emitters.size(); i++)
+			emitters.get(i).draw(batch);
+	}
+
+	/**
+	 * Sets the minimum number of particles of an emitter for its update to run in parallel.
+	 * @param parallelThreshold the number of particles, Integer.MAX_VALUE to disable (default)
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**Returns the number of live particles of every emitter*/
+	public int getParticleCount() {
+		int count = 0;
+
+		for(int i = 0; i < emitters.size(); i++)
+			count += emitters.get(i).getPool().size();
+
+		return count;
+	}
+}
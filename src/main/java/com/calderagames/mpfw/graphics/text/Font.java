@@ -0,0 +1,309 @@
+package com.calderagames.mpfw.graphics.text;
+
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+
+import com.calderagames.mpfw.Disposable;
+import com.calderagames.mpfw.MPFW;
+import com.calderagames.mpfw.graphics.ShaderAttribute;
+import com.calderagames.mpfw.graphics.ShaderProgram;
+import com.calderagames.mpfw.graphics.Texture;
+import com.calderagames.mpfw.graphics.TextureRegion;
+
+/**
+ * A font rasterized with AWT into a single atlas texture, so a text is drawn without texture switch.
+ * <p>A signed distance field font stores in the alpha channel the distance to the outline of the glyphs
+ * instead of their coverage, it stays sharp when scaled but must be drawn with {@link #getShader()}.</p>
+ */
+public class Font implements Disposable {
+
+	/**Printable ASCII characters, the default character set*/
+	public static final String ASCII;
+
+	/**Oversampling of the glyphs used to compute the distance field*/
+	private static final int SDF_SCALE = 4;
+	/**Distance in pixels covered by the distance field on each side of the outline*/
+	private static final int SDF_SPREAD = 4;
+	/**Maximum size of the atlas*/
+	private static final int MAX_ATLAS_SIZE = 4096;
+
+	static {
+		StringBuilder sb = new StringBuilder();
+		for(char c = 32; c < 127; c++)
+			sb.append(c);
+		ASCII = sb.toString();
+	}
+
+	/**Distance field fragment shader, the edge is at 0.5 and antialiased over one screen pixel*/
+	private static final String sdfFragmentShader = 
+			"#version 150 core\n" +
+			"in vec2 v_texCoord;\n" +
+			"in vec4 v_color;\n" +
+			"out vec4 color;\n" +
+			"uniform sampler2D u_texDiffuse;\n" +
+			"void main() {\n" +
+			"float distance = texture(u_texDiffuse, v_texCoord).a;\n" +
+			"float width = fwidth(distance);\n" +
+			"color = vec4(v_color.rgb, v_color.a * smoothstep(0.5 - width, 0.5 + width, distance));\n" +
+			"}";
+
+	/**Vertex shader of the distance field shader, same as the default one*/
+	private static final String sdfVertexShader = 
+			"#version 150 core\n" +
+			"in vec4 in_position;\n" +
+			"in vec4 in_texCoord;\n" +
+			"in vec4 in_color;\n" +
+			"in float in_depth;\n" +
+			"out vec2 v_texCoord;\n" +
+			"out vec4 v_color;\n" +
+			"uniform mat4 projection;\n" +
+			"uniform mat4 modelView;\n" +
+			"void main() {\n" +
+			"v_texCoord = in_texCoord.xy;\n" +
+			"v_color = in_color;\n" +
+			"gl_Position = projection * modelView * in_position;\n" +
+			"gl_Position.z = -in_depth * gl_Position.w;\n" +
+			"}";
+
+	/**Metrics and region of a character*/
+	public static class Glyph {
+		/**Region of the glyph in the atlas, padding included*/
+		public final TextureRegion region;
+		/**Horizontal advance of the pen*/
+		public final float advance;
+
+		Glyph(TextureRegion region, float advance) {
+			this.region = region;
+			this.advance = advance;
+		}
+	}
+
+	private Texture atlas;
+	private HashMap<Character, Glyph> glyphs;
+	/**Glyph drawn for the characters missing from the font*/
+	private Glyph missing;
+
+	/**Padding around each glyph in the atlas, the regions start that far from the pen position*/
+	private int padding;
+	private float lineHeight;
+	private float ascent;
+	private boolean sdf;
+
+	/**Distance field shader program, created on demand*/
+	private ShaderProgram shader;
+
+	/**
+	 * Constructs a font with the printable ASCII characters.
+	 * @param awtFont the font to rasterize, its size is the base size of the glyphs
+	 * @param sdf true to store a signed distance field
+	 */
+	public Font(java.awt.Font awtFont, boolean sdf) {
+		this(awtFont, ASCII, sdf, MPFW.MPFW_LINEAR);
+	}
+
+	/**
+	 * Constructs a font.
+	 * @param awtFont the font to rasterize, its size is the base size of the glyphs
+	 * @param chars the characters to rasterize, '?' is added if missing
+	 * @param sdf true to store a signed distance field
+	 * @param filter texture filter of the atlas, see {@link MPFW#MPFW_NEAREST}, a distance field needs linear filtering
+	 */
+	public Font(java.awt.Font awtFont, String chars, boolean sdf, int filter) {
+		this.sdf = sdf;
+
+		if(chars.indexOf('?') == -1)
+			chars += '?';
+
+		//Measure the font
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = scratch.createGraphics();
+		FontMetrics metrics = g.getFontMetrics(awtFont);
+		g.dispose();
+
+		ascent = metrics.getAscent();
+		lineHeight = metrics.getHeight();
+		padding = sdf ? SDF_SPREAD + 1 : 1;
+
+		final int cellHeight = metrics.getAscent() + metrics.getDescent() + 2 * padding;
+
+		//Shelf packing, the atlas grows until every glyph fits
+		int size = 128;
+		int[] cellX = new int[chars.length()];
+		int[] cellY = new int[chars.length()];
+
+		while(!pack(chars, metrics, cellHeight, size, cellX, cellY)) {
+			size *= 2;
+			if(size > MAX_ATLAS_SIZE)
+				throw new IllegalArgumentException("The characters don't fit in a " + MAX_ATLAS_SIZE + " atlas.");
+		}
+
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+
+		for(int i = 0; i < chars.length(); i++) {
+			final int cellWidth = cellWidth(metrics, chars.charAt(i));
+
+			if(sdf)
+				drawDistanceField(image, awtFont, chars.charAt(i), cellX[i], cellY[i], cellWidth, cellHeight);
+			else
+				drawGlyph(image, awtFont, chars.charAt(i), cellX[i], cellY[i], 1);
+		}
+
+		atlas = new Texture(image, filter);
+
+		glyphs = new HashMap<>();
+		for(int i = 0; i < chars.length(); i++) {
+			final char c = chars.charAt(i);
+			glyphs.put(c, new Glyph(new TextureRegion(atlas, cellX[i], cellY[i], cellWidth(metrics, c), cellHeight), metrics.charWidth(c)));
+		}
+
+		missing = glyphs.get('?');
+	}
+
+	/**Width of the cell of a character in the atlas*/
+	private int cellWidth(FontMetrics metrics, char c) {
+		return Math.max(metrics.charWidth(c), 1) + 2 * padding;
+	}
+
+	/**Places every cell on shelves, returns false if the atlas is too small*/
+	private boolean pack(String chars, FontMetrics metrics, int cellHeight, int size, int[] cellX, int[] cellY) {
+		int x = 0, y = 0;
+
+		for(int i = 0; i < chars.length(); i++) {
+			final int cellWidth = cellWidth(metrics, chars.charAt(i));
+
+			if(x + cellWidth > size) {
+				x = 0;
+				y += cellHeight;
+			}
+
+			if(cellWidth > size || y + cellHeight > size)
+				return false;
+
+			cellX[i] = x;
+			cellY[i] = y;
+			x += cellWidth;
+		}
+
+		return true;
+	}
+
+	/**Draws a character in white with its pen position offset by the padding*/
+	private void drawGlyph(BufferedImage image, java.awt.Font awtFont, char c, int x, int y, int scale) {
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+		g.setFont(scale == 1 ? awtFont : awtFont.deriveFont(awtFont.getSize2D() * scale));
+		g.setColor(java.awt.Color.WHITE);
+		g.drawString(String.valueOf(c), x + padding * scale, y + (padding + ascent) * scale);
+		g.dispose();
+	}
+
+	/**
+	 * Rasterizes a character oversampled and writes the distance to its outline in the alpha channel of the cell,
+	 * 0.5 on the outline, above inside.
+	 */
+	private void drawDistanceField(BufferedImage image, java.awt.Font awtFont, char c, int cellX, int cellY, int cellWidth, int cellHeight) {
+		final int hiWidth = cellWidth * SDF_SCALE;
+		final int hiHeight = cellHeight * SDF_SCALE;
+
+		BufferedImage hires = new BufferedImage(hiWidth, hiHeight, BufferedImage.TYPE_INT_ARGB);
+		drawGlyph(hires, awtFont, c, 0, 0, SDF_SCALE);
+
+		boolean[] inside = new boolean[hiWidth * hiHeight];
+		for(int y = 0; y < hiHeight; y++) {
+			for(int x = 0; x < hiWidth; x++)
+				inside[y * hiWidth + x] = (hires.getRGB(x, y) >>> 24) >= 128;
+		}
+
+		final int radius = SDF_SPREAD * SDF_SCALE;
+
+		for(int y = 0; y < cellHeight; y++) {
+			for(int x = 0; x < cellWidth; x++) {
+				//Center of the pixel in the oversampled glyph
+				final int cx = x * SDF_SCALE + SDF_SCALE / 2;
+				final int cy = y * SDF_SCALE + SDF_SCALE / 2;
+				final boolean in = inside[cy * hiWidth + cx];
+
+				//Closest pixel on the other side of the outline
+				int closest = radius * radius;
+				for(int dy = -radius; dy <= radius; dy++) {
+					final int sy = cy + dy;
+					if(sy < 0 || sy >= hiHeight)
+						continue;
+
+					for(int dx = -radius; dx <= radius; dx++) {
+						final int sx = cx + dx;
+						if(sx < 0 || sx >= hiWidth || inside[sy * hiWidth + sx] == in)
+							continue;
+
+						closest = Math.min(closest, dx * dx + dy * dy);
+					}
+				}
+
+				final float distance = (float) Math.sqrt(closest) / radius;
+				final float alpha = in ? 0.5f + distance / 2 : 0.5f - distance / 2;
+				image.setRGB(cellX + x, cellY + y, ((int) (alpha * 255 + 0.5f) << 24) | 0xFFFFFF);
+			}
+		}
+	}
+
+	/**
+	 * Returns the glyph of a character.
+	 * @return the glyph, the one of '?' if the character wasn't rasterized
+	 */
+	public Glyph getGlyph(char c) {
+		Glyph glyph = glyphs.get(c);
+		return glyph != null ? glyph : missing;
+	}
+
+	/**Returns the distance between two lines at the base size*/
+	public float getLineHeight() {
+		return lineHeight;
+	}
+
+	/**Returns the distance from the top of a line to the baseline at the base size*/
+	public float getAscent() {
+		return ascent;
+	}
+
+	/**Returns the padding around the glyphs in the atlas*/
+	public int getPadding() {
+		return padding;
+	}
+
+	/**Returns if the atlas stores a signed distance field*/
+	public boolean isSDF() {
+		return sdf;
+	}
+
+	/**Returns the atlas texture*/
+	public Texture getAtlas() {
+		return atlas;
+	}
+
+	/**
+	 * Returns the shader program drawing the distance field fonts, to be set on the sprite batch.
+	 * @return the shader program, null if the font isn't a distance field font
+	 */
+	public ShaderProgram getShader() {
+		if(!sdf)
+			return null;
+
+		if(shader == null)
+			shader = new ShaderProgram(sdfVertexShader, sdfFragmentShader, new ShaderAttribute(), "sdf font");
+
+		return shader;
+	}
+
+	public void dispose() {
+		atlas.dispose();
+
+		if(shader != null) {
+			shader.dispose();
+			shader = null;
+		}
+	}
+}
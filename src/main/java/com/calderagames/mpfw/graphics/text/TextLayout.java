@@ -0,0 +1,129 @@
+package com.calderagames.mpfw.graphics.text;
+
+import com.calderagames.mpfw.graphics.TextureRegion;
+
+/**
+ * The glyphs of a text positioned relative to the top left corner of the text, ready to be drawn with
+ * {@link com.calderagames.mpfw.graphics.SpriteBatch#drawBulk(TextureRegion[], float[], float[], float[], float[], int[], int, int)}.
+ * <p>The lines are broken on '\n' and, if a wrap width is given, after the last space that fits in it
+ * (or before the glyph that doesn't fit if the line has no space).</p>
+ */
+public class TextLayout {
+
+	/**Region of each glyph*/
+	final TextureRegion[] regions;
+	/**Top left corner of each glyph region*/
+	final float[] x, y;
+	/**Scale of each glyph, shared by the whole text*/
+	final float[] scales;
+	/**Number of glyphs, the spaces and line breaks aren't drawn*/
+	final int count;
+
+	private float width, height;
+	private int lines;
+
+	/**
+	 * Lays out a text.
+	 * @param font the font of the text
+	 * @param text the text
+	 * @param scale the scale applied to the base size of the font
+	 * @param wrapWidth the maximum width of a line, 0 to only break on '\n'
+	 */
+	public TextLayout(Font font, CharSequence text, float scale, float wrapWidth) {
+		final int length = text.length();
+		final float lineHeight = font.getLineHeight() * scale;
+		final float padding = font.getPadding() * scale;
+
+		regions = new TextureRegion[length];
+		x = new float[length];
+		y = new float[length];
+		scales = new float[length];
+
+		int n = 0;
+		float penX = 0, penY = 0;
+		lines = 1;
+
+		//Last space of the current line: pen position before and after it, first glyph after it
+		float spaceX = -1, wordX = 0;
+		int wordGlyph = 0;
+
+		for(int i = 0; i < length; i++) {
+			final char c = text.charAt(i);
+
+			if(c == '\n') {
+				width = Math.max(width, penX);
+				penX = 0;
+				penY += lineHeight;
+				spaceX = -1;
+				lines++;
+				continue;
+			}
+
+			final Font.Glyph glyph = font.getGlyph(c);
+			final float advance = glyph.advance * scale;
+
+			if(c == ' ') {
+				spaceX = penX;
+				penX += advance;
+				wordX = penX;
+				wordGlyph = n;
+				continue;
+			}
+
+			if(wrapWidth > 0 && penX > 0 && penX + advance > wrapWidth) {
+				if(spaceX >= 0) {
+					//Move the current word to the next line
+					width = Math.max(width, spaceX);
+
+					for(int j = wordGlyph; j < n; j++) {
+						x[j] -= wordX;
+						y[j] += lineHeight;
+					}
+
+					penX -= wordX;
+				}
+				else {
+					//No space to break at, break the word
+					width = Math.max(width, penX);
+					penX = 0;
+				}
+
+				penY += lineHeight;
+				spaceX = -1;
+				lines++;
+			}
+
+			regions[n] = glyph.region;
+			x[n] = penX - padding;
+			y[n] = penY - padding;
+			scales[n] = scale;
+			n++;
+
+			penX += advance;
+		}
+
+		count = n;
+		width = Math.max(width, penX);
+		height = lines * lineHeight;
+	}
+
+	/**Returns the number of glyphs drawn*/
+	public int getGlyphCount() {
+		return count;
+	}
+
+	/**Returns the width of the widest line*/
+	public float getWidth() {
+		return width;
+	}
+
+	/**Returns the height of the text, number of lines times the line height*/
+	public float getHeight() {
+		return height;
+	}
+
+	/**Returns the number of lines*/
+	public int getLines() {
+		return lines;
+	}
+}
@@ -0,0 +1,197 @@
+package com.calderagames.mpfw.graphics.text;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.calderagames.mpfw.graphics.ShaderProgram;
+import com.calderagames.mpfw.graphics.SpriteBatch;
+
+/**
+ * Draws texts through a {@link SpriteBatch}, each text being laid out once and kept in a least recently
+ * used cache keyed by font, text, scale and wrap width. Drawing a cached text doesn't allocate and,
+ * the glyphs sharing the font atlas, doesn't cause a texture flush.
+ * <p>A distance field font switches the batch to its shader for the time of the draw, the batch must then
+ * use a single texture unit.</p>
+ */
+public class TextRenderer {
+
+	/**Number of layouts cached by default*/
+	public static final int DEFAULT_CACHE_SIZE = 256;
+
+	/**Key of a cached layout*/
+	private static class Key {
+		Font font;
+		String text;
+		float scale;
+		float wrapWidth;
+
+		Key set(Font font, String text, float scale, float wrapWidth) {
+			this.font = font;
+			this.text = text;
+			this.scale = scale;
+			this.wrapWidth = wrapWidth;
+			return this;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(font);
+			hash = 31 * hash + text.hashCode();
+			hash = 31 * hash + Float.floatToIntBits(scale);
+			hash = 31 * hash + Float.floatToIntBits(wrapWidth);
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+			return font == other.font && scale == other.scale && wrapWidth == other.wrapWidth && text.equals(other.text);
+		}
+	}
+
+	/**Cached layouts in access order*/
+	private LinkedHashMap<Key, TextLayout> cache;
+	/**Key used for the lookups, a new key is only created when a layout is added*/
+	private Key lookup;
+
+	/**Glyph positions translated to the drawn position, reusable*/
+	private float[] drawX, drawY;
+
+	private int hits;
+	private int misses;
+
+	public TextRenderer() {
+		this(DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructs a text renderer.
+	 * @param cacheSize the maximum number of layouts kept
+	 */
+	public TextRenderer(final int cacheSize) {
+		if(cacheSize < 1)
+			throw new IllegalArgumentException("The cache size must be at least 1.");
+
+		cache = new LinkedHashMap<Key, TextLayout>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, TextLayout> eldest) {
+				return size() > cacheSize;
+			}
+		};
+
+		lookup = new Key();
+		drawX = new float[64];
+		drawY = new float[64];
+	}
+
+	/**
+	 * Returns the layout of a text, from the cache if it was laid out already.
+	 * @param font the font of the text
+	 * @param text the text
+	 * @param scale the scale applied to the base size of the font
+	 * @param wrapWidth the maximum width of a line, 0 to only break on '\n'
+	 * @return the layout
+	 */
+	public TextLayout getLayout(Font font, String text, float scale, float wrapWidth) {
+		TextLayout layout = cache.get(lookup.set(font, text, scale, wrapWidth));
+		lookup.set(null, null, 0, 0);
+
+		if(layout != null) {
+			hits++;
+			return layout;
+		}
+
+		misses++;
+		layout = new TextLayout(font, text, scale, wrapWidth);
+		cache.put(new Key().set(font, text, scale, wrapWidth), layout);
+
+		return layout;
+	}
+
+	/**See {@link #draw(SpriteBatch, Font, String, float, float, float, float)}*/
+	public void draw(SpriteBatch batch, Font font, String text, float x, float y, float scale) {
+		draw(batch, font, text, x, y, scale, 0);
+	}
+
+	/**
+	 * Draws a text with the current color of the batch.
+	 * @param batch the batch to draw with, begin must have been called
+	 * @param font the font of the text
+	 * @param text the text
+	 * @param x the x-coordinate of the top left corner of the text
+	 * @param y the y-coordinate of the top left corner of the text
+	 * @param scale the scale applied to the base size of the font
+	 * @param wrapWidth the maximum width of a line, 0 to only break on '\n'
+	 */
+	public void draw(SpriteBatch batch, Font font, String text, float x, float y, float scale, float wrapWidth) {
+		draw(batch, font, getLayout(font, text, scale, wrapWidth), x, y);
+	}
+
+	/**
+	 * Draws a layout with the current color of the batch.
+	 * @param batch the batch to draw with, begin must have been called
+	 * @param font the font the layout was made with
+	 * @param layout the layout
+	 * @param x the x-coordinate of the top left corner of the text
+	 * @param y the y-coordinate of the top left corner of the text
+	 */
+	public void draw(SpriteBatch batch, Font font, TextLayout layout, float x, float y) {
+		final int count = layout.count;
+
+		if(count == 0)
+			return;
+
+		if(drawX.length < count) {
+			drawX = new float[Math.max(count, drawX.length * 2)];
+			drawY = new float[drawX.length];
+		}
+
+		for(int i = 0; i < count; i++) {
+			drawX[i] = layout.x[i] + x;
+			drawY[i] = layout.y[i] + y;
+		}
+
+		ShaderProgram lastShader = null;
+
+		if(font.isSDF()) {
+			lastShader = batch.getShader();
+			batch.setShader(font.getShader());
+		}
+
+		batch.drawBulk(layout.regions, drawX, drawY, layout.scales, null, null, 0, count);
+
+		if(font.isSDF())
+			batch.setShader(lastShader);
+	}
+
+	/**Removes every cached layout*/
+	public void clear() {
+		cache.clear();
+	}
+
+	/**Returns the number of cached layouts*/
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	/**Returns the number of layouts found in the cache*/
+	public int getHits() {
+		return hits;
+	}
+
+	/**Returns the number of texts that had to be laid out*/
+	public int getMisses() {
+		return misses;
+	}
+
+	/**Sets the hit and miss counters back to 0*/
+	public void resetCounters() {
+		hits = 0;
+		misses = 0;
+	}
+}
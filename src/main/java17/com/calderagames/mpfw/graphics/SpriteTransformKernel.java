@@ -0,0 +1,25 @@
+package com.calderagames.mpfw.graphics;
+
+/**
+ * Kernel of {@link SpriteTransform}, Java 17 version. Uses {@link SpriteTransformVector} if the
+ * jdk.incubator.vector module was resolved at startup, the scalar loop otherwise.
+ */
+final class SpriteTransformKernel {
+
+	private SpriteTransformKernel() {}
+
+	/**The vector classes are only loaded if the module is there*/
+	private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+	static boolean isVectorized() {
+		return VECTORIZED;
+	}
+
+	static void transform(float[] x, float[] y, float[] originX, float[] originY, float[] scaleX, float[] scaleY,
+	                      float[] rotation, float[] width, float[] height, int offset, int count, float[] out, int outOffset) {
+		if(VECTORIZED)
+			SpriteTransformVector.transform(x, y, originX, originY, scaleX, scaleY, rotation, width, height, offset, count, out, outOffset);
+		else
+			SpriteTransform.scalar(x, y, originX, originY, scaleX, scaleY, rotation, width, height, offset, count, out, outOffset);
+	}
+}
@@ -0,0 +1,78 @@
+package com.calderagames.mpfw.graphics;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernel of {@link SpriteTransform}, one sprite per lane. The corners are scattered
+ * in the interleaved output, the sprites left over by the last full vector go through the scalar loop.
+ */
+final class SpriteTransformVector {
+
+	private SpriteTransformVector() {}
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	private static final float DEG_TO_RAD = (float) (Math.PI / 180);
+
+	/**Index of the sprites of a vector in the output, 8 floats per sprite*/
+	private static final int[] SCATTER = new int[SPECIES.length()];
+
+	static {
+		for(int i = 0; i < SCATTER.length; i++)
+			SCATTER[i] = 8 * i;
+	}
+
+	static void transform(float[] x, float[] y, float[] originX, float[] originY, float[] scaleX, float[] scaleY,
+	                      float[] rotation, float[] width, float[] height, int offset, int count, float[] out, int outOffset) {
+		final int lanes = SPECIES.length();
+		final int vectorCount = count - count % lanes;
+
+		for(int i = 0; i < vectorCount; i += lanes) {
+			final int in = offset + i;
+			final int o = outOffset + 8 * i;
+
+			final FloatVector sx = FloatVector.fromArray(SPECIES, scaleX, in);
+			final FloatVector sy = FloatVector.fromArray(SPECIES, scaleY, in);
+			final FloatVector ox = FloatVector.fromArray(SPECIES, originX, in);
+			final FloatVector oy = FloatVector.fromArray(SPECIES, originY, in);
+
+			final FloatVector worldOriginX = FloatVector.fromArray(SPECIES, x, in).add(ox);
+			final FloatVector worldOriginY = FloatVector.fromArray(SPECIES, y, in).add(oy);
+
+			final FloatVector localX = ox.neg().mul(sx);
+			final FloatVector localY = oy.neg().mul(sy);
+			final FloatVector localX2 = ox.neg().add(FloatVector.fromArray(SPECIES, width, in)).mul(sx);
+			final FloatVector localY2 = oy.neg().add(FloatVector.fromArray(SPECIES, height, in)).mul(sy);
+
+			final FloatVector radians = FloatVector.fromArray(SPECIES, rotation, in).mul(DEG_TO_RAD);
+			final FloatVector cos = radians.lanewise(VectorOperators.COS);
+			final FloatVector sin = radians.lanewise(VectorOperators.SIN);
+
+			final FloatVector localXCos = localX.mul(cos);
+			final FloatVector localXSin = localX.mul(sin);
+			final FloatVector localY2Sin = localY2.mul(sin);
+			final FloatVector localY2Cos = localY2.mul(cos);
+
+			final FloatVector x1 = localXCos.sub(localY.mul(sin)).add(worldOriginX);
+			final FloatVector y1 = localY.mul(cos).add(localXSin).add(worldOriginY);
+			final FloatVector x2 = localXCos.sub(localY2Sin).add(worldOriginX);
+			final FloatVector y2 = localY2Cos.add(localXSin).add(worldOriginY);
+			final FloatVector x3 = localX2.mul(cos).sub(localY2Sin).add(worldOriginX);
+			final FloatVector y3 = localY2Cos.add(localX2.mul(sin)).add(worldOriginY);
+
+			x1.intoArray(out, o, SCATTER, 0);
+			y1.intoArray(out, o + 1, SCATTER, 0);
+			x1.add(x3.sub(x2)).intoArray(out, o + 2, SCATTER, 0);
+			y3.sub(y2.sub(y1)).intoArray(out, o + 3, SCATTER, 0);
+			x3.intoArray(out, o + 4, SCATTER, 0);
+			y3.intoArray(out, o + 5, SCATTER, 0);
+			x2.intoArray(out, o + 6, SCATTER, 0);
+			y2.intoArray(out, o + 7, SCATTER, 0);
+		}
+
+		SpriteTransform.scalar(x, y, originX, originY, scaleX, scaleY, rotation, width, height,
+		                       offset + vectorCount, count - vectorCount, out, outOffset + 8 * vectorCount);
+	}
+}
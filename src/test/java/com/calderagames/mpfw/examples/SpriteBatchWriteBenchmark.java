@@ -0,0 +1,93 @@
+package com.calderagames.mpfw.examples;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Times the ways of writing the vertices of a {@link com.calderagames.mpfw.graphics.SpriteBatch} flush into
+ * a stream region, without openGL: 1000 sprites, 4000 compact vertices of 16 bytes, per flush.
+ * <ul>
+ * <li>heap: an int[] filled per vertex then copied with one IntBuffer.put, the former write path</li>
+ * <li>memPut: MemoryUtil.memPutFloat/memPutInt at the address of each vertex, the current write path</li>
+ * <li>nio: IntBuffer absolute puts per vertex, for reference</li>
+ * </ul>
+ * <p>Prints the time per flush of each round, the first rounds are warm-up. On Java 9+ LWJGL only uses its Unsafe
+ * accessor when run with --add-opens java.base/java.nio=ALL-UNNAMED --add-exports java.base/sun.nio.ch=ALL-UNNAMED,
+ * otherwise memPut goes through JNI (run with -Dorg.lwjgl.util.Debug=true to see the accessor).</p>
+ */
+public class SpriteBatchWriteBenchmark {
+
+	private static final int SPRITES = 1000;
+	private static final int VERTEX_SIZE = 16;
+	private static final int FLUSHES = 20000;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		final ByteBuffer region = BufferUtils.createByteBuffer(4 * SPRITES * VERTEX_SIZE);
+		final IntBuffer regionInts = region.asIntBuffer();
+		final long address = MemoryUtil.memAddress(region);
+		final int[] heap = new int[4 * SPRITES * VERTEX_SIZE / 4];
+		int sink = 0;
+
+		for(int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for(int f = 0; f < FLUSHES; f++) {
+				int index = 0;
+				for(int s = 0; s < SPRITES; s++) {
+					for(int v = 0; v < 4; v++) {
+						heap[index++] = Float.floatToRawIntBits(s + v);
+						heap[index++] = Float.floatToRawIntBits(s - v);
+						heap[index++] = s ^ v;
+						heap[index++] = f;
+					}
+				}
+				regionInts.clear();
+				regionInts.put(heap, 0, index);
+			}
+			final long heapTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int f = 0; f < FLUSHES; f++) {
+				long vertex = address;
+				for(int s = 0; s < SPRITES; s++) {
+					for(int v = 0; v < 4; v++) {
+						MemoryUtil.memPutFloat(vertex, s + v);
+						MemoryUtil.memPutFloat(vertex + 4, s - v);
+						MemoryUtil.memPutInt(vertex + 8, s ^ v);
+						MemoryUtil.memPutInt(vertex + 12, f);
+						vertex += VERTEX_SIZE;
+					}
+				}
+				region.position((int) (vertex - address));
+			}
+			final long memPutTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int f = 0; f < FLUSHES; f++) {
+				int index = 0;
+				for(int s = 0; s < SPRITES; s++) {
+					for(int v = 0; v < 4; v++) {
+						regionInts.put(index, Float.floatToRawIntBits(s + v));
+						regionInts.put(index + 1, Float.floatToRawIntBits(s - v));
+						regionInts.put(index + 2, s ^ v);
+						regionInts.put(index + 3, f);
+						index += 4;
+					}
+				}
+			}
+			final long nioTime = System.nanoTime() - start;
+
+			sink += region.getInt(12) + regionInts.get(regionInts.capacity() - 1);
+
+			System.out.printf("round %d: heap %.1f us/flush, memPut %.1f us/flush, nio %.1f us/flush%n", round,
+			                  heapTime / 1e3 / FLUSHES, memPutTime / 1e3 / FLUSHES, nioTime / 1e3 / FLUSHES);
+		}
+
+		//Keeps the writes alive
+		if(sink == 42)
+			System.out.println();
+	}
+}
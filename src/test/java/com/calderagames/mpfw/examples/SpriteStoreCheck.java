@@ -0,0 +1,181 @@
+package com.calderagames.mpfw.examples;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import com.calderagames.mpfw.MPFW;
+import com.calderagames.mpfw.graphics.AbstractSpriteBatch;
+import com.calderagames.mpfw.graphics.Sprite;
+import com.calderagames.mpfw.graphics.SpriteStore;
+import com.calderagames.mpfw.graphics.SpriteTransform;
+import com.calderagames.mpfw.graphics.Texture;
+import com.calderagames.mpfw.graphics.TextureRegion;
+
+/**
+ * Compares a {@link SpriteStore} with one {@link Sprite} per handle over random updates, removals and re-adds,
+ * checking the corners after {@link SpriteStore#update()} and the quads handed to a batch by {@link SpriteStore#draw}.
+ * The dirty sprites form runs within and across the 64 bits words of the bitset, full words included.
+ * No openGL context is needed, the texture is never loaded.
+ * <p>The corners must be the same floats with the scalar loop and within {@link SpriteTransform#maxError}
+ * with the vector kernel, see {@link SpriteTransformCheck}.</p>
+ */
+public class SpriteStoreCheck {
+
+	private static final int ROUNDS = 2000;
+
+	/**Collects the corners of the quads in draw order*/
+	private static class Recorder extends AbstractSpriteBatch {
+
+		private final List<float[]> quads = new ArrayList<float[]>();
+
+		@Override
+		protected void quad(int texId, float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4,
+		                    float u1, float v1, float u2, float v2, float u3, float v3, float u4, float v4) {
+			quads.add(new float[] {x1, y1, x2, y2, x3, y3, x4, y4});
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		final Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 42);
+
+		//The region only needs the size of the texture, read from the PNG header
+		File png = File.createTempFile("mpfw", ".png");
+		png.deleteOnExit();
+		ImageIO.write(new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB), "png", png);
+		final TextureRegion region = new TextureRegion(new Texture(png.getPath(), MPFW.MPFW_NEAREST), 0, 0, 16, 16);
+
+		final SpriteStore store = new SpriteStore(64);
+		final List<Sprite> sprites = new ArrayList<Sprite>();
+		final List<Integer> freeHandles = new ArrayList<Integer>();
+		final float[] corners = new float[8];
+		int checks = 0;
+
+		for(int round = 0; round < ROUNDS; round++) {
+			//Adds, the removed handles must be reused last removed first
+			final int adds = random.nextInt(random.nextInt(8) == 0 ? 200 : 20);
+			for(int i = 0; i < adds; i++) {
+				final int expected = freeHandles.isEmpty() ? sprites.size() : freeHandles.remove(freeHandles.size() - 1);
+				final int h = store.add(region, 16, 16);
+
+				if(h != expected)
+					throw new IllegalStateException("Handle " + h + " instead of " + expected + ".");
+
+				if(h == sprites.size())
+					sprites.add(null);
+				sprites.set(h, new Sprite(16, 16, region));
+			}
+
+			if(sprites.isEmpty())
+				continue;
+
+			//Removals
+			final int removals = random.nextInt(10);
+			for(int i = 0; i < removals; i++) {
+				final int h = random.nextInt(sprites.size());
+
+				if(sprites.get(h) == null)
+					continue;
+
+				store.remove(h);
+				sprites.set(h, null);
+				freeHandles.add(h);
+			}
+
+			//Changes, either scattered or on a run of consecutive handles
+			final int changes = random.nextInt(random.nextInt(4) == 0 ? 300 : 30);
+			int h = random.nextInt(sprites.size());
+			for(int i = 0; i < changes; i++) {
+				h = random.nextBoolean() ? random.nextInt(sprites.size()) : (h + 1) % sprites.size();
+				final Sprite sprite = sprites.get(h);
+
+				if(sprite == null)
+					continue;
+
+				switch(random.nextInt(5)) {
+					case 0:
+						final float px = (random.nextFloat() * 2 - 1) * 1e4f, py = (random.nextFloat() * 2 - 1) * 1e4f;
+						store.setPosition(h, px, py);
+						sprite.setX(px);
+						sprite.setY(py);
+						break;
+					case 1:
+						final float rotation = (random.nextFloat() * 2 - 1) * 3600;
+						store.setRotation(h, rotation);
+						sprite.setRotation(rotation);
+						break;
+					case 2:
+						final float sx = (random.nextFloat() * 2 - 1) * 4, sy = (random.nextFloat() * 2 - 1) * 4;
+						store.setScale(h, sx, sy);
+						sprite.setScaleX(sx);
+						sprite.setScaleY(sy);
+						break;
+					case 3:
+						final float ox = random.nextFloat() * 32, oy = random.nextFloat() * 32;
+						store.setOrigin(h, ox, oy);
+						sprite.setOriginX(ox);
+						sprite.setOriginY(oy);
+						break;
+					default:
+						final float w = random.nextFloat() * 256, ht = random.nextFloat() * 256;
+						store.setSize(h, w, ht);
+						sprite.setWidth(w);
+						sprite.setHeight(ht);
+						break;
+				}
+			}
+
+			//Corners after update, or the quads of draw which updates first
+			if(random.nextBoolean()) {
+				store.update();
+
+				for(int s = 0; s < sprites.size(); s++) {
+					if(sprites.get(s) == null)
+						continue;
+
+					store.getVertices(s, corners);
+					compare(s, sprites.get(s), corners);
+					checks++;
+				}
+			}
+			else {
+				final Recorder recorder = new Recorder();
+				store.draw(recorder);
+
+				int quad = 0;
+				for(int s = 0; s < sprites.size(); s++) {
+					if(sprites.get(s) == null)
+						continue;
+
+					compare(s, sprites.get(s), recorder.quads.get(quad++));
+					checks++;
+				}
+
+				if(quad != recorder.quads.size() || quad != store.size())
+					throw new IllegalStateException(recorder.quads.size() + " quads drawn instead of " + quad + ".");
+			}
+		}
+
+		System.out.println(checks + " sprites checked over " + ROUNDS + " rounds, up to " + sprites.size() + " handles" +
+		                   (SpriteTransform.isVectorized() ? ", vector kernel" : ", scalar loop"));
+	}
+
+	/**Checks the corners of a handle against the sprite*/
+	private static void compare(int h, Sprite sprite, float[] corners) {
+		final float[] expected = sprite.getVertices();
+		final float bound = SpriteTransform.isVectorized() ?
+		                    SpriteTransform.maxError(sprite.getX(), sprite.getY(), sprite.getOriginX(), sprite.getOriginY(),
+		                                             sprite.getScaleX(), sprite.getScaleY(), sprite.getRotation(),
+		                                             sprite.getWidth(), sprite.getHeight()) : 0;
+
+		for(int c = 0; c < 8; c++) {
+			if(Math.abs(corners[c] - expected[c]) > bound)
+				throw new IllegalStateException("Handle " + h + " coordinate " + c + ": " + corners[c] + " instead of " + expected[c] + ".");
+		}
+	}
+}
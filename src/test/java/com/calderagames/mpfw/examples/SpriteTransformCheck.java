@@ -0,0 +1,88 @@
+package com.calderagames.mpfw.examples;
+
+import java.util.Random;
+
+import com.calderagames.mpfw.graphics.Sprite;
+import com.calderagames.mpfw.graphics.SpriteTransform;
+
+/**
+ * Compares {@link SpriteTransform#transform} with {@link Sprite#getVertices()} over random sprites,
+ * large rotations and coordinates included. No openGL context is needed.
+ * <p>The scalar loop must give the same floats, the vector kernel must stay within {@link SpriteTransform#maxError}.
+ * To check the vector kernel run it against the packaged multi-release jar on Java 17+:
+ * java --add-modules jdk.incubator.vector -cp target/mpfw-0.0.1-SNAPSHOT.jar:target/test-classes:... com.calderagames.mpfw.examples.SpriteTransformCheck</p>
+ */
+public class SpriteTransformCheck {
+
+	private static final int COUNT = 100000;
+
+	public static void main(String[] args) {
+		final Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 42);
+
+		float[] x = new float[COUNT];
+		float[] y = new float[COUNT];
+		float[] originX = new float[COUNT];
+		float[] originY = new float[COUNT];
+		float[] scaleX = new float[COUNT];
+		float[] scaleY = new float[COUNT];
+		float[] rotation = new float[COUNT];
+		float[] width = new float[COUNT];
+		float[] height = new float[COUNT];
+
+		for(int i = 0; i < COUNT; i++) {
+			//Coordinates up to 1e6, rotations up to a thousand turns, some sprites take the unrotated/unscaled paths
+			final float range = (float) Math.pow(10, random.nextInt(7));
+			x[i] = (random.nextFloat() * 2 - 1) * range;
+			y[i] = (random.nextFloat() * 2 - 1) * range;
+			width[i] = random.nextFloat() * 1000;
+			height[i] = random.nextFloat() * 1000;
+			originX[i] = (random.nextFloat() * 2 - 1) * width[i];
+			originY[i] = (random.nextFloat() * 2 - 1) * height[i];
+			scaleX[i] = random.nextInt(4) == 0 ? 1 : (random.nextFloat() * 2 - 1) * 4;
+			scaleY[i] = random.nextInt(4) == 0 ? 1 : (random.nextFloat() * 2 - 1) * 4;
+			rotation[i] = random.nextInt(4) == 0 ? 0 : (random.nextFloat() * 2 - 1) * (float) Math.pow(10, random.nextInt(6));
+		}
+
+		//Odd offset and count so the vector loop leaves sprites to the scalar one
+		final int offset = 3;
+		final int count = COUNT - 8;
+		float[] out = new float[8 * count + 5];
+		SpriteTransform.transform(x, y, originX, originY, scaleX, scaleY, rotation, width, height, offset, count, out, 5);
+
+		final boolean vectorized = SpriteTransform.isVectorized();
+		final Sprite sprite = new Sprite(0, 0, null);
+		float worstRatio = 0;
+
+		for(int i = 0; i < count; i++) {
+			final int s = offset + i;
+
+			sprite.setX(x[s]);
+			sprite.setY(y[s]);
+			sprite.setOriginX(originX[s]);
+			sprite.setOriginY(originY[s]);
+			sprite.setScaleX(scaleX[s]);
+			sprite.setScaleY(scaleY[s]);
+			sprite.setRotation(rotation[s]);
+			sprite.setWidth(width[s]);
+			sprite.setHeight(height[s]);
+
+			final float[] expected = sprite.getVertices();
+			final float bound = vectorized ? SpriteTransform.maxError(x[s], y[s], originX[s], originY[s], scaleX[s], scaleY[s],
+			                                                          rotation[s], width[s], height[s]) : 0;
+
+			for(int c = 0; c < 8; c++) {
+				final float error = Math.abs(out[5 + 8 * i + c] - expected[c]);
+
+				if(error > bound)
+					throw new IllegalStateException("Sprite " + s + " coordinate " + c + ": " + out[5 + 8 * i + c] + " instead of " +
+					                                expected[c] + " (error " + error + ", bound " + bound + ").");
+
+				if(bound > 0)
+					worstRatio = Math.max(worstRatio, error / bound);
+			}
+		}
+
+		System.out.println(count + " sprites checked, " + (vectorized ? "vector kernel, worst error " + worstRatio + " of the bound"
+		                                                              : "scalar loop, same floats"));
+	}
+}
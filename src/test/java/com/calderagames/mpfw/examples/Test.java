@@ -7,6 +7,7 @@ import org.lwjgl.opengl.GL11;
 
 import com.calderagames.mpfw.MPFW;
 import com.calderagames.mpfw.Window;
+import com.calderagames.mpfw.graphics.GLState;
 import com.calderagames.mpfw.graphics.RenderTarget;
 import com.calderagames.mpfw.graphics.Sprite;
 import com.calderagames.mpfw.graphics.SpriteBatch;
@@ -89,7 +90,7 @@ public class Test implements InputListener {
 			
 			GLFW.glfwSetTime(0);
 			GL11.glClear(GL11.GL_COLOR_BUFFER_BIT);
-			GL11.glViewport(0, 0, window.getWidth(), window.getHeight());
+			GLState.viewport(0, 0, window.getWidth(), window.getHeight());
 			sb.setRenderTarget(renderTarget);
 			sb.begin();
 			
@@ -115,9 +116,9 @@ public class Test implements InputListener {
 				timerFPS.start();
 				FPS = frameCounter;
 				frameCounter = 0;
+				//The title is only rebuilt when the FPS changes
+				window.setTitle("Mithril Pants - Test - Num Sprite: " + spriteCounter * 220 + " - FPS: " + FPS + " - Render time: " + GLFW.glfwGetTime() * 1000);
 			}
-			
-			window.setTitle("Mithril Pants - Test - Num Sprite: " + spriteCounter * 220 + " - FPS: " + FPS + " - Render time: " + GLFW.glfwGetTime() * 1000);
 		}
 	}
 	